@@ -0,0 +1,88 @@
+package com.example.actuator;
+
+import com.example.model.rule.ExternalCall;
+import com.example.service.ExternalCallService;
+import com.example.service.RuleConfigService;
+import com.example.service.SpelEvaluator;
+import com.example.service.plan.CompiledRule;
+import org.apache.hc.client5.http.HttpRoute;
+import org.apache.hc.client5.http.impl.nio.PoolingAsyncClientConnectionManager;
+import org.apache.hc.core5.pool.PoolStats;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Exposes rule engine runtime statistics at {@code /actuator/ruleengine}.
+ */
+@Component
+@Endpoint(id = "ruleengine")
+public class RuleEngineEndpoint {
+
+    private final SpelEvaluator spelEvaluator;
+    private final PoolingAsyncClientConnectionManager externalCallConnectionManager;
+    private final ExternalCallService externalCallService;
+    private final RuleConfigService ruleConfigService;
+
+    public RuleEngineEndpoint(SpelEvaluator spelEvaluator,
+                              PoolingAsyncClientConnectionManager externalCallConnectionManager,
+                              ExternalCallService externalCallService,
+                              RuleConfigService ruleConfigService) {
+        this.spelEvaluator = spelEvaluator;
+        this.externalCallConnectionManager = externalCallConnectionManager;
+        this.externalCallService = externalCallService;
+        this.ruleConfigService = ruleConfigService;
+    }
+
+    @ReadOperation
+    public Map<String, Object> statistics() {
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("expressionCache", spelEvaluator.getExpressionCacheStats());
+        response.put("expressionCompilation", spelEvaluator.getCompileStats());
+        response.put("templateCache", spelEvaluator.getTemplateCacheStats());
+        response.put("externalCallPool", poolStats());
+        response.put("responseCache", responseCacheStats());
+        response.put("externalCallCoalescing", externalCallService.getCoalescingStats());
+        return response;
+    }
+
+    /** Response cache statistics of each rule with a cached external call, by type and rule id. */
+    private Map<String, Object> responseCacheStats() {
+        Map<String, Object> types = new LinkedHashMap<>();
+        ruleConfigService.getLoadedRuleSets().forEach((type, ruleSet) -> {
+            Map<String, Object> rules = new LinkedHashMap<>();
+            for (CompiledRule rule : ruleSet.getRules()) {
+                ExternalCall call = rule.getExternalCall();
+                if (call != null && call.getCache() != null) {
+                    rules.put(rule.getId(), externalCallService.getCacheStats(call));
+                }
+            }
+            if (!rules.isEmpty()) {
+                types.put(type, rules);
+            }
+        });
+        return types;
+    }
+
+    private Map<String, Object> poolStats() {
+        Map<String, Object> pool = poolStats(externalCallConnectionManager.getTotalStats());
+        Map<String, Object> routes = new LinkedHashMap<>();
+        for (HttpRoute route : externalCallConnectionManager.getRoutes()) {
+            routes.put(route.getTargetHost().toURI(), poolStats(externalCallConnectionManager.getStats(route)));
+        }
+        pool.put("routes", routes);
+        return pool;
+    }
+
+    private static Map<String, Object> poolStats(PoolStats stats) {
+        Map<String, Object> pool = new LinkedHashMap<>();
+        pool.put("leased", stats.getLeased());
+        pool.put("idle", stats.getAvailable());
+        pool.put("pending", stats.getPending());
+        pool.put("max", stats.getMax());
+        return pool;
+    }
+}
@@ -1,86 +1,169 @@
 package com.example.config;
 
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.config.TlsConfig;
+import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
+import org.apache.hc.client5.http.impl.async.HttpAsyncClients;
+import org.apache.hc.client5.http.impl.nio.PoolingAsyncClientConnectionManager;
+import org.apache.hc.client5.http.impl.nio.PoolingAsyncClientConnectionManagerBuilder;
+import org.apache.hc.client5.http.ssl.ClientTlsStrategyBuilder;
+import org.apache.hc.client5.http.ssl.NoopHostnameVerifier;
+import org.apache.hc.core5.http2.HttpVersionPolicy;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.boot.context.properties.ConfigurationProperties;
-import org.springframework.boot.web.client.RestTemplateBuilder;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.web.client.RestTemplate;
 
 import javax.net.ssl.*;
 import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
 import java.security.cert.X509Certificate;
+import java.time.Duration;
 
 @Configuration
 @ConfigurationProperties(prefix = "app.external-calls")
 public class RestTemplateConfig {
-    
+
     private static final Logger logger = LoggerFactory.getLogger(RestTemplateConfig.class);
-    
+
     private boolean trustAllCertificates = false;
-    
+
+    // Connection pool: connections are kept alive and reused per host
+    private int maxConnectionsTotal = 200;
+    private int maxConnectionsPerRoute = 20;
+    private Duration connectionTtl = Duration.ofMinutes(5);
+    private Duration idleEviction = Duration.ofSeconds(30);
+    private Duration connectTimeout = Duration.ofSeconds(10);
+    private Duration readTimeout = Duration.ofSeconds(30);
+
     public boolean isTrustAllCertificates() {
         return trustAllCertificates;
     }
-    
+
     public void setTrustAllCertificates(boolean trustAllCertificates) {
         this.trustAllCertificates = trustAllCertificates;
     }
-    
+
+    public int getMaxConnectionsTotal() {
+        return maxConnectionsTotal;
+    }
+
+    public void setMaxConnectionsTotal(int maxConnectionsTotal) {
+        this.maxConnectionsTotal = maxConnectionsTotal;
+    }
+
+    public int getMaxConnectionsPerRoute() {
+        return maxConnectionsPerRoute;
+    }
+
+    public void setMaxConnectionsPerRoute(int maxConnectionsPerRoute) {
+        this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+    }
+
+    public Duration getConnectionTtl() {
+        return connectionTtl;
+    }
+
+    public void setConnectionTtl(Duration connectionTtl) {
+        this.connectionTtl = connectionTtl;
+    }
+
+    public Duration getIdleEviction() {
+        return idleEviction;
+    }
+
+    public void setIdleEviction(Duration idleEviction) {
+        this.idleEviction = idleEviction;
+    }
+
+    public Duration getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    public void setConnectTimeout(Duration connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    public Duration getReadTimeout() {
+        return readTimeout;
+    }
+
+    public void setReadTimeout(Duration readTimeout) {
+        this.readTimeout = readTimeout;
+    }
+
+    /**
+     * The connection pool of the external call client. Connections are kept alive and
+     * reused per host, up to {@code maxConnectionsPerRoute}; HTTP/2 is negotiated over
+     * TLS where the server supports it, and requests to such a host share one connection.
+     */
     @Bean
-    public RestTemplate restTemplate(RestTemplateBuilder builder) {
+    public PoolingAsyncClientConnectionManager externalCallConnectionManager() {
+        PoolingAsyncClientConnectionManagerBuilder pool = PoolingAsyncClientConnectionManagerBuilder.create()
+            .setMaxConnTotal(maxConnectionsTotal)
+            .setMaxConnPerRoute(maxConnectionsPerRoute)
+            .setDefaultConnectionConfig(ConnectionConfig.custom()
+                .setConnectTimeout(Timeout.of(connectTimeout))
+                .setSocketTimeout(Timeout.of(readTimeout))
+                .setTimeToLive(TimeValue.of(connectionTtl))
+                .build())
+            .setDefaultTlsConfig(TlsConfig.custom()
+                .setVersionPolicy(HttpVersionPolicy.NEGOTIATE)
+                .build());
         if (trustAllCertificates) {
             logger.warn("SSL certificate validation is disabled. This should only be used in development/testing environments.");
-            return createTrustAllRestTemplate(builder);
-        } else {
-            return builder.build();
+            SSLContext sslContext = createTrustAllSslContext();
+            if (sslContext != null) {
+                pool.setTlsStrategy(ClientTlsStrategyBuilder.create()
+                    .setSslContext(sslContext)
+                    .setHostnameVerifier(NoopHostnameVerifier.INSTANCE)
+                    .build());
+            }
         }
+        return pool.build();
     }
-    
-    private RestTemplate createTrustAllRestTemplate(RestTemplateBuilder builder) {
+
+    /**
+     * The client for all external calls. Synchronous calls wait for its response, so
+     * both kinds of call share the pool, its limits and its statistics.
+     */
+    @Bean
+    public CloseableHttpAsyncClient externalCallHttpClient(PoolingAsyncClientConnectionManager externalCallConnectionManager) {
+        CloseableHttpAsyncClient client = HttpAsyncClients.custom()
+            .setConnectionManager(externalCallConnectionManager)
+            .setDefaultRequestConfig(RequestConfig.custom()
+                .setResponseTimeout(Timeout.of(readTimeout))
+                .build())
+            .evictIdleConnections(TimeValue.of(idleEviction))
+            .evictExpiredConnections()
+            .build();
+        client.start();
+        return client;
+    }
+
+    private SSLContext createTrustAllSslContext() {
         try {
             // Create a trust manager that trusts all certificates
             TrustManager[] trustAllCerts = new TrustManager[] {
                 new X509TrustManager() {
-                    public X509Certificate[] getAcceptedIssuers() { return null; }
+                    public X509Certificate[] getAcceptedIssuers() { return new X509Certificate[0]; }
                     public void checkClientTrusted(X509Certificate[] certs, String authType) { }
                     public void checkServerTrusted(X509Certificate[] certs, String authType) { }
                 }
             };
-            
+
             // Create SSL context with the trust manager
             SSLContext sslContext = SSLContext.getInstance("TLS");
             sslContext.init(null, trustAllCerts, new java.security.SecureRandom());
-            
-            // Create SSL socket factory
-            SSLSocketFactory sslSocketFactory = sslContext.getSocketFactory();
-            
-            // Create hostname verifier that accepts all hostnames
-            HostnameVerifier allHostsValid = (hostname, session) -> true;
-            
-            // Build RestTemplate with SSL configuration and timeouts
-            return builder
-                .setConnectTimeout(java.time.Duration.ofSeconds(10))
-                .setReadTimeout(java.time.Duration.ofSeconds(30))
-                .requestFactory(() -> {
-                    try {
-                        HttpsURLConnection.setDefaultSSLSocketFactory(sslSocketFactory);
-                        HttpsURLConnection.setDefaultHostnameVerifier(allHostsValid);
-                    } catch (Exception e) {
-                        logger.warn("Could not configure SSL trust for RestTemplate", e);
-                    }
-                    return new org.springframework.http.client.SimpleClientHttpRequestFactory();
-                })
-                .build();
-                
+            return sslContext;
+
         } catch (NoSuchAlgorithmException | KeyManagementException e) {
-            logger.warn("Could not configure SSL trust, using default RestTemplate", e);
-            return builder
-                .setConnectTimeout(java.time.Duration.ofSeconds(10))
-                .setReadTimeout(java.time.Duration.ofSeconds(30))
-                .build();
+            logger.warn("Could not configure SSL trust, using default SSL settings", e);
+            return null;
         }
     }
 }
@@ -0,0 +1,20 @@
+package com.example.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+@ConfigurationProperties(prefix = "app.rules")
+public class RuleExecutionConfig {
+
+    /** Threads for rule configurations with parallel execution; 0 uses one per available processor. */
+    private int parallelism = 0;
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+}
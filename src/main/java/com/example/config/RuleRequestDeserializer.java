@@ -0,0 +1,89 @@
+package com.example.config;
+
+import com.example.model.RuleRequest;
+import com.example.service.RuleConfigService;
+import com.example.service.plan.CompiledRuleSet;
+import com.example.service.plan.MapShape;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+import com.fasterxml.jackson.databind.type.TypeFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.jackson.JsonComponent;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Binds a rule request as the body is read. When {@code typeOfRequest} comes before
+ * {@code payload}, as it usually does, and its rules are already loaded and have no
+ * streaming validation, the payload is parsed straight into the map the rule engine
+ * executes on, laid out by the rules' payload shape if they have one. Otherwise it is
+ * kept as JSON tokens for the engine to check and read once it knows the rules.
+ */
+@JsonComponent
+public class RuleRequestDeserializer extends JsonDeserializer<RuleRequest> {
+
+    private static final JavaType PAYLOAD_TYPE =
+        TypeFactory.defaultInstance().constructMapType(LinkedHashMap.class, String.class, Object.class);
+
+    // Looked up lazily: the rule configurations are themselves read with the ObjectMapper
+    private final ObjectProvider<RuleConfigService> ruleConfigService;
+
+    public RuleRequestDeserializer(ObjectProvider<RuleConfigService> ruleConfigService) {
+        this.ruleConfigService = ruleConfigService;
+    }
+
+    @Override
+    public RuleRequest deserialize(JsonParser parser, DeserializationContext context) throws IOException {
+        if (!parser.isExpectedStartObjectToken()) {
+            return (RuleRequest) context.handleUnexpectedToken(RuleRequest.class, parser);
+        }
+        RuleRequest request = new RuleRequest();
+        String field;
+        while ((field = parser.nextFieldName()) != null) {
+            JsonToken token = parser.nextToken();
+            if ("typeOfRequest".equals(field)) {
+                request.setTypeOfRequest(token == JsonToken.VALUE_NULL ? null : parser.getValueAsString());
+            } else if ("payload".equals(field)) {
+                Map<String, Object> payload = token == JsonToken.START_OBJECT
+                    ? readDirectly(parser, context, request.getTypeOfRequest()) : null;
+                if (payload != null) {
+                    request.bindPayload(payload);
+                } else {
+                    request.setPayload(token == JsonToken.VALUE_NULL ? null : context.bufferAsCopyOfValue(parser));
+                }
+            } else {
+                context.handleUnknownProperty(parser, this, RuleRequest.class, field);
+            }
+        }
+        return request;
+    }
+
+    /** Reads the payload into the map the engine runs on, or returns {@code null} if it must be buffered. */
+    private Map<String, Object> readDirectly(JsonParser parser, DeserializationContext context,
+                                             String typeOfRequest) throws IOException {
+        CompiledRuleSet ruleSet = directRuleSet(typeOfRequest);
+        if (ruleSet == null) {
+            return null;
+        }
+        MapShape shape = ruleSet.getPayloadShape();
+        return shape != null ? shape.read(parser) : context.readValue(parser, PAYLOAD_TYPE);
+    }
+
+    /**
+     * The rules for a type if its payloads can be read without checking them first. Only
+     * rule sets that are already loaded are used: loading one here would run for every
+     * request of an unknown type, and the first request of a type is simply buffered.
+     */
+    private CompiledRuleSet directRuleSet(String typeOfRequest) {
+        if (typeOfRequest == null) {
+            return null;
+        }
+        CompiledRuleSet ruleSet = ruleConfigService.getObject().getLoadedRuleSets().get(typeOfRequest);
+        return ruleSet != null && ruleSet.getStreamingValidator() == null ? ruleSet : null;
+    }
+}
@@ -0,0 +1,30 @@
+package com.example.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.expression.spel.SpelCompilerMode;
+
+@Configuration
+@ConfigurationProperties(prefix = "app.spel")
+public class SpelConfig {
+
+    private int expressionCacheSize = 1024;
+
+    private SpelCompilerMode compilerMode = SpelCompilerMode.OFF;
+
+    public int getExpressionCacheSize() {
+        return expressionCacheSize;
+    }
+
+    public void setExpressionCacheSize(int expressionCacheSize) {
+        this.expressionCacheSize = expressionCacheSize;
+    }
+
+    public SpelCompilerMode getCompilerMode() {
+        return compilerMode;
+    }
+
+    public void setCompilerMode(SpelCompilerMode compilerMode) {
+        this.compilerMode = compilerMode;
+    }
+}
@@ -2,9 +2,9 @@ package com.example.controller;
 
 import com.example.model.RuleRequest;
 import com.example.model.RuleResponse;
-import com.example.model.rule.RuleConfig;
 import com.example.service.RuleConfigService;
 import com.example.service.RuleEngine;
+import com.example.service.plan.CompiledRuleSet;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.http.HttpStatus;
@@ -46,11 +46,11 @@ public class RulesController {
         try {
             logger.info("Processing rule request for type: {}", request.getTypeOfRequest());
             
-            // Load rule configuration
-            RuleConfig config = ruleConfigService.loadConfig(request.getTypeOfRequest());
+            // Load compiled rule configuration
+            CompiledRuleSet ruleSet = ruleConfigService.loadRuleSet(request.getTypeOfRequest());
             
             // Execute rules
-            RuleResponse response = ruleEngine.execute(request, config);
+            RuleResponse response = ruleEngine.execute(request, ruleSet);
             
             logger.info("Rule execution completed for requestId: {}, valid: {}", 
                        response.getRequestId(), response.isValid());
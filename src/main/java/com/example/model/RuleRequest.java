@@ -1,7 +1,10 @@
 package com.example.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
+import java.util.Map;
+
 public class RuleRequest {
     
     @JsonProperty("typeOfRequest")
@@ -9,6 +12,10 @@ public class RuleRequest {
     
     @JsonProperty("payload")
     private Object payload;
+
+    // Set only when the request body was read into a map of its own
+    @JsonIgnore
+    private Map<String, Object> boundPayload;
     
     // Default constructor
     public RuleRequest() {}
@@ -34,6 +41,22 @@ public class RuleRequest {
     
     public void setPayload(Object payload) {
         this.payload = payload;
+        this.boundPayload = null;
+    }
+
+    /**
+     * Sets a payload that was read from the request body into a new map, which the rule
+     * engine may then change in place instead of copying it first.
+     */
+    public void bindPayload(Map<String, Object> payload) {
+        this.payload = payload;
+        this.boundPayload = payload;
+    }
+
+    /** The payload if it was set with {@link #bindPayload(Map)}, otherwise {@code null}. */
+    @JsonIgnore
+    public Map<String, Object> getBoundPayload() {
+        return boundPayload;
     }
     
     @Override
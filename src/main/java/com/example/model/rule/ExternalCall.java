@@ -20,6 +20,15 @@ public class ExternalCall {
     @JsonProperty("saveAs")
     private String saveAs;
     
+    @JsonProperty("async")
+    private Boolean async;
+    
+    @JsonProperty("cache")
+    private ExternalCallCache cache;
+    
+    @JsonProperty("coalesce")
+    private Boolean coalesce;
+    
     // Default constructor
     public ExternalCall() {}
     
@@ -74,6 +83,30 @@ public class ExternalCall {
         this.saveAs = saveAs;
     }
     
+    public Boolean getAsync() {
+        return async;
+    }
+    
+    public void setAsync(Boolean async) {
+        this.async = async;
+    }
+    
+    public ExternalCallCache getCache() {
+        return cache;
+    }
+    
+    public void setCache(ExternalCallCache cache) {
+        this.cache = cache;
+    }
+    
+    public Boolean getCoalesce() {
+        return coalesce;
+    }
+    
+    public void setCoalesce(Boolean coalesce) {
+        this.coalesce = coalesce;
+    }
+    
     @Override
     public String toString() {
         return "ExternalCall{" +
@@ -82,6 +115,9 @@ public class ExternalCall {
                 ", headers=" + headers +
                 ", bodyTemplate='" + bodyTemplate + '\'' +
                 ", saveAs='" + saveAs + '\'' +
+                ", async=" + async +
+                ", cache=" + cache +
+                ", coalesce=" + coalesce +
                 '}';
     }
 }
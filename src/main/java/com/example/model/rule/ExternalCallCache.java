@@ -0,0 +1,81 @@
+package com.example.model.rule;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import java.util.List;
+
+/**
+ * Caching of an external call's responses, for calls whose result depends only on the
+ * request. Durations use the same format as application properties, such as {@code 10m}.
+ */
+public class ExternalCallCache {
+    
+    @JsonProperty("ttl")
+    private String ttl;
+    
+    @JsonProperty("staleWhileRevalidate")
+    private String staleWhileRevalidate;
+    
+    @JsonProperty("maxEntries")
+    private Integer maxEntries;
+    
+    @JsonProperty("keyExpression")
+    private String keyExpression;
+    
+    @JsonProperty("keyHeaders")
+    private List<String> keyHeaders;
+    
+    // Default constructor
+    public ExternalCallCache() {}
+    
+    // Getters and Setters
+    public String getTtl() {
+        return ttl;
+    }
+    
+    public void setTtl(String ttl) {
+        this.ttl = ttl;
+    }
+    
+    public String getStaleWhileRevalidate() {
+        return staleWhileRevalidate;
+    }
+    
+    public void setStaleWhileRevalidate(String staleWhileRevalidate) {
+        this.staleWhileRevalidate = staleWhileRevalidate;
+    }
+    
+    public Integer getMaxEntries() {
+        return maxEntries;
+    }
+    
+    public void setMaxEntries(Integer maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+    
+    public String getKeyExpression() {
+        return keyExpression;
+    }
+    
+    public void setKeyExpression(String keyExpression) {
+        this.keyExpression = keyExpression;
+    }
+    
+    public List<String> getKeyHeaders() {
+        return keyHeaders;
+    }
+    
+    public void setKeyHeaders(List<String> keyHeaders) {
+        this.keyHeaders = keyHeaders;
+    }
+    
+    @Override
+    public String toString() {
+        return "ExternalCallCache{" +
+                "ttl='" + ttl + '\'' +
+                ", staleWhileRevalidate='" + staleWhileRevalidate + '\'' +
+                ", maxEntries=" + maxEntries +
+                ", keyExpression='" + keyExpression + '\'' +
+                ", keyHeaders=" + keyHeaders +
+                '}';
+    }
+}
@@ -18,6 +18,30 @@ public class RuleConfig {
     @JsonProperty("rules")
     private List<Rule> rules;
     
+    @JsonProperty("evaluationMode")
+    private String evaluationMode;
+    
+    @JsonProperty("parallel")
+    private Boolean parallel;
+    
+    @JsonProperty("regexEngine")
+    private String regexEngine;
+
+    @JsonProperty("streamingValidation")
+    private Boolean streamingValidation;
+
+    @JsonProperty("compactPayload")
+    private Boolean compactPayload;
+
+    @JsonProperty("trackChanges")
+    private Boolean trackChanges;
+
+    @JsonProperty("rollbackOnError")
+    private Boolean rollbackOnError;
+
+    @JsonProperty("prefetchExternalCalls")
+    private Boolean prefetchExternalCalls;
+    
     // Default constructor
     public RuleConfig() {}
     
@@ -63,6 +87,70 @@ public class RuleConfig {
         this.rules = rules;
     }
     
+    public String getEvaluationMode() {
+        return evaluationMode;
+    }
+    
+    public void setEvaluationMode(String evaluationMode) {
+        this.evaluationMode = evaluationMode;
+    }
+    
+    public Boolean getParallel() {
+        return parallel;
+    }
+    
+    public void setParallel(Boolean parallel) {
+        this.parallel = parallel;
+    }
+    
+    public String getRegexEngine() {
+        return regexEngine;
+    }
+    
+    public void setRegexEngine(String regexEngine) {
+        this.regexEngine = regexEngine;
+    }
+
+    public Boolean getStreamingValidation() {
+        return streamingValidation;
+    }
+
+    public void setStreamingValidation(Boolean streamingValidation) {
+        this.streamingValidation = streamingValidation;
+    }
+
+    public Boolean getCompactPayload() {
+        return compactPayload;
+    }
+
+    public void setCompactPayload(Boolean compactPayload) {
+        this.compactPayload = compactPayload;
+    }
+
+    public Boolean getTrackChanges() {
+        return trackChanges;
+    }
+
+    public void setTrackChanges(Boolean trackChanges) {
+        this.trackChanges = trackChanges;
+    }
+
+    public Boolean getRollbackOnError() {
+        return rollbackOnError;
+    }
+
+    public void setRollbackOnError(Boolean rollbackOnError) {
+        this.rollbackOnError = rollbackOnError;
+    }
+
+    public Boolean getPrefetchExternalCalls() {
+        return prefetchExternalCalls;
+    }
+
+    public void setPrefetchExternalCalls(Boolean prefetchExternalCalls) {
+        this.prefetchExternalCalls = prefetchExternalCalls;
+    }
+    
     @Override
     public String toString() {
         return "RuleConfig{" +
@@ -70,6 +158,14 @@ public class RuleConfig {
                 ", redactHeaders=" + redactHeaders +
                 ", defaults=" + defaults +
                 ", rules=" + rules +
+                ", evaluationMode='" + evaluationMode + '\'' +
+                ", parallel=" + parallel +
+                ", regexEngine='" + regexEngine + '\'' +
+                ", streamingValidation=" + streamingValidation +
+                ", compactPayload=" + compactPayload +
+                ", trackChanges=" + trackChanges +
+                ", rollbackOnError=" + rollbackOnError +
+                ", prefetchExternalCalls=" + prefetchExternalCalls +
                 '}';
     }
 }
@@ -16,6 +16,9 @@ public class ValidationRule {
     @JsonProperty("regex")
     private String regex;
     
+    @JsonProperty("regexEngine")
+    private String regexEngine;
+    
     @JsonProperty("spel")
     private String spel;
     
@@ -72,6 +75,14 @@ public class ValidationRule {
     public String getSpel() { return spel; }
     public void setSpel(String spel) { this.spel = spel; }
     
+    public String getRegexEngine() {
+        return regexEngine;
+    }
+    
+    public void setRegexEngine(String regexEngine) {
+        this.regexEngine = regexEngine;
+    }
+    
     public String getMessage() {
         return message;
     }
@@ -87,6 +98,7 @@ public class ValidationRule {
                 ", required=" + required +
                 ", type='" + type + '\'' +
                 ", regex='" + regex + '\'' +
+                ", regexEngine='" + regexEngine + '\'' +
                 ", spel='" + spel + '\'' +
                 ", message='" + message + '\'' +
                 '}';
@@ -0,0 +1,203 @@
+package com.example.service;
+
+import com.example.service.plan.CompiledRule;
+import com.example.service.plan.CompiledValidation;
+import com.example.service.plan.PathAccessor;
+import com.example.service.plan.RuleAccess;
+import org.springframework.expression.spel.SpelNode;
+import org.springframework.expression.spel.ast.Assign;
+import org.springframework.expression.spel.ast.BeanReference;
+import org.springframework.expression.spel.ast.CompoundExpression;
+import org.springframework.expression.spel.ast.FunctionReference;
+import org.springframework.expression.spel.ast.Indexer;
+import org.springframework.expression.spel.ast.MethodReference;
+import org.springframework.expression.spel.ast.OpDec;
+import org.springframework.expression.spel.ast.OpInc;
+import org.springframework.expression.spel.ast.PropertyOrFieldReference;
+import org.springframework.expression.spel.ast.StringLiteral;
+import org.springframework.expression.spel.ast.TypeReference;
+import org.springframework.expression.spel.ast.VariableReference;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Works out the {@link RuleAccess} of a compiled rule from the syntax trees of its
+ * expressions. Only {@code #payload['key']} and {@code #ctx['key']} with a literal key
+ * (or {@code #payload.key}) are tracked. Anything that could touch other keys or change
+ * a value in place makes the rule unrestricted: a bare {@code #payload} or {@code #ctx},
+ * a computed key, an assignment below the top level, a method that is not known to be
+ * side-effect free, a variable other than the ones every request defines, and type,
+ * bean and function references.
+ */
+final class AccessAnalyzer {
+
+    private static final Set<String> TRACKED = Set.of("#payload", "#ctx");
+    private static final Set<String> CONSTANT = Set.of("#defaults", "#env");
+    /** Variables that are the same for every expression of a request, or local to one. */
+    private static final Set<String> KNOWN = Set.of("#now", "#this");
+
+    /** Methods that do not modify their target or arguments. */
+    private static final Set<String> PURE_METHODS = Set.of(
+        "trim", "strip", "length", "isEmpty", "isBlank", "startsWith", "endsWith", "contains",
+        "containsKey", "containsValue", "get", "getOrDefault", "equals", "equalsIgnoreCase",
+        "matches", "substring", "indexOf", "lastIndexOf", "charAt", "replace", "replaceAll",
+        "split", "concat", "compareTo", "hashCode", "size", "format", "valueOf", "toUpperCase",
+        "toLowerCase", "toString", "intValue", "longValue", "doubleValue");
+
+    private final RuleAccess access = new RuleAccess();
+
+    private AccessAnalyzer() {
+    }
+
+    /**
+     * @param expressions every expression the rule evaluates, including template placeholders
+     */
+    static RuleAccess analyze(CompiledRule rule, List<ParsedExpression> expressions) {
+        AccessAnalyzer analyzer = new AccessAnalyzer();
+        for (ParsedExpression expression : expressions) {
+            analyzer.visit(expression.getAst());
+        }
+        for (CompiledValidation validation : rule.getValidations()) {
+            String key = PathAccessor.topLevelKey(validation.getPath());
+            if (key != null) {
+                analyzer.access.read("payload", key);
+            } else {
+                analyzer.access.markUnrestricted();
+            }
+        }
+        if (rule.getExternalCall() != null && rule.getExternalCall().getSaveAs() != null) {
+            analyzer.access.write("ctx", rule.getExternalCall().getSaveAs());
+        }
+        return analyzer.access;
+    }
+
+    /** The keys a group of expressions, such as the templates of an external call, reads and writes. */
+    static RuleAccess analyze(List<ParsedExpression> expressions) {
+        AccessAnalyzer analyzer = new AccessAnalyzer();
+        for (ParsedExpression expression : expressions) {
+            analyzer.visit(expression.getAst());
+        }
+        return analyzer.access;
+    }
+
+    /** The keys a single expression or sub-expression reads and writes. */
+    static RuleAccess analyze(SpelNode ast) {
+        AccessAnalyzer analyzer = new AccessAnalyzer();
+        analyzer.visit(ast);
+        return analyzer.access;
+    }
+
+    private void visit(SpelNode node) {
+        if (node == null) {
+            return;
+        }
+        if (node instanceof Assign || node instanceof OpInc || node instanceof OpDec) {
+            visitTarget(node.getChild(0), !(node instanceof Assign));
+            for (int i = 1; i < node.getChildCount(); i++) {
+                visit(node.getChild(i));
+            }
+            return;
+        }
+        if (node instanceof CompoundExpression) {
+            visitChain(steps(node));
+            return;
+        }
+        if (node instanceof VariableReference) {
+            String name = node.toStringAST();
+            if (TRACKED.contains(name) || "#root".equals(name)) {
+                access.markUnrestricted(); // the whole map
+            } else if (!CONSTANT.contains(name) && !KNOWN.contains(name)) {
+                access.markUnrestricted(); // a variable whose value is not followed
+            }
+            return;
+        }
+        if (node instanceof FunctionReference || node instanceof TypeReference || node instanceof BeanReference
+                || (node instanceof MethodReference method && !isPure(method))) {
+            access.markUnrestricted();
+            return;
+        }
+        visitChildren(node);
+    }
+
+    private void visitTarget(SpelNode target, boolean alsoRead) {
+        List<SpelNode> steps = steps(target);
+        String variable = steps.get(0).toStringAST();
+        if (CONSTANT.contains(variable)) {
+            access.markUnrestricted();
+            return;
+        }
+        if (!TRACKED.contains(variable)) {
+            visit(target);
+            return;
+        }
+        String key = steps.size() == 2 ? keyOf(steps.get(1)) : null;
+        if (key == null) {
+            access.markUnrestricted(); // a computed key or a value changed in place
+            return;
+        }
+        if (alsoRead) {
+            access.read(variable.substring(1), key);
+        }
+        access.write(variable.substring(1), key);
+    }
+
+    private void visitChain(List<SpelNode> steps) {
+        SpelNode head = steps.get(0);
+        int next = 1;
+        if (head instanceof VariableReference && TRACKED.contains(head.toStringAST())) {
+            String key = keyOf(steps.get(1));
+            if (key == null) {
+                access.markUnrestricted();
+                return;
+            }
+            access.read(head.toStringAST().substring(1), key);
+            next = 2;
+        } else {
+            visit(head);
+        }
+        for (int i = next; i < steps.size(); i++) {
+            SpelNode step = steps.get(i);
+            if (step instanceof MethodReference method && !isPure(method)) {
+                access.markUnrestricted();
+                return;
+            }
+            visitChildren(step);
+        }
+    }
+
+    private void visitChildren(SpelNode node) {
+        for (int i = 0; i < node.getChildCount(); i++) {
+            visit(node.getChild(i));
+        }
+    }
+
+    /** The steps of a property chain, with the leading parenthesised chains flattened. */
+    static List<SpelNode> steps(SpelNode node) {
+        List<SpelNode> steps = new ArrayList<>();
+        if (node instanceof CompoundExpression) {
+            steps.addAll(steps(node.getChild(0)));
+            for (int i = 1; i < node.getChildCount(); i++) {
+                steps.add(node.getChild(i));
+            }
+        } else {
+            steps.add(node);
+        }
+        return steps;
+    }
+
+    static String keyOf(SpelNode step) {
+        if (step instanceof PropertyOrFieldReference property) {
+            return property.getName();
+        }
+        if (step instanceof Indexer && step.getChild(0) instanceof StringLiteral literal) {
+            return (String) literal.getLiteralValue().getValue();
+        }
+        return null;
+    }
+
+    private static boolean isPure(MethodReference method) {
+        return PURE_METHODS.contains(method.getName());
+    }
+}
@@ -0,0 +1,290 @@
+package com.example.service;
+
+import com.example.service.plan.CompiledRule;
+import com.example.service.plan.CompiledValidation;
+import com.example.service.plan.RuleAccess;
+import org.springframework.expression.spel.SpelNode;
+import org.springframework.expression.spel.ast.Assign;
+import org.springframework.expression.spel.ast.CompoundExpression;
+import org.springframework.expression.spel.ast.Indexer;
+import org.springframework.expression.spel.ast.Literal;
+import org.springframework.expression.spel.ast.MethodReference;
+import org.springframework.expression.spel.ast.PropertyOrFieldReference;
+import org.springframework.expression.spel.ast.VariableReference;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Side-effect-free sub-expressions that occur more than once in a configuration, such as
+ * a {@code #payload['email'] != null} guard repeated across rules. Each occurrence is
+ * rewritten to {@code #__cse[n]}, which a per-request {@link SubexpressionMemo}
+ * evaluates the first time it is read and then remembers until an expression writes a
+ * {@code #payload} or {@code #ctx} key the sub-expression reads.
+ */
+public final class CommonSubexpressions {
+
+    static final String VARIABLE = "__cse";
+    private static final Set<String> VARIABLES = Set.of("#payload", "#ctx", "#defaults", "#env", "#now");
+    /** Methods that return a new array or collection each time. */
+    private static final Set<String> FRESH_CONTAINERS = Set.of("split", "toArray", "toCharArray", "getBytes", "toList");
+
+    private final SpelEvaluator spelEvaluator;
+    private final Map<String, Integer> slotsByText = new HashMap<>();
+    private final List<ParsedExpression> slots = new ArrayList<>();
+    private final List<RuleAccess> slotAccess = new ArrayList<>();
+    /** The slots to forget after evaluating an expression that writes keys they read. */
+    private final Map<ParsedExpression, BitSet> invalidations = new IdentityHashMap<>();
+    private final Map<String, BitSet> ctxSlots = new HashMap<>();
+    private final Map<String, BitSet> payloadSlots = new HashMap<>();
+
+    private CommonSubexpressions(SpelEvaluator spelEvaluator, Set<String> common) {
+        this.spelEvaluator = spelEvaluator;
+        for (String text : common) {
+            ParsedExpression slot = spelEvaluator.parse(text);
+            RuleAccess access = AccessAnalyzer.analyze(slot.getAst());
+            slotsByText.put(text, slots.size());
+            for (String key : access.getCtxReads()) {
+                ctxSlots.computeIfAbsent(key, k -> new BitSet()).set(slots.size());
+            }
+            for (String key : access.getPayloadReads()) {
+                payloadSlots.computeIfAbsent(key, k -> new BitSet()).set(slots.size());
+            }
+            slots.add(slot);
+            slotAccess.add(access);
+        }
+    }
+
+    /**
+     * Finds the common sub-expressions of a configuration, or returns {@code null} if
+     * there are none.
+     */
+    static CommonSubexpressions create(SpelEvaluator spelEvaluator, List<CompiledRule> rules,
+                                       List<ParsedExpression> templateExpressions) {
+        for (ParsedExpression expression : templateExpressions) {
+            if (!isPure(expression.getAst())) {
+                return null; // template writes happen outside the rule steps that forget slots
+            }
+        }
+        List<SpelNode> rewritable = new ArrayList<>();
+        for (CompiledRule rule : rules) {
+            for (ParsedExpression expression : expressionsOf(rule)) {
+                if (isRewritable(expression)) {
+                    rewritable.add(expression.getAst());
+                }
+            }
+        }
+
+        Map<String, Integer> counts = new HashMap<>();
+        for (SpelNode ast : rewritable) {
+            ExpressionRewriter.forEachReplaceable(ast, node -> {
+                if (isCandidate(node)) {
+                    counts.merge(node.toStringAST(), 1, Integer::sum);
+                }
+            });
+        }
+        Set<String> common = new HashSet<>();
+        counts.forEach((text, count) -> {
+            if (count > 1) {
+                common.add(text);
+            }
+        });
+        // An occurrence inside a larger common sub-expression is not rewritten itself
+        while (true) {
+            Map<String, Integer> used = new HashMap<>();
+            for (SpelNode ast : rewritable) {
+                ExpressionRewriter.rewrite(ast, node -> {
+                    String text = node.toStringAST();
+                    if (!common.contains(text)) {
+                        return null;
+                    }
+                    used.merge(text, 1, Integer::sum);
+                    return text;
+                });
+            }
+            if (!common.removeIf(text -> used.getOrDefault(text, 0) < 2)) {
+                break;
+            }
+        }
+        return common.isEmpty() ? null : new CommonSubexpressions(spelEvaluator, common);
+    }
+
+    public int getSlotCount() {
+        return slots.size();
+    }
+
+    SubexpressionMemo newMemo() {
+        return new SubexpressionMemo(this);
+    }
+
+    ParsedExpression getSlot(int slot) {
+        return slots.get(slot);
+    }
+
+    /** The slots to forget after {@code expression} ran, or {@code null} for none. */
+    BitSet invalidatedBy(ParsedExpression expression) {
+        return invalidations.get(expression);
+    }
+
+    BitSet invalidatedByCtxWrite(String key) {
+        return ctxSlots.get(key);
+    }
+
+    BitSet invalidatedByPayloadWrite(String key) {
+        return payloadSlots.get(key);
+    }
+
+    /**
+     * Rewrites the common sub-expressions of a rule to slot reads, and records which slots
+     * each of its expressions invalidates.
+     */
+    CompiledRule rewrite(CompiledRule rule) {
+        ParsedExpression when = rewriteAndRegister(rule.getWhen());
+
+        List<CompiledValidation> validations = new ArrayList<>();
+        for (CompiledValidation validation : rule.getValidations()) {
+            ParsedExpression spel = rewriteAndRegister(validation.getSpel());
+            validations.add(spel == validation.getSpel() ? validation : validation.withSpel(spel));
+        }
+
+        List<ParsedExpression> transforms = new ArrayList<>();
+        for (ParsedExpression transform : rule.getTransforms()) {
+            transforms.add(rewriteAndRegister(transform));
+        }
+
+        return new CompiledRule(rule.getId(), rule.getDescription(), when, rule.isNeverApplies(),
+            rule.isStopOnValidationError(), validations, rule.getExternalCall(),
+            rule.isTransformDeclared(), transforms, rule.getOnSuccess(), rule.getOnFailure());
+    }
+
+    private ParsedExpression rewrite(ParsedExpression expression) {
+        if (expression == null || !isRewritable(expression)) {
+            return expression;
+        }
+        Function<SpelNode, String> slotRead = node -> {
+            Integer slot = slotsByText.get(node.toStringAST());
+            return slot != null ? "#" + VARIABLE + "[" + slot + "]" : null;
+        };
+        String rewritten = ExpressionRewriter.rewrite(expression.getAst(), slotRead);
+        return rewritten != null ? spelEvaluator.parse(rewritten) : expression;
+    }
+
+    /**
+     * Rewrites an expression and records the slots it invalidates. The access is worked
+     * out from the original: the slot reads of the rewritten text only read what the
+     * original read.
+     */
+    private ParsedExpression rewriteAndRegister(ParsedExpression expression) {
+        ParsedExpression rewritten = rewrite(expression);
+        if (expression == null || expression.getAst() == null) {
+            return rewritten;
+        }
+        RuleAccess access = AccessAnalyzer.analyze(expression.getAst());
+        BitSet invalidated = new BitSet();
+        for (int slot = 0; slot < slots.size(); slot++) {
+            RuleAccess reads = slotAccess.get(slot);
+            if (access.isUnrestricted()
+                    || intersects(access.getPayloadWrites(), reads.getPayloadReads())
+                    || intersects(access.getCtxWrites(), reads.getCtxReads())) {
+                invalidated.set(slot);
+            }
+        }
+        if (!invalidated.isEmpty()) {
+            invalidations.merge(rewritten, invalidated, (a, b) -> {
+                a.or(b);
+                return a;
+            });
+        }
+        return rewritten;
+    }
+
+    private static boolean intersects(Set<String> a, Set<String> b) {
+        for (String key : a) {
+            if (b.contains(key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static List<ParsedExpression> expressionsOf(CompiledRule rule) {
+        List<ParsedExpression> expressions = new ArrayList<>();
+        if (rule.getWhen() != null) {
+            expressions.add(rule.getWhen());
+        }
+        for (CompiledValidation validation : rule.getValidations()) {
+            if (validation.getSpel() != null) {
+                expressions.add(validation.getSpel());
+            }
+        }
+        expressions.addAll(rule.getTransforms());
+        return expressions;
+    }
+
+    /**
+     * Expressions whose sub-expressions can be memoised: side-effect free, or a single
+     * assignment of a side-effect-free value to a top-level key, which happens after the
+     * value is evaluated. Transforms that already have a fast path are left alone.
+     */
+    private static boolean isRewritable(ParsedExpression expression) {
+        SpelNode ast = expression.getAst();
+        if (ast == null || expression.hasFastPath()) {
+            return false;
+        }
+        if (ast instanceof Assign) {
+            List<SpelNode> target = AccessAnalyzer.steps(ast.getChild(0));
+            String variable = target.get(0).toStringAST();
+            return target.size() == 2 && ("#payload".equals(variable) || "#ctx".equals(variable))
+                && AccessAnalyzer.keyOf(target.get(1)) != null && isPure(ast.getChild(1));
+        }
+        return isPure(ast);
+    }
+
+    private static boolean isPure(SpelNode node) {
+        RuleAccess access = AccessAnalyzer.analyze(node);
+        return !access.isUnrestricted() && access.getPayloadWrites().isEmpty() && access.getCtxWrites().isEmpty();
+    }
+
+    /**
+     * Worth memoising: more than a literal, a variable or a single map read, made only of
+     * reads, operators and side-effect-free methods, and returning a value that is never
+     * a fresh mutable object.
+     */
+    private static boolean isCandidate(SpelNode node) {
+        if (node instanceof Literal || node instanceof VariableReference) {
+            return false;
+        }
+        if (node instanceof CompoundExpression) {
+            List<SpelNode> steps = AccessAnalyzer.steps(node);
+            if (steps.size() == 2 && steps.get(0) instanceof VariableReference) {
+                return false;
+            }
+        }
+        return usesOnlyReads(node) && isPure(node);
+    }
+
+    private static boolean usesOnlyReads(SpelNode node) {
+        boolean allowed = node instanceof Literal
+            || node instanceof CompoundExpression || node instanceof Indexer
+            || node instanceof PropertyOrFieldReference
+            || (node instanceof MethodReference method && !FRESH_CONTAINERS.contains(method.getName()))
+            || (node instanceof VariableReference && VARIABLES.contains(node.toStringAST()))
+            || ExpressionRewriter.isRewritableOperation(node);
+        if (!allowed) {
+            return false;
+        }
+        for (int i = 0; i < node.getChildCount(); i++) {
+            if (!usesOnlyReads(node.getChild(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
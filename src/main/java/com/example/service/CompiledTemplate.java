@@ -0,0 +1,84 @@
+package com.example.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A {@code {{spel: ...}}} template split once into literal text and pre-parsed
+ * expressions. Literal {@code i} precedes expression {@code i}; the final literal
+ * trails the last expression. A template without placeholders is a constant.
+ */
+public final class CompiledTemplate {
+
+    private final String text;
+    private final String[] literals;
+    // null for an empty placeholder, which renders as nothing
+    private final ParsedExpression[] expressions;
+    private final int literalLength;
+
+    private CompiledTemplate(String text, List<String> literals, List<ParsedExpression> expressions) {
+        this.text = text;
+        this.literals = literals.toArray(new String[0]);
+        this.expressions = expressions.toArray(new ParsedExpression[0]);
+        this.literalLength = literals.stream().mapToInt(String::length).sum();
+    }
+
+    static CompiledTemplate compile(String text, Pattern placeholder, Function<String, ParsedExpression> parser) {
+        List<String> literals = new ArrayList<>();
+        List<ParsedExpression> expressions = new ArrayList<>();
+        Matcher matcher = placeholder.matcher(text);
+        int last = 0;
+        while (matcher.find()) {
+            literals.add(text.substring(last, matcher.start()));
+            String expression = matcher.group(1).trim();
+            expressions.add(expression.isEmpty() ? null : parser.apply(expression));
+            last = matcher.end();
+        }
+        literals.add(text.substring(last));
+        return new CompiledTemplate(text, literals, expressions);
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    /** True when the template has no placeholders and always renders as its own text. */
+    public boolean isConstant() {
+        return expressions.length == 0;
+    }
+
+    public List<ParsedExpression> getExpressions() {
+        List<ParsedExpression> parsed = new ArrayList<>();
+        for (ParsedExpression expression : expressions) {
+            if (expression != null) {
+                parsed.add(expression);
+            }
+        }
+        return parsed;
+    }
+
+    int getExpressionCount() {
+        return expressions.length;
+    }
+
+    String getLiteral(int index) {
+        return literals[index];
+    }
+
+    ParsedExpression getExpression(int index) {
+        return expressions[index];
+    }
+
+    /** Length of the literal text, a lower bound for the rendered length. */
+    int getLiteralLength() {
+        return literalLength;
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+}
@@ -0,0 +1,100 @@
+package com.example.service;
+
+import com.example.service.plan.CompiledRule;
+import com.example.service.plan.RuleAccess;
+import com.example.service.plan.RuleIndex;
+import org.springframework.expression.spel.SpelNode;
+import org.springframework.expression.spel.ast.BooleanLiteral;
+import org.springframework.expression.spel.ast.Indexer;
+import org.springframework.expression.spel.ast.Literal;
+import org.springframework.expression.spel.ast.MethodReference;
+import org.springframework.expression.spel.ast.OpAnd;
+import org.springframework.expression.spel.ast.OpEQ;
+import org.springframework.expression.spel.ast.StringLiteral;
+import org.springframework.expression.spel.ast.VariableReference;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiPredicate;
+
+/**
+ * Builds the {@link RuleIndex} of a configuration. A rule is indexed on the first test
+ * of its condition, which is the only one evaluated when it is false:
+ * {@code #payload['field'] == 'value'} (or a boolean), or a string method such as
+ * {@code #payload['field'].endsWith('.corp')}. Fields that an earlier rule may write are
+ * not indexed.
+ */
+final class ConditionIndexer {
+
+    private static final Map<String, BiPredicate<String, String>> STRING_TESTS = Map.of(
+        "equals", String::equals,
+        "equalsIgnoreCase", String::equalsIgnoreCase,
+        "startsWith", String::startsWith,
+        "endsWith", String::endsWith,
+        "contains", String::contains);
+
+    private ConditionIndexer() {
+    }
+
+    /** Returns the index for the rules, or {@code null} if no condition can be indexed. */
+    static RuleIndex build(List<CompiledRule> rules, List<RuleAccess> accesses) {
+        RuleIndex.Builder builder = new RuleIndex.Builder(rules.size());
+        Set<String> written = new HashSet<>();
+        for (int i = 0; i < rules.size(); i++) {
+            ParsedExpression when = rules.get(i).getWhen();
+            if (when != null && when.getAst() != null) {
+                index(builder, i, firstTest(when.getAst()), written);
+            }
+            if (accesses.get(i).isUnrestricted()) {
+                break; // it may write any field
+            }
+            written.addAll(accesses.get(i).getPayloadWrites());
+        }
+        return builder.build();
+    }
+
+    private static SpelNode firstTest(SpelNode node) {
+        while (node instanceof OpAnd) {
+            node = node.getChild(0);
+        }
+        return node;
+    }
+
+    private static void index(RuleIndex.Builder builder, int rule, SpelNode test, Set<String> written) {
+        if (test instanceof OpEQ) {
+            for (int side = 0; side < 2; side++) {
+                String field = payloadField(AccessAnalyzer.steps(test.getChild(side)));
+                SpelNode other = test.getChild(1 - side);
+                if (field != null && !written.contains(field)
+                        && (other instanceof StringLiteral || other instanceof BooleanLiteral)) {
+                    builder.equalTo(rule, field, ((Literal) other).getLiteralValue().getValue());
+                    return;
+                }
+            }
+            return;
+        }
+        List<SpelNode> steps = AccessAnalyzer.steps(test);
+        if (steps.size() != 3 || !(steps.get(2) instanceof MethodReference method)) {
+            return;
+        }
+        String field = payloadField(steps.subList(0, 2));
+        BiPredicate<String, String> predicate = STRING_TESTS.get(method.getName());
+        if (field == null || written.contains(field) || predicate == null
+                || method.getChildCount() != 1 || !(method.getChild(0) instanceof StringLiteral literal)) {
+            return;
+        }
+        String argument = (String) literal.getLiteralValue().getValue();
+        builder.test(rule, field, method.getName() + "(" + argument + ")", value -> predicate.test(value, argument));
+    }
+
+    /** The key of {@code #payload['key']}; the property form fails on a missing key, so it is not used. */
+    private static String payloadField(List<SpelNode> steps) {
+        if (steps.size() != 2 || !(steps.get(0) instanceof VariableReference)
+                || !"#payload".equals(steps.get(0).toStringAST()) || !(steps.get(1) instanceof Indexer)) {
+            return null;
+        }
+        return AccessAnalyzer.keyOf(steps.get(1));
+    }
+}
@@ -0,0 +1,265 @@
+package com.example.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.expression.EvaluationContext;
+import org.springframework.expression.spel.ExpressionState;
+import org.springframework.expression.spel.SpelNode;
+import org.springframework.expression.spel.ast.Assign;
+import org.springframework.expression.spel.ast.CompoundExpression;
+import org.springframework.expression.spel.ast.Indexer;
+import org.springframework.expression.spel.ast.Literal;
+import org.springframework.expression.spel.ast.OpDec;
+import org.springframework.expression.spel.ast.OpInc;
+import org.springframework.expression.spel.ast.PropertyOrFieldReference;
+import org.springframework.expression.spel.ast.VariableReference;
+import org.springframework.expression.spel.standard.SpelExpressionParser;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Replaces sub-expressions that read only {@code #defaults} and {@code #env} with the
+ * literal they evaluate to. Both are fixed for the lifetime of a loaded configuration,
+ * as long as no expression of that configuration can modify them; {@link #create}
+ * refuses to fold otherwise.
+ * <p>
+ * Folded expressions are rebuilt as text from the syntax tree and parsed again, so they
+ * go through the normal expression cache. Only operators, conditionals and map or
+ * property access are folded; method calls are never evaluated at load time.
+ */
+final class ConstantFolder {
+
+    private static final Logger logger = LoggerFactory.getLogger(ConstantFolder.class);
+    private static final Set<String> CONSTANT_VARIABLES = Set.of("#defaults", "#env");
+    private static final SpelExpressionParser LITERAL_PARSER = new SpelExpressionParser();
+
+    private final SpelEvaluator spelEvaluator;
+    private final Map<String, Object> defaults;
+    private final Map<String, String> env;
+    private final EvaluationContext context;
+    private final boolean constantsHaveContainers;
+
+    private ConstantFolder(SpelEvaluator spelEvaluator, Map<String, Object> defaults, Map<String, String> env) {
+        this.spelEvaluator = spelEvaluator;
+        this.defaults = defaults;
+        this.env = env;
+        Map<String, Object> variables = new HashMap<>();
+        variables.put("defaults", defaults);
+        variables.put("env", env);
+        this.context = spelEvaluator.evaluationContextFor(variables);
+        this.constantsHaveContainers = defaults.values().stream().anyMatch(ConstantFolder::isContainer);
+    }
+
+    /**
+     * Returns a folder for a configuration, or {@code null} when one of its expressions
+     * may modify {@code #defaults} or {@code #env} and folding would be unsound.
+     */
+    static ConstantFolder create(SpelEvaluator spelEvaluator, Map<String, Object> defaults,
+                                 Map<String, String> env, Collection<ParsedExpression> expressions) {
+        ConstantFolder folder = new ConstantFolder(spelEvaluator, defaults, env);
+        for (ParsedExpression expression : expressions) {
+            SpelNode ast = expression.getAst();
+            if (ast == null || folder.mayModifyConstants(ast)) {
+                logger.debug("Not folding constants: expression may modify #defaults or #env: {}", expression);
+                return null;
+            }
+        }
+        return folder;
+    }
+
+    /** Whether an expression is a single literal, for example after folding. */
+    static boolean isLiteral(ParsedExpression expression) {
+        return expression.getAst() instanceof Literal;
+    }
+
+    static Object literalValue(ParsedExpression expression) {
+        return ((Literal) expression.getAst()).getLiteralValue().getValue();
+    }
+
+    /**
+     * Returns the expression with its constant sub-expressions folded, or the expression
+     * itself when there is nothing to fold.
+     */
+    ParsedExpression fold(ParsedExpression expression) {
+        if (expression == null || expression.getAst() == null) {
+            return expression;
+        }
+        String folded = ExpressionRewriter.rewrite(expression.getAst(), this::literalIfConstant);
+        if (folded == null) {
+            return expression;
+        }
+        try {
+            ParsedExpression result = spelEvaluator.parse(folded);
+            logger.debug("Folded expression '{}' to '{}'", expression, folded);
+            return result;
+        } catch (Exception e) {
+            logger.debug("Could not parse folded form '{}' of '{}': {}", folded, expression, e.getMessage());
+            return expression;
+        }
+    }
+
+    /** Returns the literal for a constant node that reads a constant, or {@code null}. */
+    private String literalIfConstant(SpelNode node) {
+        return isConstant(node) && readsConstants(node) ? literalFor(node) : null;
+    }
+
+    private boolean isConstant(SpelNode node) {
+        if (node instanceof Literal) {
+            return true;
+        }
+        if (node instanceof CompoundExpression) {
+            if (!isConstantVariable(node.getChild(0))) {
+                return false;
+            }
+            for (int i = 1; i < node.getChildCount(); i++) {
+                SpelNode child = node.getChild(i);
+                boolean constantStep = child instanceof PropertyOrFieldReference
+                        || (child instanceof Indexer && isConstant(child.getChild(0)));
+                if (!constantStep) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (!ExpressionRewriter.isRewritableOperation(node)) {
+            return false;
+        }
+        for (int i = 0; i < node.getChildCount(); i++) {
+            if (!isConstant(node.getChild(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean readsConstants(SpelNode node) {
+        if (isConstantVariable(node)) {
+            return true;
+        }
+        for (int i = 0; i < node.getChildCount(); i++) {
+            if (readsConstants(node.getChild(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isConstantVariable(SpelNode node) {
+        return node instanceof VariableReference && CONSTANT_VARIABLES.contains(node.toStringAST());
+    }
+
+    /**
+     * Only plain reads of {@code #defaults} and {@code #env} keep them constant: no
+     * assignment or increment, and no method call on or reference to a map or list inside
+     * them that another expression could hold on to and change.
+     */
+    private boolean mayModifyConstants(SpelNode node) {
+        if ((node instanceof Assign || node instanceof OpInc || node instanceof OpDec)
+                && startsWithConstantVariable(node.getChild(0))) {
+            return true;
+        }
+        if (node instanceof CompoundExpression && isConstantVariable(node.getChild(0))) {
+            if (!isPlainRead(node)) {
+                return true;
+            }
+            for (int i = 1; i < node.getChildCount(); i++) {
+                if (mayModifyConstants(node.getChild(i))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        if (isConstantVariable(node)) {
+            return true; // the whole map, e.g. passed to a method
+        }
+        for (int i = 0; i < node.getChildCount(); i++) {
+            if (mayModifyConstants(node.getChild(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Follows the map reads at the start of a {@code #defaults} or {@code #env} chain and
+     * checks that whatever the rest of the chain works on is a scalar, not a shared map or
+     * list. Reads with computed keys are only safe when no default is a container.
+     */
+    private boolean isPlainRead(SpelNode compound) {
+        Object value = "#env".equals(compound.getChild(0).toStringAST()) ? env : defaults;
+        for (int i = 1; i < compound.getChildCount(); i++) {
+            SpelNode child = compound.getChild(i);
+            Object key;
+            if (child instanceof PropertyOrFieldReference property) {
+                key = property.getName();
+            } else if (child instanceof Indexer && child.getChild(0) instanceof Literal literal) {
+                key = literal.getLiteralValue().getValue();
+            } else if (child instanceof Indexer) {
+                return !constantsHaveContainers;
+            } else {
+                break; // a method call or similar on the value read so far
+            }
+            if (!(value instanceof Map<?, ?> map)) {
+                return !constantsHaveContainers;
+            }
+            value = map.get(key);
+        }
+        return !isContainer(value);
+    }
+
+    private static boolean startsWithConstantVariable(SpelNode node) {
+        return isConstantVariable(node)
+                || (node instanceof CompoundExpression && isConstantVariable(node.getChild(0)));
+    }
+
+    private static boolean isContainer(Object value) {
+        return value instanceof Map || value instanceof Collection || (value != null && value.getClass().isArray());
+    }
+
+    /** Evaluates a constant node and renders the result as a literal, or returns {@code null}. */
+    private String literalFor(SpelNode node) {
+        Object value;
+        try {
+            value = node.getValue(new ExpressionState(context));
+        } catch (Exception e) {
+            return null; // e.g. a missing property; leave it to fail at runtime as before
+        }
+        String literal = toLiteral(value);
+        if (literal == null) {
+            return null;
+        }
+        try {
+            Object reparsed = LITERAL_PARSER.parseExpression(literal).getValue();
+            return Objects.equals(reparsed, value) ? literal : null;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private static String toLiteral(Object value) {
+        if (value == null) {
+            return "null";
+        }
+        if (value instanceof Boolean) {
+            return value.toString();
+        }
+        if (value instanceof String s) {
+            return "'" + s.replace("'", "''") + "'";
+        }
+        String number;
+        if (value instanceof Integer) {
+            number = value.toString();
+        } else if (value instanceof Long) {
+            number = value + "L";
+        } else if (value instanceof Double d && Double.isFinite(d)) {
+            number = d.toString();
+        } else {
+            return null;
+        }
+        return number.startsWith("-") ? "(" + number + ")" : number;
+    }
+}
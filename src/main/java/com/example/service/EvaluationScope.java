@@ -0,0 +1,44 @@
+package com.example.service;
+
+import org.springframework.expression.EvaluationContext;
+
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Read-only expression variables for one rule execution, paired with the SpEL
+ * evaluation context built from them. Because the variables cannot change, every
+ * expression evaluated with this scope can share that single context; the maps the
+ * variables point to (payload, ctx) are still mutated in place by transforms.
+ */
+final class EvaluationScope extends AbstractMap<String, Object> {
+
+    private final Map<String, Object> variables;
+    private final EvaluationContext evaluationContext;
+
+    EvaluationScope(Map<String, Object> variables, EvaluationContext evaluationContext) {
+        this.variables = Collections.unmodifiableMap(variables);
+        this.evaluationContext = evaluationContext;
+    }
+
+    EvaluationContext getEvaluationContext() {
+        return evaluationContext;
+    }
+
+    @Override
+    public Object get(Object key) {
+        return variables.get(key);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return variables.containsKey(key);
+    }
+
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+        return variables.entrySet();
+    }
+}
@@ -0,0 +1,139 @@
+package com.example.service;
+
+import org.springframework.expression.spel.SpelNode;
+import org.springframework.expression.spel.ast.Assign;
+import org.springframework.expression.spel.ast.CompoundExpression;
+import org.springframework.expression.spel.ast.Elvis;
+import org.springframework.expression.spel.ast.Indexer;
+import org.springframework.expression.spel.ast.MethodReference;
+import org.springframework.expression.spel.ast.OpDec;
+import org.springframework.expression.spel.ast.OpInc;
+import org.springframework.expression.spel.ast.OpMinus;
+import org.springframework.expression.spel.ast.OpPlus;
+import org.springframework.expression.spel.ast.Operator;
+import org.springframework.expression.spel.ast.OperatorNot;
+import org.springframework.expression.spel.ast.PropertyOrFieldReference;
+import org.springframework.expression.spel.ast.Ternary;
+
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Rebuilds the text of an expression from its syntax tree with some sub-trees replaced.
+ * Only operators, conditionals, assignments and property, index and method chains are
+ * rebuilt; sub-trees inside anything else, such as selections, are left as they are.
+ */
+final class ExpressionRewriter {
+
+    private ExpressionRewriter() {
+    }
+
+    /**
+     * Returns the text of {@code node} with each sub-tree for which {@code replacement}
+     * returns text replaced by it, or {@code null} if nothing was replaced. Sub-trees are
+     * offered outermost first; the target of an assignment is never offered.
+     */
+    static String rewrite(SpelNode node, Function<SpelNode, String> replacement) {
+        String replaced = replacement.apply(node);
+        if (replaced != null) {
+            return replaced;
+        }
+        if (node instanceof CompoundExpression) {
+            return rewriteCompound(node, replacement);
+        }
+        if (node instanceof Assign) {
+            String value = rewrite(node.getChild(1), replacement);
+            return value != null ? node.getChild(0).toStringAST() + "=" + value : null;
+        }
+        if (!isRewritableOperation(node)) {
+            return null;
+        }
+        String[] parts = new String[node.getChildCount()];
+        boolean changed = false;
+        for (int i = 0; i < parts.length; i++) {
+            String part = rewrite(node.getChild(i), replacement);
+            changed |= part != null;
+            parts[i] = part != null ? part : node.getChild(i).toStringAST();
+        }
+        if (!changed) {
+            return null;
+        }
+        if (node instanceof Ternary) {
+            return "(" + parts[0] + " ? " + parts[1] + " : " + parts[2] + ")";
+        }
+        if (node instanceof Elvis) {
+            return "(" + parts[0] + " ?: " + parts[1] + ")";
+        }
+        if (node instanceof OperatorNot) {
+            return "!" + parts[0];
+        }
+        String operator = ((Operator) node).getOperatorName();
+        if (parts.length == 1) {
+            return operator + parts[0];
+        }
+        return "(" + parts[0] + " " + operator + " " + parts[1] + ")";
+    }
+
+    /** Calls {@code visitor} for every sub-tree {@link #rewrite} could replace. */
+    static void forEachReplaceable(SpelNode node, Consumer<SpelNode> visitor) {
+        visitor.accept(node);
+        if (node instanceof CompoundExpression) {
+            forEachReplaceable(node.getChild(0), visitor);
+            for (int i = 1; i < node.getChildCount(); i++) {
+                SpelNode child = node.getChild(i);
+                if (child instanceof Indexer) {
+                    forEachReplaceable(child.getChild(0), visitor);
+                } else if (child instanceof MethodReference) {
+                    for (int a = 0; a < child.getChildCount(); a++) {
+                        forEachReplaceable(child.getChild(a), visitor);
+                    }
+                } else if (!(child instanceof PropertyOrFieldReference)) {
+                    return;
+                }
+            }
+        } else if (node instanceof Assign) {
+            forEachReplaceable(node.getChild(1), visitor);
+        } else if (isRewritableOperation(node)) {
+            for (int i = 0; i < node.getChildCount(); i++) {
+                forEachReplaceable(node.getChild(i), visitor);
+            }
+        }
+    }
+
+    private static String rewriteCompound(SpelNode node, Function<SpelNode, String> replacement) {
+        String head = rewrite(node.getChild(0), replacement);
+        boolean changed = head != null;
+        StringBuilder text = new StringBuilder(head != null ? head : node.getChild(0).toStringAST());
+        for (int i = 1; i < node.getChildCount(); i++) {
+            SpelNode child = node.getChild(i);
+            if (child instanceof Indexer) {
+                String index = rewrite(child.getChild(0), replacement);
+                changed |= index != null;
+                text.append('[').append(index != null ? index : child.getChild(0).toStringAST()).append(']');
+            } else if (child instanceof PropertyOrFieldReference property) {
+                text.append(property.isNullSafe() ? "?." : ".").append(property.getName());
+            } else if (child instanceof MethodReference method) {
+                text.append(method.isNullSafe() ? "?." : ".").append(method.getName()).append('(');
+                for (int a = 0; a < method.getChildCount(); a++) {
+                    String argument = rewrite(method.getChild(a), replacement);
+                    changed |= argument != null;
+                    text.append(a > 0 ? ", " : "").append(argument != null ? argument : method.getChild(a).toStringAST());
+                }
+                text.append(')');
+            } else {
+                return null; // selections, projections and the like are left untouched
+            }
+        }
+        return changed ? text.toString() : null;
+    }
+
+    static boolean isRewritableOperation(SpelNode node) {
+        if (node instanceof Ternary || node instanceof Elvis || node instanceof OperatorNot) {
+            return true;
+        }
+        if (!(node instanceof Operator) || node instanceof OpInc || node instanceof OpDec) {
+            return false;
+        }
+        return node.getChildCount() == 2 || node instanceof OpMinus || node instanceof OpPlus;
+    }
+}
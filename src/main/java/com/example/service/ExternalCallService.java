@@ -1,93 +1,399 @@
 package com.example.service;
 
 import com.example.model.rule.ExternalCall;
+import com.example.model.rule.ExternalCallCache;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
+import org.apache.hc.client5.http.async.methods.SimpleHttpRequest;
+import org.apache.hc.client5.http.async.methods.SimpleHttpResponse;
+import org.apache.hc.client5.http.async.methods.SimpleRequestBuilder;
+import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
+import org.apache.hc.core5.concurrent.FutureCallback;
+import org.apache.hc.core5.http.ContentType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.http.*;
 import org.springframework.stereotype.Service;
-import org.springframework.web.client.RestTemplate;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.HttpStatusCodeException;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestClientException;
 
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
 
 @Service
 public class ExternalCallService {
     
     private static final Logger logger = LoggerFactory.getLogger(ExternalCallService.class);
-    private final RestTemplate restTemplate;
+    private final CloseableHttpAsyncClient httpClient;
     private final SpelEvaluator spelEvaluator;
     private final ObjectMapper objectMapper;
+    // Per call configuration; dropped with the configuration when it is reloaded
+    private final Map<ExternalCall, ResponseCache> responseCaches = Collections.synchronizedMap(new WeakHashMap<>());
+    private final ConcurrentHashMap<ExternalRequest, CompletableFuture<Object>> inFlightRequests = new ConcurrentHashMap<>();
+    private final LongAdder coalescedRequests = new LongAdder();
+    // Background refreshes of stale responses to synchronous calls, which send like the calls themselves
+    private final ExecutorService refreshExecutor = Executors.newCachedThreadPool(task -> {
+        Thread thread = new Thread(task, "external-call-refresh");
+        thread.setDaemon(true);
+        return thread;
+    });
     
-    public ExternalCallService(RestTemplate restTemplate, 
+    /**
+     * @param httpClient the client for all external calls; a call made with {@link #invoke}
+     *                   waits for its response
+     */
+    public ExternalCallService(CloseableHttpAsyncClient httpClient,
                              SpelEvaluator spelEvaluator, 
                              ObjectMapper objectMapper) {
-        this.restTemplate = restTemplate;
+        this.httpClient = httpClient;
         this.spelEvaluator = spelEvaluator;
         this.objectMapper = objectMapper;
     }
     
+    @PreDestroy
+    public void shutdown() {
+        refreshExecutor.shutdown();
+    }
+    
     public Object invoke(ExternalCall call, Map<String, Object> context) {
         try {
-            String method = call.getMethod();
-            String url = call.getUrl();
-            
-            // Process URL template if it contains SpEL expressions
-            url = spelEvaluator.processTemplate(url, context);
-            logger.info("Making external call: {} {}", method, url);
-            
-            if ("GET".equalsIgnoreCase(method)) {
-                return handleGet(url, call, context);
-            } else if ("POST".equalsIgnoreCase(method)) {
-                return handlePost(url, call, context);
-            } else {
-                logger.warn("Unsupported HTTP method: {}", method);
+            ExternalRequest request = prepare(call, context);
+            if (request == null) {
                 return null;
             }
+            boolean coalesce = coalesces(call);
+            ResponseCache cache = cacheOf(call);
+            if (cache == null) {
+                return send(request, coalesce);
+            }
+            String key = cacheKey(call.getCache(), request, context);
+            Object cached = cache.get(key, () -> CompletableFuture.supplyAsync(() -> send(request, coalesce), refreshExecutor));
+            if (cached != null) {
+                logger.info("Using cached response for {}", request);
+                return copyOf(cached);
+            }
+            Object result = send(request, coalesce);
+            cache.put(key, copyOf(result));
+            return result;
         } catch (Exception e) {
             logger.error("Error making external call to {}: {}", call.getUrl(), e.getMessage(), e);
             throw new RuntimeException("External call failed: " + e.getMessage(), e);
         }
     }
     
-    private Object handleGet(String url, ExternalCall call, Map<String, Object> context) {
-        // Process headers if they contain SpEL expressions
-        HttpHeaders headers = new HttpHeaders();
-        if (call.getHeaders() != null) {
-            for (Map.Entry<String, String> header : call.getHeaders().entrySet()) {
-                String headerValue = spelEvaluator.processTemplate(header.getValue(), context);
-                headers.set(header.getKey(), headerValue);
+    /**
+     * Makes the call without blocking the calling thread. The URL, headers and body are
+     * resolved from the context before this returns, so later changes to the context do
+     * not affect the request; the response body is read on the HTTP client's threads.
+     * The future fails with the same errors {@link #invoke} throws.
+     */
+    public CompletableFuture<Object> invokeAsync(ExternalCall call, Map<String, Object> context) {
+        ExternalRequest request;
+        ResponseCache cache;
+        String key;
+        try {
+            request = prepare(call, context);
+            if (request == null) {
+                return CompletableFuture.completedFuture(null);
             }
+            cache = cacheOf(call);
+            key = cache != null ? cacheKey(call.getCache(), request, context) : null;
+        } catch (Exception e) {
+            logger.error("Error making external call to {}: {}", call.getUrl(), e.getMessage(), e);
+            return CompletableFuture.failedFuture(new RuntimeException("External call failed: " + e.getMessage(), e));
         }
-        
-        HttpEntity<String> request = new HttpEntity<>(headers);
-        ResponseEntity<Map<String, Object>> response = restTemplate.exchange(url, HttpMethod.GET, request, (Class<Map<String, Object>>)(Class<?>)Map.class);
-        
-        logger.info("GET call to {} returned status: {}", url, response.getStatusCode());
-        logger.info("Response body: {}", response.getBody());
-        return response.getBody();
+        boolean coalesce = coalesces(call);
+        if (cache == null) {
+            return sendAsync(request, coalesce);
+        }
+        Object cached = cache.get(key, () -> sendAsync(request, coalesce));
+        if (cached != null) {
+            logger.info("Using cached response for {}", request);
+            return CompletableFuture.completedFuture(copyOf(cached));
+        }
+        return sendAsync(request, coalesce).thenApply(result -> {
+            cache.put(key, copyOf(result));
+            return result;
+        });
     }
     
-    private Object handlePost(String url, ExternalCall call, Map<String, Object> context) {
-        // Process headers
-        HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.APPLICATION_JSON);
+    /**
+     * Resolves the URL, header and body templates of a call against a request's context.
+     * Returns {@code null} if the call's method is not supported.
+     */
+    public ExternalRequest prepare(ExternalCall call, Map<String, Object> context) {
+        String method = call.getMethod();
+        String url = call.getUrl();
+        
+        // Process URL template if it contains SpEL expressions
+        url = spelEvaluator.processTemplate(url, context);
+        logger.info("Making external call: {} {}", method, url);
+        
+        boolean post = "POST".equalsIgnoreCase(method);
+        if (!post && !"GET".equalsIgnoreCase(method)) {
+            logger.warn("Unsupported HTTP method: {}", method);
+            return null;
+        }
+        
+        // Process headers if they contain SpEL expressions
+        Map<String, String> headers = new LinkedHashMap<>();
+        if (post) {
+            headers.put(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE);
+        }
         if (call.getHeaders() != null) {
             for (Map.Entry<String, String> header : call.getHeaders().entrySet()) {
-                String headerValue = spelEvaluator.processTemplate(header.getValue(), context);
-                headers.set(header.getKey(), headerValue);
+                headers.put(header.getKey(), spelEvaluator.processTemplate(header.getValue(), context));
             }
         }
         
         // Process body template
-        String body = call.getBodyTemplate();
+        String body = post ? call.getBodyTemplate() : null;
         if (body != null) {
             body = spelEvaluator.processTemplate(body, context);
         }
+        return new ExternalRequest(method, url, headers, body);
+    }
+    
+    /**
+     * Sends a request, or with {@code coalesce} waits for an identical one already in
+     * flight and returns a copy of its response.
+     */
+    private Object send(ExternalRequest request, boolean coalesce) {
+        if (!coalesce) {
+            return execute(request);
+        }
+        CompletableFuture<Object> response = new CompletableFuture<>();
+        CompletableFuture<Object> inFlight = inFlightRequests.putIfAbsent(request, response);
+        if (inFlight != null) {
+            coalescedRequests.increment();
+            logger.info("Sharing the response of {} already in flight", request);
+            try {
+                return copyOf(inFlight.join());
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException cause ? cause : e;
+            }
+        }
+        try {
+            Object result = execute(request);
+            inFlightRequests.remove(request, response);
+            response.complete(result);
+            return result;
+        } catch (RuntimeException e) {
+            inFlightRequests.remove(request, response);
+            response.completeExceptionally(e);
+            throw e;
+        }
+    }
+    
+    /** {@link #send} without blocking. */
+    private CompletableFuture<Object> sendAsync(ExternalRequest request, boolean coalesce) {
+        if (!coalesce) {
+            return executeAsync(request);
+        }
+        CompletableFuture<Object> response = new CompletableFuture<>();
+        CompletableFuture<Object> inFlight = inFlightRequests.putIfAbsent(request, response);
+        if (inFlight != null) {
+            coalescedRequests.increment();
+            logger.info("Sharing the response of {} already in flight", request);
+            return inFlight.thenApply(ExternalCallService::copyOf);
+        }
+        executeAsync(request).whenComplete((result, failure) -> {
+            inFlightRequests.remove(request, response);
+            if (failure != null) {
+                response.completeExceptionally(failure instanceof CompletionException && failure.getCause() != null
+                    ? failure.getCause() : failure);
+            } else {
+                response.complete(result);
+            }
+        });
+        // A future of its own, so a caller cancelling it does not fail the callers sharing the response
+        return response.thenApply(Function.identity());
+    }
+    
+    /**
+     * Whether identical concurrent calls share one request: by default only GET calls,
+     * as sending a POST once for several callers is not always the same as sending it
+     * for each.
+     */
+    private static boolean coalesces(ExternalCall call) {
+        return call.getCoalesce() != null ? call.getCoalesce() : "GET".equalsIgnoreCase(call.getMethod());
+    }
+    
+    /**
+     * A copy of the maps and lists of a response, so callers sharing it cannot see each
+     * other's changes.
+     */
+    private static Object copyOf(Object value) {
+        if (value instanceof Map<?, ?> map) {
+            Map<Object, Object> copy = new LinkedHashMap<>(map.size() * 2);
+            map.forEach((key, item) -> copy.put(key, copyOf(item)));
+            return copy;
+        }
+        if (value instanceof List<?> list) {
+            List<Object> copy = new ArrayList<>(list.size());
+            list.forEach(item -> copy.add(copyOf(item)));
+            return copy;
+        }
+        return value;
+    }
+    
+    /** Sends a prepared request and returns the response body. */
+    public Object execute(ExternalRequest request) {
+        try {
+            return exchange(request).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ResourceAccessException("Interrupted waiting for " + request.getMethod() + " " + request.getUrl());
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof RuntimeException cause ? cause : new IllegalStateException(e.getCause());
+        }
+    }
+    
+    /**
+     * Sends a prepared request without blocking; the future fails with the same errors
+     * {@link #invoke} throws.
+     */
+    public CompletableFuture<Object> executeAsync(ExternalRequest request) {
+        return exchange(request).handle((result, failure) -> {
+            if (failure != null) {
+                Throwable cause = failure instanceof CompletionException && failure.getCause() != null
+                    ? failure.getCause() : failure;
+                logger.error("Error making external call to {}: {}", request.getUrl(), cause.getMessage(), cause);
+                throw new RuntimeException("External call failed: " + cause.getMessage(), cause);
+            }
+            return result;
+        });
+    }
+    
+    /**
+     * Sends a request and reads the response body. The future fails with the exception
+     * RestTemplate would throw for the same failure: an {@link HttpStatusCodeException}
+     * for an error status and a {@link ResourceAccessException} for an I/O error.
+     */
+    private CompletableFuture<Object> exchange(ExternalRequest request) {
+        SimpleHttpRequest httpRequest;
+        try {
+            SimpleRequestBuilder builder = SimpleRequestBuilder.create(request.getMethod()).setUri(URI.create(request.getUrl()));
+            request.getHeaders().forEach((name, value) -> {
+                if (!name.equals("content-type")) {
+                    builder.setHeader(name, value);
+                }
+            });
+            if (request.getBody() != null) {
+                String contentType = request.getHeaders().get("content-type");
+                builder.setBody(request.getBody().getBytes(StandardCharsets.UTF_8),
+                    contentType != null ? ContentType.parse(contentType) : ContentType.APPLICATION_JSON);
+            }
+            httpRequest = builder.build();
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
         
-        HttpEntity<String> request = new HttpEntity<>(body, headers);
-        ResponseEntity<Map<String, Object>> response = restTemplate.exchange(url, HttpMethod.POST, request, (Class<Map<String, Object>>)(Class<?>)Map.class);
-        
-        logger.info("POST call to {} returned status: {}", url, response.getStatusCode());
-        return response.getBody();
+        CompletableFuture<SimpleHttpResponse> response = new CompletableFuture<>();
+        httpClient.execute(httpRequest, new FutureCallback<>() {
+            @Override
+            public void completed(SimpleHttpResponse result) {
+                response.complete(result);
+            }
+            
+            @Override
+            public void failed(Exception e) {
+                response.completeExceptionally(e instanceof IOException ? new ResourceAccessException("I/O error on "
+                    + request.getMethod() + " request for \"" + request.getUrl() + "\": " + e.getMessage(), (IOException) e) : e);
+            }
+            
+            @Override
+            public void cancelled() {
+                response.cancel(false);
+            }
+        });
+        return response.thenApply(result -> readResponse(request, result));
+    }
+    
+    /**
+     * Hits, misses and size of a call's response cache, or {@code null} if the call is
+     * not cached.
+     */
+    public Map<String, Object> getCacheStats(ExternalCall call) {
+        ResponseCache cache = cacheOf(call);
+        return cache != null ? cache.stats() : null;
+    }
+    
+    /** How many calls shared the response of an identical request in flight. */
+    public Map<String, Object> getCoalescingStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("inFlight", inFlightRequests.size());
+        stats.put("coalesced", coalescedRequests.sum());
+        return stats;
+    }
+    
+    private ResponseCache cacheOf(ExternalCall call) {
+        if (call.getCache() == null) {
+            return null;
+        }
+        return responseCaches.computeIfAbsent(call, c -> ResponseCache.of(c.getCache()));
+    }
+    
+    /**
+     * The method and the rendered key expression, or the method, URL, selected headers
+     * and body.
+     */
+    private String cacheKey(ExternalCallCache settings, ExternalRequest request, Map<String, Object> context) {
+        if (settings.getKeyExpression() != null) {
+            return request.getMethod() + " " + spelEvaluator.processTemplate(settings.getKeyExpression(), context);
+        }
+        StringBuilder key = new StringBuilder(request.getMethod()).append(' ').append(request.getUrl());
+        if (settings.getKeyHeaders() != null) {
+            for (String name : settings.getKeyHeaders()) {
+                String header = name.toLowerCase(Locale.ROOT);
+                key.append('\n').append(header).append(": ").append(request.getHeaders().get(header));
+            }
+        }
+        if (request.getBody() != null) {
+            key.append("\n\n").append(request.getBody());
+        }
+        return key.toString();
+    }
+    
+    private Object readResponse(ExternalRequest request, SimpleHttpResponse response) {
+        logger.info("{} call to {} returned status: {}", request.getMethod(), request.getUrl(), response.getCode());
+        byte[] body = response.getBodyBytes();
+        if (response.getCode() >= 400) {
+            // HTTP/2 responses carry no reason phrase, so the standard one is used
+            HttpStatusCode status = HttpStatusCode.valueOf(response.getCode());
+            HttpStatus known = HttpStatus.resolve(status.value());
+            String statusText = known != null ? known.getReasonPhrase() : "";
+            throw status.is4xxClientError()
+                ? HttpClientErrorException.create(status, statusText, null, body, StandardCharsets.UTF_8)
+                : HttpServerErrorException.create(status, statusText, null, body, StandardCharsets.UTF_8);
+        }
+        logger.debug("Response body: {}", response.getBodyText());
+        if (body == null || body.length == 0) {
+            return null;
+        }
+        try {
+            return objectMapper.readValue(body, Map.class);
+        } catch (IOException e) {
+            throw new RestClientException("Could not read response from " + request.getUrl() + ": " + e.getMessage(), e);
+        }
     }
 }
@@ -0,0 +1,69 @@
+package com.example.service;
+
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+
+/**
+ * An external call with its templates resolved against a request's context: what is
+ * sent, and nothing that depends on the context any more. Header names are lower-case,
+ * so two requests are equal when they would send the same thing.
+ */
+public final class ExternalRequest {
+
+    private final String method;
+    private final String url;
+    private final Map<String, String> headers;
+    private final String body;
+
+    public ExternalRequest(String method, String url, Map<String, String> headers, String body) {
+        this.method = method.toUpperCase(Locale.ROOT);
+        this.url = url;
+        Map<String, String> names = new TreeMap<>();
+        headers.forEach((name, value) -> names.put(name.toLowerCase(Locale.ROOT), value));
+        this.headers = Collections.unmodifiableMap(names);
+        this.body = body;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    /** The headers by lower-case name. */
+    public Map<String, String> getHeaders() {
+        return headers;
+    }
+
+    /** The body, or {@code null} if none is sent. */
+    public String getBody() {
+        return body;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ExternalRequest other)) {
+            return false;
+        }
+        return method.equals(other.method) && url.equals(other.url) && headers.equals(other.headers)
+            && Objects.equals(body, other.body);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(method, url, headers, body);
+    }
+
+    @Override
+    public String toString() {
+        return method + " " + url;
+    }
+}
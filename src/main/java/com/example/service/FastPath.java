@@ -0,0 +1,16 @@
+package com.example.service;
+
+import java.util.Map;
+
+/**
+ * Hand-written implementation of a common expression shape, recognised when the
+ * expression is parsed. It works directly on the expression variables and gives up,
+ * returning {@link #FALLBACK} before changing anything, whenever the values at hand are
+ * not the ones it handles; the expression is then evaluated by SpEL as usual.
+ */
+interface FastPath {
+
+    Object FALLBACK = new Object();
+
+    Object apply(Map<String, Object> vars);
+}
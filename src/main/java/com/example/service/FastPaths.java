@@ -0,0 +1,247 @@
+package com.example.service;
+
+import com.example.service.plan.MapShape;
+import com.example.service.plan.ShapedMap;
+import org.springframework.expression.spel.SpelNode;
+import org.springframework.expression.spel.ast.Assign;
+import org.springframework.expression.spel.ast.CompoundExpression;
+import org.springframework.expression.spel.ast.Elvis;
+import org.springframework.expression.spel.ast.Indexer;
+import org.springframework.expression.spel.ast.Literal;
+import org.springframework.expression.spel.ast.MethodReference;
+import org.springframework.expression.spel.ast.NullLiteral;
+import org.springframework.expression.spel.ast.OpEQ;
+import org.springframework.expression.spel.ast.OpMinus;
+import org.springframework.expression.spel.ast.OpNE;
+import org.springframework.expression.spel.ast.OpPlus;
+import org.springframework.expression.spel.ast.StringLiteral;
+import org.springframework.expression.spel.ast.Ternary;
+import org.springframework.expression.spel.ast.VariableReference;
+
+import java.util.Map;
+import java.util.Set;
+
+import static com.example.service.FastPath.FALLBACK;
+
+/**
+ * Recognises the transform shapes that have a {@link FastPath}: an assignment to
+ * {@code #payload['key']} or {@code #ctx['key']} of a value built from literals, map
+ * reads such as {@code #ctx['key']}, {@code ?.trim()}, null checks in a ternary, the
+ * Elvis operator and integer {@code +} and {@code -}. Every operand follows SpEL's
+ * semantics for the values it accepts, for example {@code ?:} treats an empty string
+ * like null, and falls back for any other value.
+ */
+final class FastPaths {
+
+    private static final Set<String> READABLE = Set.of("payload", "ctx", "defaults", "env");
+    private static final Set<String> WRITABLE = Set.of("payload", "ctx");
+
+    private FastPaths() {
+    }
+
+    /** Returns the fast path for an expression, or {@code null} if it has a different shape. */
+    static FastPath recognize(SpelNode ast) {
+        if (!(ast instanceof Assign)) {
+            return null;
+        }
+        MapSlot target = slot(ast.getChild(0), WRITABLE);
+        Operand value = operand(ast.getChild(1));
+        if (target == null || value == null) {
+            return null;
+        }
+        return vars -> {
+            Object result = value.read(vars);
+            return result == FALLBACK ? FALLBACK : target.write(vars, result);
+        };
+    }
+
+    private interface Operand {
+        Object read(Map<String, Object> vars);
+    }
+
+    /**
+     * {@code #variable['key']}. For a {@link ShapedMap} the key's slot is looked up once per
+     * shape and remembered, as expressions are shared between configurations.
+     */
+    private static final class MapSlot implements Operand {
+
+        private final String variable;
+        private final String key;
+        private volatile ShapeSlot last;
+
+        MapSlot(String variable, String key) {
+            this.variable = variable;
+            this.key = key;
+        }
+
+        @Override
+        public Object read(Map<String, Object> vars) {
+            Object target = vars.get(variable);
+            if (target instanceof ShapedMap shaped) {
+                int slot = slotIn(shaped.getShape());
+                return slot >= 0 ? shaped.getSlot(slot) : shaped.get(key);
+            }
+            return target instanceof Map<?, ?> map ? map.get(key) : FALLBACK;
+        }
+
+        @SuppressWarnings("unchecked")
+        Object write(Map<String, Object> vars, Object value) {
+            Object target = vars.get(variable);
+            if (target instanceof ShapedMap shaped) {
+                int slot = slotIn(shaped.getShape());
+                if (slot >= 0) {
+                    shaped.setSlot(slot, value);
+                } else {
+                    shaped.put(key, value);
+                }
+                return value;
+            }
+            if (!(target instanceof Map<?, ?> map)) {
+                return FALLBACK;
+            }
+            ((Map<String, Object>) map).put(key, value);
+            return value;
+        }
+
+        private int slotIn(MapShape shape) {
+            ShapeSlot cached = last;
+            if (cached == null || cached.shape() != shape) {
+                cached = new ShapeSlot(shape, shape.slotOf(key));
+                last = cached;
+            }
+            return cached.slot();
+        }
+    }
+
+    private record ShapeSlot(MapShape shape, int slot) {
+    }
+
+    /** {@code #variable['key']} with a string key. */
+    private static MapSlot slot(SpelNode node, Set<String> variables) {
+        if (!(node instanceof CompoundExpression) || node.getChildCount() != 2
+                || !(node.getChild(0) instanceof VariableReference)
+                || !(node.getChild(1) instanceof Indexer indexer)
+                || !(indexer.getChild(0) instanceof StringLiteral key)) {
+            return null;
+        }
+        String variable = node.getChild(0).toStringAST().substring(1);
+        if (!variables.contains(variable)) {
+            return null;
+        }
+        return new MapSlot(variable, (String) key.getLiteralValue().getValue());
+    }
+
+    private static Operand operand(SpelNode node) {
+        if (node instanceof Literal literal) {
+            Object value = literal.getLiteralValue().getValue();
+            return vars -> value;
+        }
+        MapSlot slot = slot(node, READABLE);
+        if (slot != null) {
+            return slot;
+        }
+        if (node instanceof CompoundExpression) {
+            return trim(node);
+        }
+        if (node instanceof Ternary) {
+            return nullCheck(node);
+        }
+        if (node instanceof Elvis) {
+            Operand value = operand(node.getChild(0));
+            Operand fallback = operand(node.getChild(1));
+            if (value == null || fallback == null) {
+                return null;
+            }
+            return vars -> {
+                Object result = value.read(vars);
+                if (result == FALLBACK) {
+                    return FALLBACK;
+                }
+                return result == null || "".equals(result) ? fallback.read(vars) : result;
+            };
+        }
+        if ((node instanceof OpPlus || node instanceof OpMinus) && node.getChildCount() == 2) {
+            return arithmetic(node, node instanceof OpMinus);
+        }
+        return null;
+    }
+
+    private static boolean isNonNumericLiteral(SpelNode node) {
+        return node instanceof Literal literal && !(literal.getLiteralValue().getValue() instanceof Number);
+    }
+
+    /** {@code #variable['key'].trim()} or {@code #variable['key']?.trim()} */
+    private static Operand trim(SpelNode node) {
+        if (node.getChildCount() != 3
+                || !(node.getChild(2) instanceof MethodReference method)
+                || !"trim".equals(method.getName()) || method.getChildCount() != 0) {
+            return null;
+        }
+        SpelNode read = node.getChild(0);
+        if (!(read instanceof VariableReference) || !(node.getChild(1) instanceof Indexer indexer)
+                || !(indexer.getChild(0) instanceof StringLiteral key)) {
+            return null;
+        }
+        String variable = read.toStringAST().substring(1);
+        if (!READABLE.contains(variable)) {
+            return null;
+        }
+        MapSlot slot = new MapSlot(variable, (String) key.getLiteralValue().getValue());
+        boolean nullSafe = method.isNullSafe();
+        return vars -> {
+            Object value = slot.read(vars);
+            if (value instanceof String s) {
+                return s.trim();
+            }
+            // a null receiver without ?. is an error SpEL should report
+            return value == null && nullSafe ? null : FALLBACK;
+        };
+    }
+
+    /** {@code x != null ? a : b} and {@code x == null ? a : b} */
+    private static Operand nullCheck(SpelNode node) {
+        SpelNode condition = node.getChild(0);
+        boolean notNull = condition instanceof OpNE;
+        if (!(notNull || condition instanceof OpEQ) || !(condition.getChild(1) instanceof NullLiteral)) {
+            return null;
+        }
+        Operand checked = operand(condition.getChild(0));
+        Operand ifTrue = operand(node.getChild(1));
+        Operand ifFalse = operand(node.getChild(2));
+        if (checked == null || ifTrue == null || ifFalse == null) {
+            return null;
+        }
+        return vars -> {
+            Object value = checked.read(vars);
+            if (value == FALLBACK) {
+                return FALLBACK;
+            }
+            return (value != null) == notNull ? ifTrue.read(vars) : ifFalse.read(vars);
+        };
+    }
+
+    /** Integer and long {@code +} and {@code -}; int results overflow exactly as in SpEL. */
+    private static Operand arithmetic(SpelNode node, boolean subtract) {
+        if (isNonNumericLiteral(node.getChild(0)) || isNonNumericLiteral(node.getChild(1))) {
+            return null; // string concatenation and the like
+        }
+        Operand left = operand(node.getChild(0));
+        Operand right = operand(node.getChild(1));
+        if (left == null || right == null) {
+            return null;
+        }
+        return vars -> {
+            Object l = left.read(vars);
+            Object r = right.read(vars);
+            if (l instanceof Integer a && r instanceof Integer b) {
+                return subtract ? a - b : a + b;
+            }
+            if ((l instanceof Long || l instanceof Integer) && (r instanceof Long || r instanceof Integer)) {
+                long a = ((Number) l).longValue();
+                long b = ((Number) r).longValue();
+                return subtract ? a - b : a + b;
+            }
+            return FALLBACK;
+        };
+    }
+}
@@ -0,0 +1,46 @@
+package com.example.service;
+
+import com.example.service.plan.CompiledRule;
+import com.example.service.plan.CompiledValidation;
+import com.example.service.plan.RuleAction;
+
+/**
+ * Runs a compiled rule by walking its parts.
+ */
+public final class InterpretedRuleProgram implements RuleProgram {
+
+    private final CompiledRule rule;
+
+    public InterpretedRuleProgram(CompiledRule rule) {
+        this.rule = rule;
+    }
+
+    @Override
+    public boolean execute(RuleRun run) {
+        if (rule.isNeverApplies() || (rule.getWhen() != null && !run.when(rule.getWhen()))) {
+            return run.skip();
+        }
+
+        if (!rule.getValidations().isEmpty()) {
+            for (CompiledValidation validation : rule.getValidations()) {
+                run.validate(validation);
+            }
+            if (run.hasValidationErrors()) {
+                return run.fail(rule.isStopOnValidationError());
+            }
+        }
+
+        if (rule.getExternalCall() != null) {
+            run.externalCall(rule.getExternalCall());
+        }
+
+        if (rule.isTransformDeclared()) {
+            for (ParsedExpression step : rule.getTransforms()) {
+                run.transform(step);
+            }
+            run.transformed();
+        }
+
+        return run.complete(rule.getOnSuccess() == RuleAction.STOP);
+    }
+}
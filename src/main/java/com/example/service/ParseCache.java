@@ -0,0 +1,105 @@
+package com.example.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Bounded, thread-safe cache of parsed artefacts keyed by their source text.
+ * Lookups never lock; once the cache grows past its limit a second-chance
+ * sweep evicts entries that have not been read since the previous sweep.
+ */
+class ParseCache<V> {
+
+    private final int maxSize;
+    private final ConcurrentHashMap<String, Entry<V>> entries = new ConcurrentHashMap<>();
+    private final Object evictionLock = new Object();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    ParseCache(int maxSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("Cache size must be positive: " + maxSize);
+        }
+        this.maxSize = maxSize;
+    }
+
+    V get(String source, Function<String, V> parser) {
+        Entry<V> entry = entries.get(source);
+        if (entry != null) {
+            entry.referenced = true;
+            hits.increment();
+            return entry.value;
+        }
+        misses.increment();
+        V value = parser.apply(source);
+        Entry<V> existing = entries.putIfAbsent(source, new Entry<>(value));
+        if (existing != null) {
+            existing.referenced = true;
+            return existing.value;
+        }
+        if (entries.size() > maxSize) {
+            evict();
+        }
+        return value;
+    }
+
+    Collection<V> values() {
+        Collection<V> values = new ArrayList<>(entries.size());
+        for (Entry<V> entry : entries.values()) {
+            values.add(entry.value);
+        }
+        return values;
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    Map<String, Object> stats() {
+        long hitCount = hits.sum();
+        long missCount = misses.sum();
+        long total = hitCount + missCount;
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("size", entries.size());
+        stats.put("maxSize", maxSize);
+        stats.put("hits", hitCount);
+        stats.put("misses", missCount);
+        stats.put("evictions", evictions.sum());
+        stats.put("hitRatio", total == 0 ? 0.0 : (double) hitCount / total);
+        return stats;
+    }
+
+    private void evict() {
+        synchronized (evictionLock) {
+            // Each pass clears the reference bits it skips, so two passes always free enough room
+            while (entries.size() > maxSize) {
+                Iterator<Entry<V>> it = entries.values().iterator();
+                while (it.hasNext() && entries.size() > maxSize) {
+                    Entry<V> entry = it.next();
+                    if (entry.referenced) {
+                        entry.referenced = false;
+                    } else {
+                        it.remove();
+                        evictions.increment();
+                    }
+                }
+            }
+        }
+    }
+
+    private static final class Entry<V> {
+        final V value;
+        volatile boolean referenced;
+
+        Entry(V value) {
+            this.value = value;
+        }
+    }
+}
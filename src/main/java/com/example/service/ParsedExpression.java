@@ -0,0 +1,102 @@
+package com.example.service;
+
+import org.springframework.expression.EvaluationContext;
+import org.springframework.expression.Expression;
+import org.springframework.expression.spel.SpelCompilerMode;
+import org.springframework.expression.spel.SpelEvaluationException;
+import org.springframework.expression.spel.SpelMessage;
+import org.springframework.expression.spel.SpelNode;
+import org.springframework.expression.spel.standard.SpelExpression;
+
+import java.util.function.Function;
+
+/**
+ * A parsed SpEL expression together with the outcome of compiling it to bytecode.
+ * Compilation is attempted once the expression has been interpreted successfully,
+ * since SpEL only knows the operand types after a first evaluation. If compiled code
+ * later fails the expression is permanently switched back to the interpreter.
+ */
+public class ParsedExpression {
+
+    public enum CompileStatus {
+        /** Compilation is disabled. */
+        INTERPRETED,
+        /** Not evaluated yet, so compilation has not been attempted. */
+        PENDING,
+        COMPILED,
+        /** The expression uses constructs the SpEL compiler does not support. */
+        NOT_COMPILABLE,
+        /** Compiled code failed at runtime and the interpreter is used instead. */
+        FALLBACK
+    }
+
+    private final String text;
+    private final Function<String, Expression> interpreterParser;
+    private final FastPath fastPath;
+    private volatile Expression expression;
+    private volatile CompileStatus compileStatus;
+
+    ParsedExpression(String text, Expression expression, SpelCompilerMode compilerMode,
+                     Function<String, Expression> interpreterParser) {
+        this.text = text;
+        this.expression = expression;
+        this.interpreterParser = interpreterParser;
+        this.compileStatus = compilerMode == SpelCompilerMode.OFF ? CompileStatus.INTERPRETED : CompileStatus.PENDING;
+        this.fastPath = FastPaths.recognize(getAst());
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public CompileStatus getCompileStatus() {
+        return compileStatus;
+    }
+
+    /** Whether the expression has a hand-written implementation tried before SpEL. */
+    public boolean hasFastPath() {
+        return fastPath != null;
+    }
+
+    FastPath getFastPath() {
+        return fastPath;
+    }
+
+    /** Root of the syntax tree, or {@code null} if the expression is not a SpEL expression. */
+    SpelNode getAst() {
+        return expression instanceof SpelExpression spelExpression ? spelExpression.getAST() : null;
+    }
+
+    public Object getValue(EvaluationContext context) {
+        Object value;
+        try {
+            value = expression.getValue(context);
+        } catch (SpelEvaluationException e) {
+            if (e.getMessageCode() != SpelMessage.EXCEPTION_RUNNING_COMPILED_EXPRESSION) {
+                throw e;
+            }
+            // IMMEDIATE mode rethrows instead of reverting; swap in an interpreter-only copy for good
+            expression = interpreterParser.apply(text);
+            compileStatus = CompileStatus.FALLBACK;
+            return expression.getValue(context);
+        }
+        if (compileStatus == CompileStatus.PENDING) {
+            compile();
+        }
+        return value;
+    }
+
+    private void compile() {
+        if (expression instanceof SpelExpression spelExpression) {
+            boolean compilable = spelExpression.compileExpression();
+            compileStatus = compilable ? CompileStatus.COMPILED : CompileStatus.NOT_COMPILABLE;
+        } else {
+            compileStatus = CompileStatus.NOT_COMPILABLE;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+}
@@ -0,0 +1,154 @@
+package com.example.service;
+
+import com.example.model.rule.ExternalCallCache;
+import org.springframework.boot.convert.DurationStyle;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * The cached responses of one rule's external call, evicting the least recently used
+ * entry beyond its size. A response is fresh for its time to live; for the
+ * stale-while-revalidate period after that it is still returned, while a single
+ * background request replaces it. Empty responses and failures are not cached.
+ */
+final class ResponseCache {
+
+    private final long ttlNanos;
+    private final long staleNanos;
+    private final int maxEntries;
+    private final LongSupplier clock;
+    private final Map<String, Entry> entries;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder staleHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder refreshes = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    ResponseCache(Duration ttl, Duration staleWhileRevalidate, int maxEntries, LongSupplier clock) {
+        if (ttl.isNegative() || ttl.isZero()) {
+            throw new IllegalArgumentException("ttl must be positive: " + ttl);
+        }
+        if (staleWhileRevalidate.isNegative()) {
+            throw new IllegalArgumentException("staleWhileRevalidate must not be negative: " + staleWhileRevalidate);
+        }
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("maxEntries must be positive: " + maxEntries);
+        }
+        this.ttlNanos = ttl.toNanos();
+        this.staleNanos = staleWhileRevalidate.toNanos();
+        this.maxEntries = maxEntries;
+        this.clock = clock;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() > ResponseCache.this.maxEntries) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @throws IllegalArgumentException if the settings are missing or invalid
+     */
+    static ResponseCache of(ExternalCallCache settings) {
+        if (settings.getTtl() == null) {
+            throw new IllegalArgumentException("ttl is required");
+        }
+        Duration ttl = DurationStyle.detectAndParse(settings.getTtl());
+        Duration stale = settings.getStaleWhileRevalidate() != null
+            ? DurationStyle.detectAndParse(settings.getStaleWhileRevalidate()) : Duration.ZERO;
+        int maxEntries = settings.getMaxEntries() != null ? settings.getMaxEntries() : 1000;
+        return new ResponseCache(ttl, stale, maxEntries, System::nanoTime);
+    }
+
+    /**
+     * The cached response for a key, or {@code null} on a miss. A stale response starts
+     * {@code refresh} unless a refresh of it is already running.
+     */
+    Object get(String key, Supplier<CompletableFuture<Object>> refresh) {
+        long now = clock.getAsLong();
+        Entry entry = current(key, now);
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        if (now - entry.storedAt < ttlNanos) {
+            hits.increment();
+            return entry.value;
+        }
+        staleHits.increment();
+        if (entry.refreshing.compareAndSet(false, true)) {
+            refreshes.increment();
+            refresh.get().whenComplete((value, failure) -> {
+                if (value != null) {
+                    put(key, value);
+                } else {
+                    entry.refreshing.set(false); // the next stale hit tries again
+                }
+            });
+        }
+        return entry.value;
+    }
+
+    /** The entry for a key unless it is past its stale period. */
+    private Entry current(String key, long now) {
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry != null && now - entry.storedAt >= ttlNanos + staleNanos) {
+                entries.remove(key);
+                return null;
+            }
+            return entry;
+        }
+    }
+
+    void put(String key, Object value) {
+        if (value == null) {
+            return;
+        }
+        Entry entry = new Entry(value, clock.getAsLong());
+        synchronized (entries) {
+            entries.put(key, entry);
+        }
+    }
+
+    Map<String, Object> stats() {
+        long hitCount = hits.sum();
+        long staleHitCount = staleHits.sum();
+        long missCount = misses.sum();
+        long total = hitCount + staleHitCount + missCount;
+        Map<String, Object> stats = new LinkedHashMap<>();
+        synchronized (entries) {
+            stats.put("size", entries.size());
+        }
+        stats.put("maxEntries", maxEntries);
+        stats.put("hits", hitCount);
+        stats.put("staleHits", staleHitCount);
+        stats.put("misses", missCount);
+        stats.put("refreshes", refreshes.sum());
+        stats.put("evictions", evictions.sum());
+        stats.put("hitRatio", total == 0 ? 0.0 : (double) (hitCount + staleHitCount) / total);
+        return stats;
+    }
+
+    private static final class Entry {
+        final Object value;
+        final long storedAt;
+        final AtomicBoolean refreshing = new AtomicBoolean();
+
+        Entry(Object value, long storedAt) {
+            this.value = value;
+            this.storedAt = storedAt;
+        }
+    }
+}
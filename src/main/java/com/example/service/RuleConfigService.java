@@ -1,6 +1,7 @@
 package com.example.service;
 
 import com.example.model.rule.RuleConfig;
+import com.example.service.plan.CompiledRuleSet;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -9,6 +10,8 @@ import org.springframework.stereotype.Service;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Collections;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
 @Service
@@ -16,14 +19,36 @@ public class RuleConfigService {
     
     private static final Logger logger = LoggerFactory.getLogger(RuleConfigService.class);
     private final ObjectMapper objectMapper;
-    private final ConcurrentHashMap<String, RuleConfig> configCache = new ConcurrentHashMap<>();
+    private final RuleSetCompiler ruleSetCompiler;
+    private final ConcurrentHashMap<String, CompiledRuleSet> ruleSetCache = new ConcurrentHashMap<>();
     
-    public RuleConfigService(ObjectMapper objectMapper) {
+    public RuleConfigService(ObjectMapper objectMapper, RuleSetCompiler ruleSetCompiler) {
         this.objectMapper = objectMapper;
+        this.ruleSetCompiler = ruleSetCompiler;
+    }
+    
+    /**
+     * Returns the compiled execution plan for a request type, loading and compiling
+     * its configuration on first use.
+     */
+    public CompiledRuleSet loadRuleSet(String typeOfRequest) {
+        return ruleSetCache.computeIfAbsent(typeOfRequest, this::compileRuleSet);
+    }
+    
+    /** The execution plans loaded so far, by request type. */
+    public Map<String, CompiledRuleSet> getLoadedRuleSets() {
+        return Collections.unmodifiableMap(ruleSetCache);
     }
     
     public RuleConfig loadConfig(String typeOfRequest) {
-        return configCache.computeIfAbsent(typeOfRequest, this::loadConfigFromFile);
+        return loadRuleSet(typeOfRequest).getConfig();
+    }
+    
+    private CompiledRuleSet compileRuleSet(String typeOfRequest) {
+        RuleConfig config = loadConfigFromFile(typeOfRequest);
+        CompiledRuleSet ruleSet = ruleSetCompiler.compile(config);
+        logger.info("Compiled rule configuration for type: {}", typeOfRequest);
+        return ruleSet;
     }
     
     private RuleConfig loadConfigFromFile(String typeOfRequest) {
@@ -48,13 +73,17 @@ public class RuleConfigService {
     }
     
     public void clearCache() {
-        configCache.clear();
+        ruleSetCache.clear();
         logger.info("Rule configuration cache cleared");
     }
     
+    /**
+     * Loads and compiles the configuration again, then swaps the new plan in atomically.
+     * Requests in flight finish on the plan they started with; if compilation fails the
+     * previous plan stays in place.
+     */
     public void reloadConfig(String typeOfRequest) {
-        configCache.remove(typeOfRequest);
-        loadConfig(typeOfRequest);
+        ruleSetCache.put(typeOfRequest, compileRuleSet(typeOfRequest));
         logger.info("Reloaded rule configuration for type: {}", typeOfRequest);
     }
 }
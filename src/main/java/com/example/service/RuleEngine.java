@@ -1,36 +1,86 @@
 package com.example.service;
 
+import com.example.config.RuleExecutionConfig;
 import com.example.model.RuleRequest;
 import com.example.model.RuleResponse;
-import com.example.model.rule.*;
+import com.example.model.rule.RuleConfig;
+import com.example.service.plan.CallJoinPoints;
+import com.example.service.plan.CompiledRule;
+import com.example.service.plan.CompiledRuleSet;
+import com.example.service.plan.DependencyGraph;
+import com.example.service.plan.JournaledMap;
+import com.example.service.plan.MapShape;
+import com.example.service.plan.PathAccessor;
+import com.example.service.plan.PrefetchPlan;
+import com.example.service.plan.RuleOrderedMap;
+import com.example.service.plan.StreamingValidator;
+import com.example.service.plan.ValueType;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
 import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
+import java.io.IOException;
 import java.util.*;
-import java.util.regex.Pattern;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 @Service
 public class RuleEngine {
     
     private static final Logger logger = LoggerFactory.getLogger(RuleEngine.class);
+    private static final TypeReference<Map<String, Object>> PAYLOAD_TYPE = new TypeReference<>() { };
     private final SpelEvaluator spelEvaluator;
+    private final RuleSetCompiler ruleSetCompiler;
     private final ExternalCallService externalCallService;
     private final ObjectMapper objectMapper;
+    private final ExecutorService ruleExecutor;
     
     public RuleEngine(SpelEvaluator spelEvaluator, 
+                     RuleSetCompiler ruleSetCompiler,
                      ExternalCallService externalCallService, 
                      ObjectMapper objectMapper) {
+        this(spelEvaluator, ruleSetCompiler, externalCallService, objectMapper, new RuleExecutionConfig());
+    }
+    
+    @Autowired
+    public RuleEngine(SpelEvaluator spelEvaluator, 
+                     RuleSetCompiler ruleSetCompiler,
+                     ExternalCallService externalCallService, 
+                     ObjectMapper objectMapper,
+                     RuleExecutionConfig executionConfig) {
         this.spelEvaluator = spelEvaluator;
+        this.ruleSetCompiler = ruleSetCompiler;
         this.externalCallService = externalCallService;
         this.objectMapper = objectMapper;
+        // A pool of its own, so blocking rules neither starve nor are starved by other users of the common pool
+        this.ruleExecutor = new ForkJoinPool(executionConfig.getParallelism() > 0
+            ? executionConfig.getParallelism()
+            : Runtime.getRuntime().availableProcessors());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        ruleExecutor.shutdown();
     }
     
+    /**
+     * Compiles the configuration and executes it. Callers that run the same configuration
+     * repeatedly should compile it once and use {@link #execute(RuleRequest, CompiledRuleSet)}.
+     */
     public RuleResponse execute(RuleRequest request, RuleConfig config) {
+        return execute(request, ruleSetCompiler.compile(config));
+    }
+    
+    public RuleResponse execute(RuleRequest request, CompiledRuleSet ruleSet) {
         String requestId = UUID.randomUUID().toString();
         logger.info("Starting rule execution for requestId: {}, type: {}", requestId, request.getTypeOfRequest());
         
@@ -40,114 +90,68 @@ public class RuleEngine {
         
         try {
             // Initialize context
-            Map<String, Object> ctx = new HashMap<>();
-            Map<String, Object> payload = objectMapper.convertValue(request.getPayload(), Map.class);
-            Map<String, Object> defaults = config.getDefaults() != null ? config.getDefaults() : new HashMap<>();
+            Map<String, Object> ctx = ruleSet.getCtxShape() != null ? ruleSet.getCtxShape().newMap() : new HashMap<>();
+            Map<String, Object> payload;
+            if (request.getPayload() instanceof TokenBuffer tokens) {
+                // Bound from JSON: reject it before reading it into maps if the first rule would
+                List<String> rejected = validateTokens(tokens, ruleSet.getStreamingValidator());
+                if (!rejected.isEmpty()) {
+                    RuleRun run = new RuleRun(spelEvaluator, externalCallService, Map.of(), Map.of(), Map.of(),
+                                              ruleSet.getRules().get(0), null);
+                    run.reject(rejected);
+                    trace.add(run.getTrace());
+                    errors.addAll(run.getErrors());
+                    return new RuleResponse(requestId, request.getTypeOfRequest(), false,
+                                          errors, null, trace, externalCalls);
+                }
+                payload = readPayload(tokens, ruleSet.getPayloadShape());
+            } else if (request.getBoundPayload() != null) {
+                // Read from the request body into a map nobody else holds
+                payload = request.getBoundPayload();
+            } else {
+                payload = objectMapper.convertValue(request.getPayload(), Map.class);
+            }
+            Map<String, Object> defaults = ruleSet.getDefaults() != null ? ruleSet.getDefaults() : new HashMap<>();
             Map<String, String> env = System.getenv();
+            DependencyGraph graph = ruleSet.getDependencyGraph();
+            // Rules running at the same time still write to the same two maps
+            RuleOrderedMap orderedPayload = graph != null ? new RuleOrderedMap(payload) : null;
+            Map<String, Object> sharedPayload = orderedPayload != null ? orderedPayload : payload;
+            Map<String, Object> sharedCtx = graph != null ? Collections.synchronizedMap(ctx) : ctx;
+            // Rules running one after another can have their payload writes recorded, and undone
+            RuleConfig config = ruleSet.getConfig();
+            JournaledMap journal = graph == null && (Boolean.TRUE.equals(config.getTrackChanges())
+                || Boolean.TRUE.equals(config.getRollbackOnError())) ? new JournaledMap(payload) : null;
+            SubexpressionMemo memo = ruleSet.getSubexpressions() != null ? ruleSet.getSubexpressions().newMemo() : null;
+            // One evaluation context for the whole request; payload and ctx are mutated in place
+            Map<String, Object> context = spelEvaluator.createContext(journal != null ? journal : sharedPayload,
+                                                                      sharedCtx, defaults, env,
+                                                                      ruleSet.getEvaluationMode(), memo);
+            
+            // Rules whose condition the index shows is false are skipped without evaluating it
+            BitSet candidates = ruleSet.getRuleIndex() != null ? ruleSet.getRuleIndex().candidates(payload) : null;
             
             // Execute rules
-            for (Rule rule : config.getRules()) {
-                Map<String, Object> ruleTrace = new HashMap<>();
-                ruleTrace.put("ruleId", rule.getId());
-                ruleTrace.put("description", rule.getDescription());
-                ruleTrace.put("timestamp", LocalDateTime.now().format(DateTimeFormatter.ISO_LOCAL_DATE_TIME));
-                
-                try {
-                    // Check when condition
-                    if (rule.getWhen() != null && !rule.getWhen().trim().isEmpty()) {
-                        Map<String, Object> context = spelEvaluator.createContext(payload, ctx, defaults, env);
-                        boolean whenCondition = spelEvaluator.evaluateBoolean(rule.getWhen(), context);
-                        if (!whenCondition) {
-                            ruleTrace.put("status", "SKIPPED");
-                            ruleTrace.put("reason", "when condition not met");
-                            trace.add(ruleTrace);
-                            continue;
-                        }
-                    }
-                    
-                    // Validate
-                    if (rule.getValidate() != null && !rule.getValidate().isEmpty()) {
-                        List<String> validationErrors = validate(rule.getValidate(), payload, ctx, defaults, env);
-                        if (!validationErrors.isEmpty()) {
-                            errors.addAll(validationErrors);
-                            ruleTrace.put("status", "FAILED");
-                            ruleTrace.put("errors", validationErrors);
-                            trace.add(ruleTrace);
-                            
-                            if (Boolean.TRUE.equals(rule.getStopOnValidationError())) {
-                                break;
-                            }
-                            continue;
-                        }
-                    }
-                    
-                    // External call
-                    if (rule.getExternalCall() != null) {
-                        Map<String, Object> context = spelEvaluator.createContext(payload, ctx, defaults, env);
-                        Object result = null;
-                        String errorMessage = null;
-                        try {
-                            result = externalCallService.invoke(rule.getExternalCall(), context);
-                            logger.info("External call result for rule {}: {}", rule.getId(), result);
-                        } catch (Exception e) {
-                            logger.warn("External call failed for rule {}: {}", rule.getId(), e.getMessage());
-                            result = null;
-                            errorMessage = e.getMessage();
-                        }
-                        
-                        // Save result to context for internal use in transformations
-                        if (rule.getExternalCall().getSaveAs() != null) {
-                            ctx.put(rule.getExternalCall().getSaveAs(), result);
-                            logger.info("Saved external call result to context with key '{}': {}", rule.getExternalCall().getSaveAs(), result);
-                        }
-                        
-                        // Record external call metadata (without the actual response data)
-                        Map<String, Object> externalCall = new HashMap<>();
-                        externalCall.put("ruleId", rule.getId());
-                        externalCall.put("url", rule.getExternalCall().getUrl());
-                        externalCall.put("method", rule.getExternalCall().getMethod());
-                        externalCall.put("timestamp", LocalDateTime.now().format(DateTimeFormatter.ISO_LOCAL_DATE_TIME));
-                        externalCall.put("status", result != null ? "SUCCESS" : "FAILED");
-                        if (errorMessage != null) {
-                            externalCall.put("error", errorMessage);
-                        }
-                        // Note: We don't include the actual result data to avoid exposing external API responses
-                        externalCalls.add(externalCall);
-                        
-                        ruleTrace.put("status", result != null ? "EXTERNAL_CALL" : "EXTERNAL_CALL_FAILED");
-                        ruleTrace.put("externalCall", externalCall);
-                    }
-                    
-                    // Transform - use the same context that may contain external call results
-                    if (rule.getTransform() != null && !rule.getTransform().isEmpty()) {
-                        Map<String, Object> context = spelEvaluator.createContext(payload, ctx, defaults, env);
-                        for (TransformStep step : rule.getTransform()) {
-                            if ("SPEL".equalsIgnoreCase(step.getKind())) {
-                                spelEvaluator.evaluate(step.getSpel(), context);
-                            }
-                        }
-                        ruleTrace.put("status", "TRANSFORMED");
-                    }
-                    
-                    // Check action
-                    if (rule.getOnSuccess() != null && "STOP".equals(rule.getOnSuccess().getAction())) {
-                        ruleTrace.put("status", "STOPPED");
-                        trace.add(ruleTrace);
-                        break;
-                    }
-                    
-                    if (ruleTrace.get("status") == null) {
-                        ruleTrace.put("status", "SUCCESS");
-                    }
-                    
-                } catch (Exception e) {
-                    logger.error("Error executing rule: {}", rule.getId(), e);
-                    ruleTrace.put("status", "ERROR");
-                    ruleTrace.put("error", e.getMessage());
-                    errors.add("Rule " + rule.getId() + " failed: " + e.getMessage());
+            RuleRun[] runs = new RuleRun[ruleSet.getRules().size()];
+            if (graph != null) {
+                executeParallel(ruleSet, graph, candidates, runs, orderedPayload, sharedCtx, context, memo);
+                // New keys in the order running the rules in sequence adds them, not the order they finished
+                payload = orderedPayload.inRuleOrder();
+            } else {
+                executeSequential(ruleSet, candidates, runs, journal != null ? journal : payload, ctx, context,
+                                  memo, journal);
+            }
+            
+            // Collect results in rule order; rules after a stop have no run
+            for (RuleRun run : runs) {
+                if (run == null) {
+                    continue;
+                }
+                trace.add(run.getTrace());
+                errors.addAll(run.getErrors());
+                if (run.getExternalCall() != null) {
+                    externalCalls.add(run.getExternalCall());
                 }
-                
-                trace.add(ruleTrace);
             }
             
             return new RuleResponse(requestId, request.getTypeOfRequest(), errors.isEmpty(), 
@@ -161,107 +165,157 @@ public class RuleEngine {
         }
     }
     
-    private List<String> validate(List<ValidationRule> validationRules, Map<String, Object> payload, 
-                                Map<String, Object> ctx, Map<String, Object> defaults, 
-                                Map<String, String> env) {
-        List<String> errors = new ArrayList<>();
-        Map<String, Object> context = spelEvaluator.createContext(payload, ctx, defaults, env);
-        
-        for (ValidationRule validation : validationRules) {
-            try {
-                Object value = getValueByPath(payload, validation.getPath());
-                
-                // Required check - check for null, empty string, or blank string
-                if (Boolean.TRUE.equals(validation.getRequired()) && isBlank(value)) {
-                    errors.add(validation.getMessage());
-                    continue;
-                }
-                
-                if (value == null) {
-                    continue; // Skip other validations if value is null and not required
+    private void executeSequential(CompiledRuleSet ruleSet, BitSet candidates, RuleRun[] runs,
+                                   Map<String, Object> payload, Map<String, Object> ctx, Map<String, Object> context,
+                                   SubexpressionMemo memo, JournaledMap journal) {
+        List<CompiledRule> rules = ruleSet.getRules();
+        List<RuleProgram> programs = ruleSet.getPrograms();
+        boolean rollbackOnError = Boolean.TRUE.equals(ruleSet.getConfig().getRollbackOnError());
+        CallJoinPoints joinPoints = ruleSet.getCallJoinPoints();
+        PrefetchPlan prefetchPlan = ruleSet.getPrefetchPlan();
+        List<CompletableFuture<Object>> prefetched = prefetchPlan != null
+            ? new ArrayList<>(Collections.nCopies(rules.size(), null)) : null;
+        try {
+            for (int i = 0; i < rules.size(); i++) {
+                if (joinPoints != null) {
+                    awaitCallsNeededBy(i, joinPoints, runs);
                 }
-                
-                // Type check
-                if (validation.getType() != null) {
-                    if (!isValidType(value, validation.getType())) {
-                        errors.add(validation.getMessage());
-                        continue;
+                if (prefetchPlan != null) {
+                    // Calls whose templates no rule from here on changes the inputs of
+                    for (int later : prefetchPlan.launchedBefore(i)) {
+                        prefetched.set(later, externalCallService.invokeAsync(rules.get(later).getExternalCall(), context));
                     }
                 }
-                
-                // Regex check
-                if (validation.getRegex() != null) {
-                    if (!(value instanceof String) || !Pattern.matches(validation.getRegex(), (String) value)) {
-                        errors.add(validation.getMessage());
-                        continue;
-                    }
+                runs[i] = new RuleRun(spelEvaluator, externalCallService, payload, ctx, context, rules.get(i), memo);
+                if (prefetched != null && prefetched.get(i) != null) {
+                    runs[i].usePrefetched(prefetched.get(i));
                 }
-                
-                // SpEL check
-                if (validation.getSpel() != null) {
-                    if (!spelEvaluator.evaluateBoolean(validation.getSpel(), context)) {
-                        errors.add(validation.getMessage());
-                    }
+                int mark = journal != null ? journal.mark() : 0;
+                boolean stop = run(runs[i], programs.get(i), candidates == null || candidates.get(i));
+                if (journal != null) {
+                    List<String> rolledBack = rollbackOnError && runs[i].isError() ? journal.rollback(mark) : List.of();
+                    runs[i].recordChanges(journal.changedSince(mark), rolledBack);
+                }
+                if (stop) {
+                    break;
+                }
+            }
+        } finally {
+            try {
+                if (joinPoints != null) {
+                    awaitCallsNeededBy(rules.size(), joinPoints, runs);
+                }
+            } finally {
+                if (prefetched != null) {
+                    cancelUnused(prefetched, runs);
                 }
-                
-            } catch (Exception e) {
-                logger.error("Error in validation: {}", validation.getPath(), e);
-                errors.add("Validation error for " + validation.getPath() + ": " + e.getMessage());
             }
         }
-        
-        return errors;
+    }
+
+    /** Cancels the calls started early for rules that did not run, after a stop or a failure. */
+    private void cancelUnused(List<CompletableFuture<Object>> prefetched, RuleRun[] runs) {
+        for (int i = 0; i < runs.length; i++) {
+            if (runs[i] == null && prefetched.get(i) != null) {
+                prefetched.get(i).cancel(false);
+            }
+        }
     }
     
-    public Object getValueByPath(Map<String, Object> payload, String path) {
-        if (path == null || path.trim().isEmpty()) {
-            return payload;
+    /** Saves the results of the asynchronous calls that rule {@code index} may read or overwrite. */
+    private void awaitCallsNeededBy(int index, CallJoinPoints joinPoints, RuleRun[] runs) {
+        for (int i = 0; i < index; i++) {
+            if (runs[i] != null && runs[i].getPendingCall() != null && joinPoints.joinBefore(i) <= index) {
+                runs[i].awaitExternalCall();
+            }
         }
-        
-        // Simple path resolution for $.field format
-        if (path.startsWith("$.")) {
-            String field = path.substring(2);
-            return payload.get(field);
+    }
+    
+    /**
+     * Starts each rule as soon as the rules it depends on have finished. Rules that may
+     * stop execution are barriers in the graph, so no later rule has started when one stops.
+     */
+    private void executeParallel(CompiledRuleSet ruleSet, DependencyGraph graph, BitSet candidates, RuleRun[] runs,
+                                 RuleOrderedMap payload, Map<String, Object> ctx, Map<String, Object> context,
+                                 SubexpressionMemo memo) {
+        List<CompiledRule> rules = ruleSet.getRules();
+        List<RuleProgram> programs = ruleSet.getPrograms();
+        AtomicBoolean stopped = new AtomicBoolean();
+        CompletableFuture<?>[] done = new CompletableFuture<?>[rules.size()];
+        for (int j = 0; j < rules.size(); j++) {
+            int index = j;
+            CompletableFuture<?>[] dependencies = Arrays.stream(graph.dependenciesOf(j))
+                .mapToObj(i -> done[i])
+                .toArray(CompletableFuture<?>[]::new);
+            done[j] = CompletableFuture.allOf(dependencies).thenRunAsync(() -> {
+                if (stopped.get()) {
+                    return;
+                }
+                RuleRun run = new RuleRun(spelEvaluator, externalCallService, payload, ctx, context, rules.get(index), memo);
+                runs[index] = run;
+                payload.runAs(index, () -> {
+                    if (run(run, programs.get(index), candidates == null || candidates.get(index))) {
+                        stopped.set(true);
+                    }
+                });
+            }, ruleExecutor).thenCompose(ignored -> awaitExternalCall(runs[index]));
         }
-        
-        return payload;
+        CompletableFuture.allOf(done).join();
     }
     
     /**
-     * Checks if a value is of the expected type.
-     * Note: Empty strings are considered valid strings (use required validation for non-empty checks).
+     * Completes once the rule's asynchronous external call, if any, has been saved, so the
+     * rules that depend on the rule start only then; no thread waits for the response.
      */
-    public boolean isValidType(Object value, String expectedType) {
-        if (value == null) {
-            return false; // null is not valid for any type
+    private CompletableFuture<Void> awaitExternalCall(RuleRun run) {
+        if (run == null || run.getPendingCall() == null) {
+            return CompletableFuture.completedFuture(null);
         }
-        
-        switch (expectedType.toLowerCase()) {
-            case "string":
-                return value instanceof String;
-            case "number":
-                return value instanceof Number;
-            case "boolean":
-                return value instanceof Boolean;
-            case "object":
-                return value instanceof Map;
-            case "array":
-                return value instanceof List;
-            default:
-                return true; // Unknown type, assume valid
+        return run.getPendingCall()
+            .handle((result, failure) -> null)
+            .thenRunAsync(run::awaitExternalCall, ruleExecutor);
+    }
+    
+    private Map<String, Object> readPayload(TokenBuffer tokens, MapShape shape) throws IOException {
+        try (JsonParser parser = tokens.asParser(objectMapper)) {
+            return shape != null ? shape.read(parser) : objectMapper.readValue(parser, PAYLOAD_TYPE);
         }
     }
-
-    private boolean isBlank(Object value) {
-        if (value == null) {
-            return true;
+    
+    private List<String> validateTokens(TokenBuffer tokens, StreamingValidator validator) throws IOException {
+        if (validator == null) {
+            return List.of();
+        }
+        try (JsonParser parser = tokens.asParser()) {
+            return validator.validate(parser);
         }
-        if (value instanceof String) {
-            return ((String) value).trim().isEmpty();
+    }
+    
+    /** Runs one rule; returns whether execution stops. */
+    private boolean run(RuleRun run, RuleProgram program, boolean candidate) {
+        if (!candidate) {
+            return run.skip();
         }
-        return false;
+        try {
+            return program.execute(run);
+        } catch (Exception e) {
+            run.error(e);
+            return false;
+        }
+    }
+    
+    public Object getValueByPath(Map<String, Object> payload, String path) {
+        return PathAccessor.compile(path).read(payload);
     }
     
+    /**
+     * Checks if a value is of the expected type.
+     * Note: Empty strings are considered valid strings (use required validation for non-empty checks).
+     */
+    public boolean isValidType(Object value, String expectedType) {
+        return ValueType.of(expectedType).matches(value);
+    }
+
     /**
      * Sanitizes sensitive data from results.
      * Note: External call results are not included in responses to avoid exposing external API data.
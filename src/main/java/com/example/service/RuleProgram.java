@@ -0,0 +1,15 @@
+package com.example.service;
+
+/**
+ * Executable form of one compiled rule: the when check, validations, external call,
+ * transforms and action, expressed as calls to the steps of a {@link RuleRun}.
+ */
+public interface RuleProgram {
+
+    /**
+     * Runs the rule for one request.
+     *
+     * @return whether rule execution stops after this rule
+     */
+    boolean execute(RuleRun run);
+}
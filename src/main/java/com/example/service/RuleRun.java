@@ -0,0 +1,299 @@
+package com.example.service;
+
+import com.example.model.rule.ExternalCall;
+import com.example.service.plan.CompiledRule;
+import com.example.service.plan.CompiledValidation;
+import com.example.service.plan.PathAccessor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * State of one rule while it executes for a request, and the individual steps a
+ * {@link RuleProgram} is made of. Each step records its outcome in the trace entry of
+ * the rule; the engine collects the entries, errors and external calls of all rules in
+ * declaration order.
+ */
+public final class RuleRun {
+
+    private static final Logger logger = LoggerFactory.getLogger(RuleRun.class);
+
+    private final SpelEvaluator spelEvaluator;
+    private final ExternalCallService externalCallService;
+    private final Map<String, Object> payload;
+    private final Map<String, Object> ctx;
+    private final Map<String, Object> context;
+    private final CompiledRule rule;
+    private final SubexpressionMemo memo;
+    private final Map<String, Object> ruleTrace = new HashMap<>();
+    private final List<String> errors = new ArrayList<>();
+    private final List<String> validationErrors = new ArrayList<>();
+    private Map<String, Object> externalCallRecord;
+    private ExternalCall pendingCall;
+    private CompletableFuture<Object> pendingResult;
+    private CompletableFuture<Object> prefetched;
+    private int fastPathSteps;
+
+    RuleRun(SpelEvaluator spelEvaluator, ExternalCallService externalCallService, Map<String, Object> payload,
+            Map<String, Object> ctx, Map<String, Object> context, CompiledRule rule, SubexpressionMemo memo) {
+        this.spelEvaluator = spelEvaluator;
+        this.externalCallService = externalCallService;
+        this.payload = payload;
+        this.ctx = ctx;
+        this.context = context;
+        this.rule = rule;
+        this.memo = memo;
+        ruleTrace.put("ruleId", rule.getId());
+        ruleTrace.put("description", rule.getDescription());
+        ruleTrace.put("timestamp", LocalDateTime.now().format(DateTimeFormatter.ISO_LOCAL_DATE_TIME));
+    }
+
+    void error(Exception e) {
+        logger.error("Error executing rule: {}", rule.getId(), e);
+        ruleTrace.put("status", "ERROR");
+        ruleTrace.put("error", e.getMessage());
+        errors.add("Rule " + rule.getId() + " failed: " + e.getMessage());
+    }
+
+    Map<String, Object> getTrace() {
+        return ruleTrace;
+    }
+
+    List<String> getErrors() {
+        return errors;
+    }
+
+    /** Metadata of the rule's external call, or {@code null} if it made none. */
+    Map<String, Object> getExternalCall() {
+        return externalCallRecord;
+    }
+
+    public boolean when(ParsedExpression condition) {
+        try {
+            return spelEvaluator.evaluateParsedBoolean(condition, context);
+        } finally {
+            evaluated(condition);
+        }
+    }
+
+    /** Marks the rule as skipped; never stops execution. */
+    public boolean skip() {
+        ruleTrace.put("status", "SKIPPED");
+        ruleTrace.put("reason", "when condition not met");
+        return false;
+    }
+
+    public void validate(CompiledValidation validation) {
+        try {
+            PathAccessor accessor = validation.getAccessor();
+            boolean[] selected = new boolean[1];
+            boolean valid = accessor.every(payload, value -> {
+                selected[0] |= value != null;
+                return validation.accepts(value);
+            });
+            if (!valid) {
+                validationErrors.add(validation.getMessage());
+                return;
+            }
+            if (!selected[0]) {
+                // Nothing selected is a missing value, and a null value skips the remaining checks
+                if (accessor.isWildcard() && validation.isRequired()) {
+                    validationErrors.add(validation.getMessage());
+                }
+                return;
+            }
+
+            // SpEL check
+            if (validation.getSpel() != null) {
+                try {
+                    valid = spelEvaluator.evaluateParsedBoolean(validation.getSpel(), context);
+                } finally {
+                    evaluated(validation.getSpel());
+                }
+                if (!valid) {
+                    validationErrors.add(validation.getMessage());
+                }
+            }
+        } catch (Exception e) {
+            logger.error("Error in validation: {}", validation.getPath(), e);
+            validationErrors.add("Validation error for " + validation.getPath() + ": " + e.getMessage());
+        }
+    }
+
+    public boolean hasValidationErrors() {
+        return !validationErrors.isEmpty();
+    }
+
+    /** Marks the rule as failed validation; returns whether execution stops. */
+    public boolean fail(boolean stopOnValidationError) {
+        errors.addAll(validationErrors);
+        ruleTrace.put("status", "FAILED");
+        ruleTrace.put("errors", validationErrors);
+        return stopOnValidationError;
+    }
+
+    /**
+     * Marks the rule as failed with validation errors found before the payload was read
+     * into maps; execution stops.
+     */
+    boolean reject(List<String> messages) {
+        validationErrors.addAll(messages);
+        return fail(true);
+    }
+
+    /** Uses a response requested before the rule ran instead of making the rule's call. */
+    void usePrefetched(CompletableFuture<Object> response) {
+        prefetched = response;
+    }
+
+    public void externalCall(ExternalCall call) {
+        CompletableFuture<Object> response = prefetched;
+        if (Boolean.TRUE.equals(call.getAsync())) {
+            // Saved when a later rule needs it, or before this rule's own transforms
+            pendingCall = call;
+            pendingResult = response != null ? response : externalCallService.invokeAsync(call, context);
+            ruleTrace.put("status", "EXTERNAL_CALL_PENDING");
+            return;
+        }
+        if (response != null) {
+            pendingCall = call;
+            pendingResult = response;
+            awaitExternalCall();
+            return;
+        }
+        Object result = null;
+        String errorMessage = null;
+        try {
+            result = externalCallService.invoke(call, context);
+            logger.info("External call result for rule {}: {}", rule.getId(), result);
+        } catch (Exception e) {
+            logger.warn("External call failed for rule {}: {}", rule.getId(), e.getMessage());
+            errorMessage = e.getMessage();
+        }
+        saveExternalCall(call, result, errorMessage);
+    }
+
+    /** The rule's asynchronous external call, or {@code null} if none is waiting to be saved. */
+    CompletableFuture<Object> getPendingCall() {
+        return pendingResult;
+    }
+
+    /** Waits for the rule's asynchronous external call, if any, and saves its result. */
+    void awaitExternalCall() {
+        if (pendingResult == null) {
+            return;
+        }
+        Object result = null;
+        String errorMessage = null;
+        try {
+            result = pendingResult.join();
+            logger.info("External call result for rule {}: {}", rule.getId(), result);
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            logger.warn("External call failed for rule {}: {}", rule.getId(), cause.getMessage());
+            errorMessage = cause.getMessage();
+        }
+        ExternalCall call = pendingCall;
+        pendingCall = null;
+        pendingResult = null;
+        saveExternalCall(call, result, errorMessage);
+    }
+
+    private void saveExternalCall(ExternalCall call, Object result, String errorMessage) {
+        // Save result to context for internal use in transformations
+        if (call.getSaveAs() != null) {
+            ctx.put(call.getSaveAs(), result);
+            if (memo != null) {
+                memo.ctxWritten(call.getSaveAs());
+            }
+            logger.info("Saved external call result to context with key '{}': {}", call.getSaveAs(), result);
+        }
+
+        // Record external call metadata (without the actual response data)
+        Map<String, Object> externalCall = new HashMap<>();
+        externalCall.put("ruleId", rule.getId());
+        externalCall.put("url", call.getUrl());
+        externalCall.put("method", call.getMethod());
+        externalCall.put("timestamp", LocalDateTime.now().format(DateTimeFormatter.ISO_LOCAL_DATE_TIME));
+        externalCall.put("status", result != null ? "SUCCESS" : "FAILED");
+        if (errorMessage != null) {
+            externalCall.put("error", errorMessage);
+        }
+        if (prefetched != null) {
+            externalCall.put("prefetched", true);
+        }
+        // Note: We don't include the actual result data to avoid exposing external API responses
+        externalCallRecord = externalCall;
+
+        // An asynchronous call saved after the rule finished leaves the rule's own status alone
+        String status = result != null ? "EXTERNAL_CALL" : "EXTERNAL_CALL_FAILED";
+        if (Boolean.TRUE.equals(call.getAsync())) {
+            ruleTrace.replace("status", "EXTERNAL_CALL_PENDING", status);
+        } else {
+            ruleTrace.put("status", status);
+        }
+        ruleTrace.put("externalCall", externalCall);
+    }
+
+    public void transform(ParsedExpression step) {
+        awaitExternalCall();
+        try {
+            if (spelEvaluator.tryFastPath(step, context)) {
+                fastPathSteps++;
+            } else {
+                spelEvaluator.evaluateParsed(step, context);
+            }
+        } finally {
+            evaluated(step);
+        }
+    }
+
+    public void transformed() {
+        ruleTrace.put("status", "TRANSFORMED");
+        ruleTrace.put("fastPathSteps", fastPathSteps);
+    }
+
+    /** Finishes a rule that ran to the end; returns whether execution stops. */
+    public boolean complete(boolean stop) {
+        if (stop) {
+            ruleTrace.put("status", "STOPPED");
+            return true;
+        }
+        ruleTrace.putIfAbsent("status", "SUCCESS");
+        return false;
+    }
+
+    /**
+     * Records the payload keys the rule changed, and those restored because it failed;
+     * restored keys no longer hold the rule's values, so the memo forgets what it read.
+     */
+    void recordChanges(List<String> changed, List<String> rolledBack) {
+        ruleTrace.put("changedKeys", changed);
+        if (!rolledBack.isEmpty()) {
+            ruleTrace.put("rolledBackKeys", rolledBack);
+            if (memo != null) {
+                rolledBack.forEach(memo::payloadWritten);
+            }
+        }
+    }
+
+    /** Whether the rule ended with an error rather than a result. */
+    boolean isError() {
+        return "ERROR".equals(ruleTrace.get("status"));
+    }
+
+    /** Lets the memo forget common sub-expressions whose inputs the expression may have written. */
+    private void evaluated(ParsedExpression expression) {
+        if (memo != null) {
+            memo.evaluated(expression);
+        }
+    }
+}
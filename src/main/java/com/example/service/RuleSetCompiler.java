@@ -0,0 +1,422 @@
+package com.example.service;
+
+import com.example.model.rule.ExternalCall;
+import com.example.model.rule.Rule;
+import com.example.model.rule.RuleConfig;
+import com.example.model.rule.TransformStep;
+import com.example.model.rule.ValidationRule;
+import com.example.service.plan.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.expression.spel.SpelNode;
+import org.springframework.expression.spel.ast.Assign;
+import org.springframework.expression.spel.ast.ConstructorReference;
+import org.springframework.expression.spel.ast.TypeReference;
+import org.springframework.expression.spel.ast.VariableReference;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Compiles a {@link RuleConfig} into a {@link CompiledRuleSet}. All expressions are parsed
+ * and all regexes compiled up front, so a broken configuration fails when it is loaded.
+ */
+@Service
+public class RuleSetCompiler {
+
+    private static final Logger logger = LoggerFactory.getLogger(RuleSetCompiler.class);
+    private final SpelEvaluator spelEvaluator;
+
+    public RuleSetCompiler(SpelEvaluator spelEvaluator) {
+        this.spelEvaluator = spelEvaluator;
+    }
+
+    public CompiledRuleSet compile(RuleConfig config) {
+        List<CompiledRule> rules = new ArrayList<>();
+        EvaluationMode mode = EvaluationMode.of(config.getEvaluationMode());
+        RegexEngine regexEngine = RegexEngine.of(config.getRegexEngine());
+        List<String> regexErrors = new ArrayList<>();
+        if (config.getRules() != null) {
+            for (Rule rule : config.getRules()) {
+                rules.add(compileRule(rule, mode, regexEngine, regexErrors));
+            }
+        }
+        if (!regexErrors.isEmpty()) {
+            // Report every broken regex at once rather than one per reload
+            throw new RuntimeException(regexErrors.size() == 1 ? regexErrors.get(0)
+                : regexErrors.size() + " invalid regexes for type " + config.getType() + ": "
+                    + String.join("; ", regexErrors));
+        }
+
+        List<ParsedExpression> expressions = new ArrayList<>();
+        for (CompiledRule rule : rules) {
+            expressions.addAll(expressionsOf(rule));
+        }
+        Map<String, Object> defaults = config.getDefaults() != null ? config.getDefaults() : Map.of();
+        ConstantFolder folder = ConstantFolder.create(spelEvaluator, defaults, System.getenv(), expressions);
+        if (folder != null) {
+            rules.replaceAll(rule -> fold(rule, folder));
+        }
+        logger.debug("Compiled {} rules for type: {}", rules.size(), config.getType());
+        List<RuleAccess> accesses = analyzeAccess(config, rules);
+        DependencyGraph graph = Boolean.TRUE.equals(config.getParallel()) ? dependencyGraph(config, rules, accesses) : null;
+        if (graph != null && (Boolean.TRUE.equals(config.getTrackChanges())
+                || Boolean.TRUE.equals(config.getRollbackOnError()))) {
+            logger.warn("Rules for type {} run in parallel, so their payload changes are not tracked or rolled back",
+                config.getType());
+        }
+        if (graph != null && Boolean.TRUE.equals(config.getPrefetchExternalCalls())) {
+            logger.warn("Rules for type {} run in parallel, so their external calls are not prefetched", config.getType());
+        }
+        // Before sub-expressions are shared, while the templates still read the maps directly
+        List<RuleAccess> callAccesses = graph == null && Boolean.TRUE.equals(config.getPrefetchExternalCalls())
+            ? analyzeCallAccess(rules) : null;
+        RuleIndex index = ConditionIndexer.build(rules, accesses);
+        if (index != null) {
+            logger.debug("Indexed the conditions of {} of {} rules for type {} on {} fields", index.getIndexedRules(),
+                rules.size(), config.getType(), index.getIndexedFields());
+        }
+        CommonSubexpressions subexpressions = CommonSubexpressions.create(spelEvaluator, rules, templateExpressions(rules));
+        if (subexpressions != null) {
+            rules.replaceAll(subexpressions::rewrite);
+            logger.debug("Rules for type {} share {} sub-expressions", config.getType(), subexpressions.getSlotCount());
+        }
+        StreamingValidator streamingValidator = Boolean.TRUE.equals(config.getStreamingValidation())
+            ? streamingValidator(config, rules) : null;
+        MapShape payloadShape = Boolean.TRUE.equals(config.getCompactPayload())
+            ? MapShape.forPayload(rules, accesses) : null;
+        CallJoinPoints joinPoints = CallJoinPoints.of(rules, accesses);
+        PrefetchPlan prefetch = callAccesses != null ? PrefetchPlan.of(rules, accesses, callAccesses, joinPoints) : null;
+        if (prefetch != null) {
+            logger.debug("Rules for type {} start {} external calls early", config.getType(), prefetch.size());
+        }
+        return new CompiledRuleSet.Builder(config, rules)
+            .dependencyGraph(graph)
+            .ruleIndex(index)
+            .subexpressions(subexpressions)
+            .streamingValidator(streamingValidator)
+            .payloadShape(payloadShape)
+            .ctxShape(MapShape.forContext(accesses))
+            .callJoinPoints(joinPoints)
+            .prefetchPlan(prefetch)
+            .build();
+    }
+
+    /**
+     * The checks of the first rule that can reject a request from its JSON tokens: the rule
+     * must always run and stop execution when a validation fails.
+     */
+    private StreamingValidator streamingValidator(RuleConfig config, List<CompiledRule> rules) {
+        CompiledRule first = rules.isEmpty() ? null : rules.get(0);
+        if (first == null || first.getWhen() != null || first.isNeverApplies() || !first.isStopOnValidationError()) {
+            logger.warn("Streaming validation for type {} needs a first rule without a condition that stops on "
+                + "validation errors", config.getType());
+            return null;
+        }
+        StreamingValidator validator = StreamingValidator.of(first);
+        if (validator != null) {
+            logger.debug("Checking {} of {} validations of rule {} on the JSON tokens of type {}", validator.size(),
+                first.getValidations().size(), first.getId(), config.getType());
+        }
+        return validator;
+    }
+
+    /** Works out which {@code #payload} and {@code #ctx} keys each rule reads and writes. */
+    private List<RuleAccess> analyzeAccess(RuleConfig config, List<CompiledRule> rules) {
+        List<RuleAccess> accesses = new ArrayList<>();
+        for (CompiledRule rule : rules) {
+            RuleAccess access = AccessAnalyzer.analyze(rule, expressionsOf(rule));
+            logger.debug("Rule {} in type {}: {}", rule.getId(), config.getType(), access);
+            accesses.add(access);
+        }
+        return accesses;
+    }
+
+    /**
+     * Works out which keys the templates of each rule's external call read and write;
+     * {@code null} for rules without one.
+     */
+    private List<RuleAccess> analyzeCallAccess(List<CompiledRule> rules) {
+        List<RuleAccess> accesses = new ArrayList<>();
+        for (CompiledRule rule : rules) {
+            if (rule.getExternalCall() == null) {
+                accesses.add(null);
+                continue;
+            }
+            List<ParsedExpression> expressions = new ArrayList<>();
+            for (String template : templatesOf(rule.getExternalCall())) {
+                expressions.addAll(spelEvaluator.compileTemplate(template).getExpressions());
+            }
+            accesses.add(AccessAnalyzer.analyze(expressions));
+        }
+        return accesses;
+    }
+
+    /** Works out which rules can run at the same time. */
+    private DependencyGraph dependencyGraph(RuleConfig config, List<CompiledRule> rules, List<RuleAccess> accesses) {
+        DependencyGraph graph = DependencyGraph.build(rules, accesses);
+        logger.debug("Rules for type {} run in {} steps instead of {}", config.getType(),
+            graph.criticalPathLength(), rules.size());
+        return graph;
+    }
+
+    private CompiledRule compileRule(Rule rule, EvaluationMode mode, RegexEngine regexEngine,
+                                     List<String> regexErrors) {
+        ParsedExpression when = parse(rule, rule.getWhen(), mode);
+
+        List<CompiledValidation> validations = new ArrayList<>();
+        if (rule.getValidate() != null) {
+            for (ValidationRule validation : rule.getValidate()) {
+                validations.add(compileValidation(rule, validation, mode, regexEngine, regexErrors));
+            }
+        }
+
+        List<ParsedExpression> transforms = new ArrayList<>();
+        if (rule.getTransform() != null) {
+            for (TransformStep step : rule.getTransform()) {
+                if ("SPEL".equalsIgnoreCase(step.getKind())) {
+                    ParsedExpression spel = parse(rule, step.getSpel(), mode);
+                    if (spel != null) {
+                        transforms.add(spel);
+                    }
+                } else {
+                    logger.warn("Ignoring transform step of unsupported kind '{}' in rule {}", step.getKind(), rule.getId());
+                }
+            }
+        }
+
+        if (rule.getExternalCall() != null) {
+            compileTemplates(rule, rule.getExternalCall(), mode);
+            if (rule.getExternalCall().getCache() != null) {
+                try {
+                    ResponseCache.of(rule.getExternalCall().getCache());
+                } catch (RuntimeException e) {
+                    throw new RuntimeException("Invalid cache in rule " + rule.getId() + ": " + e.getMessage(), e);
+                }
+            }
+        }
+
+        boolean transformDeclared = rule.getTransform() != null && !rule.getTransform().isEmpty();
+        return new CompiledRule(
+            rule.getId(),
+            rule.getDescription(),
+            when,
+            false,
+            Boolean.TRUE.equals(rule.getStopOnValidationError()),
+            validations,
+            rule.getExternalCall(),
+            transformDeclared,
+            transforms,
+            RuleAction.of(rule.getOnSuccess() != null ? rule.getOnSuccess().getAction() : null),
+            RuleAction.of(rule.getOnFailure() != null ? rule.getOnFailure().getAction() : null)
+        );
+    }
+
+    private CompiledValidation compileValidation(Rule rule, ValidationRule validation, EvaluationMode mode,
+                                                 RegexEngine regexEngine, List<String> regexErrors) {
+        Pattern pattern = null;
+        com.google.re2j.Pattern linearPattern = null;
+        if (validation.getRegex() != null) {
+            try {
+                pattern = Pattern.compile(validation.getRegex());
+            } catch (PatternSyntaxException e) {
+                regexErrors.add("Invalid regex for " + validation.getPath() + " in rule "
+                    + rule.getId() + ": " + e.getMessage());
+            }
+            RegexEngine engine = validation.getRegexEngine() != null
+                ? RegexEngine.of(validation.getRegexEngine()) : regexEngine;
+            if (pattern != null && engine == RegexEngine.LINEAR) {
+                linearPattern = compileLinear(rule, validation);
+            }
+        }
+        PathAccessor accessor;
+        try {
+            accessor = PathAccessor.compile(validation.getPath());
+        } catch (IllegalArgumentException e) {
+            throw new RuntimeException(e.getMessage() + " in rule " + rule.getId(), e);
+        }
+        return new CompiledValidation(
+            validation.getPath(),
+            accessor,
+            Boolean.TRUE.equals(validation.getRequired()),
+            validation.getType() != null ? ValueType.of(validation.getType()) : null,
+            pattern,
+            linearPattern,
+            parse(rule, validation.getSpel(), mode),
+            validation.getMessage()
+        );
+    }
+
+    /**
+     * Compiles a regex for linear-time matching, or returns {@code null} when it uses
+     * syntax RE2 cannot match in linear time, such as backreferences, so the backtracking
+     * engine is used for it.
+     */
+    private com.google.re2j.Pattern compileLinear(Rule rule, ValidationRule validation) {
+        try {
+            return com.google.re2j.Pattern.compile(validation.getRegex());
+        } catch (com.google.re2j.PatternSyntaxException e) {
+            logger.warn("Regex for {} in rule {} is not supported by the linear engine, using backtracking: {}",
+                validation.getPath(), rule.getId(), e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Compiles the URL, header, body and cache key templates of an external call so they
+     * are cached and checked before the first request.
+     */
+    private void compileTemplates(Rule rule, ExternalCall call, EvaluationMode mode) {
+        for (String template : templatesOf(call)) {
+            CompiledTemplate compiled;
+            try {
+                compiled = spelEvaluator.compileTemplate(template);
+            } catch (Exception e) {
+                throw new RuntimeException("Invalid template in rule " + rule.getId() + ": " + e.getMessage(), e);
+            }
+            for (ParsedExpression expression : compiled.getExpressions()) {
+                checkMode(rule, expression, mode);
+            }
+        }
+    }
+
+    private List<String> templatesOf(ExternalCall call) {
+        List<String> templates = new ArrayList<>();
+        templates.add(call.getUrl());
+        if (call.getHeaders() != null) {
+            templates.addAll(call.getHeaders().values());
+        }
+        templates.add(call.getBodyTemplate());
+        if (call.getCache() != null) {
+            templates.add(call.getCache().getKeyExpression());
+        }
+        templates.removeIf(Objects::isNull);
+        return templates;
+    }
+
+    private List<ParsedExpression> expressionsOf(CompiledRule rule) {
+        List<ParsedExpression> expressions = new ArrayList<>();
+        if (rule.getWhen() != null) {
+            expressions.add(rule.getWhen());
+        }
+        for (CompiledValidation validation : rule.getValidations()) {
+            if (validation.getSpel() != null) {
+                expressions.add(validation.getSpel());
+            }
+        }
+        expressions.addAll(rule.getTransforms());
+        if (rule.getExternalCall() != null) {
+            for (String template : templatesOf(rule.getExternalCall())) {
+                expressions.addAll(spelEvaluator.compileTemplate(template).getExpressions());
+            }
+        }
+        return expressions;
+    }
+
+    private List<ParsedExpression> templateExpressions(List<CompiledRule> rules) {
+        List<ParsedExpression> expressions = new ArrayList<>();
+        for (CompiledRule rule : rules) {
+            if (rule.getExternalCall() != null) {
+                for (String template : templatesOf(rule.getExternalCall())) {
+                    expressions.addAll(spelEvaluator.compileTemplate(template).getExpressions());
+                }
+            }
+        }
+        return expressions;
+    }
+
+    /**
+     * Folds the constant parts of a rule's expressions. A condition that folds to a
+     * constant is dropped: the rule then either always applies or never does.
+     */
+    private CompiledRule fold(CompiledRule rule, ConstantFolder folder) {
+        ParsedExpression when = folder.fold(rule.getWhen());
+        boolean neverApplies = false;
+        if (when != null && ConstantFolder.isLiteral(when)) {
+            neverApplies = !SpelEvaluator.toBoolean(ConstantFolder.literalValue(when));
+            when = null;
+        }
+
+        List<CompiledValidation> validations = new ArrayList<>();
+        for (CompiledValidation validation : rule.getValidations()) {
+            if (validation.getSpel() == null) {
+                validations.add(validation);
+            } else {
+                validations.add(validation.withSpel(folder.fold(validation.getSpel())));
+            }
+        }
+
+        List<ParsedExpression> transforms = new ArrayList<>();
+        for (ParsedExpression transform : rule.getTransforms()) {
+            transforms.add(folder.fold(transform));
+        }
+
+        return new CompiledRule(rule.getId(), rule.getDescription(), when, neverApplies,
+            rule.isStopOnValidationError(), validations, rule.getExternalCall(),
+            rule.isTransformDeclared(), transforms, rule.getOnSuccess(), rule.getOnFailure());
+    }
+
+    /**
+     * Parses an expression, returning {@code null} for a missing or blank one.
+     */
+    private ParsedExpression parse(Rule rule, String expression, EvaluationMode mode) {
+        if (expression == null || expression.trim().isEmpty()) {
+            return null;
+        }
+        ParsedExpression parsed;
+        try {
+            parsed = spelEvaluator.parse(expression);
+        } catch (Exception e) {
+            throw new RuntimeException("Invalid expression in rule " + rule.getId() + ": " + e.getMessage(), e);
+        }
+        checkMode(rule, parsed, mode);
+        return parsed;
+    }
+
+    private void checkMode(Rule rule, ParsedExpression expression, EvaluationMode mode) {
+        if (assignsVariable(expression.getAst())) {
+            // One evaluation context serves the whole request, so the variable would leak into later rules
+            throw new RuntimeException("Expression in rule " + rule.getId()
+                + " assigns a variable, which is not supported; write to #ctx instead: " + expression);
+        }
+        if (mode == EvaluationMode.RESTRICTED && usesTypes(expression.getAst())) {
+            throw new RuntimeException("Expression in rule " + rule.getId()
+                + " uses constructors or type references, which restricted evaluation does not allow: " + expression);
+        }
+    }
+
+    private boolean assignsVariable(SpelNode node) {
+        if (node == null) {
+            return false;
+        }
+        if (node instanceof Assign && node.getChild(0) instanceof VariableReference) {
+            return true;
+        }
+        for (int i = 0; i < node.getChildCount(); i++) {
+            if (assignsVariable(node.getChild(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean usesTypes(SpelNode node) {
+        if (node == null) {
+            return false;
+        }
+        if (node instanceof ConstructorReference || node instanceof TypeReference) {
+            return true;
+        }
+        for (int i = 0; i < node.getChildCount(); i++) {
+            if (usesTypes(node.getChild(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
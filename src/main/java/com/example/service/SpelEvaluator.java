@@ -1,20 +1,36 @@
 package com.example.service;
 
+import com.example.config.SpelConfig;
+import com.example.service.plan.EvaluationMode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.expression.Expression;
+import org.springframework.core.convert.TypeDescriptor;
+import org.springframework.expression.MethodExecutor;
+import org.springframework.expression.MethodResolver;
 import org.springframework.expression.TypedValue;
+import org.springframework.expression.spel.SpelCompilerMode;
+import org.springframework.expression.spel.SpelParserConfiguration;
 import org.springframework.expression.spel.standard.SpelExpressionParser;
+import org.springframework.expression.spel.support.DataBindingPropertyAccessor;
+import org.springframework.expression.spel.support.ReflectiveMethodResolver;
+import org.springframework.expression.spel.support.ReflectivePropertyAccessor;
+import org.springframework.expression.spel.support.SimpleEvaluationContext;
 import org.springframework.expression.spel.support.StandardEvaluationContext;
 import org.springframework.expression.EvaluationContext;
 import org.springframework.expression.AccessException;
 import org.springframework.expression.PropertyAccessor;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import java.time.temporal.TemporalAccessor;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 @Service
@@ -22,11 +38,35 @@ public class SpelEvaluator {
 
     private static final Logger logger = LoggerFactory.getLogger(SpelEvaluator.class);
     private static final Pattern TEMPLATE_PATTERN = Pattern.compile("\\{\\{spel:\\s*(.*?)\\s*\\}\\}");
+    // Stateless apart from their reflection caches, so one instance serves every context
+    private static final List<PropertyAccessor> PROPERTY_ACCESSORS =
+            List.of(new MapLikeAccessor(), new ReflectivePropertyAccessor());
+    private static final List<MethodResolver> METHOD_RESOLVERS = List.of(new ReflectiveMethodResolver());
+    // Rendering buffer reused per thread; dropped after an unusually large template
+    private static final ThreadLocal<StringBuilder> RENDER_BUFFER = ThreadLocal.withInitial(() -> new StringBuilder(256));
+    private static final int MAX_RETAINED_BUFFER = 16 * 1024;
+    private static final PropertyAccessor[] RESTRICTED_PROPERTY_ACCESSORS =
+            { new MapLikeAccessor(), DataBindingPropertyAccessor.forReadOnlyAccess() };
+    private static final MethodResolver RESTRICTED_METHOD_RESOLVER = new RestrictedMethodResolver();
     private final ObjectMapper objectMapper;
-    private final SpelExpressionParser parser = new SpelExpressionParser();
+    private final SpelExpressionParser parser;
+    private final SpelExpressionParser interpreterParser = new SpelExpressionParser();
+    private final SpelCompilerMode compilerMode;
+    private final ParseCache<ParsedExpression> expressionCache;
+    private final ParseCache<CompiledTemplate> templateCache;
 
     public SpelEvaluator(ObjectMapper objectMapper) {
+        this(objectMapper, new SpelConfig());
+    }
+
+    @Autowired
+    public SpelEvaluator(ObjectMapper objectMapper, SpelConfig spelConfig) {
         this.objectMapper = objectMapper;
+        this.compilerMode = spelConfig.getCompilerMode();
+        this.parser = new SpelExpressionParser(
+                new SpelParserConfiguration(compilerMode, SpelEvaluator.class.getClassLoader()));
+        this.expressionCache = new ParseCache<>(spelConfig.getExpressionCacheSize());
+        this.templateCache = new ParseCache<>(spelConfig.getExpressionCacheSize());
     }
 
     public Object evaluate(String expression, Map<String, Object> vars) {
@@ -34,17 +74,78 @@ public class SpelEvaluator {
             if (expression == null || expression.trim().isEmpty()) {
                 return null;
             }
-            StandardEvaluationContext context = createEvaluationContext(vars);
-            Expression exp = parser.parseExpression(expression);
-            return exp.getValue(context);
+            return parse(expression).getValue(evaluationContextFor(vars));
         } catch (Exception e) {
             logger.error("Error evaluating expression: {}", expression, e);
             throw new RuntimeException("Expression evaluation failed: " + e.getMessage(), e);
         }
     }
 
+    /**
+     * Returns the parsed form of an expression, reusing a cached instance when the
+     * same expression text has been parsed before.
+     */
+    public ParsedExpression parse(String expression) {
+        return expressionCache.get(expression, text -> new ParsedExpression(
+                text, parser.parseExpression(text), compilerMode, interpreterParser::parseExpression));
+    }
+
+    public Map<String, Object> getExpressionCacheStats() {
+        return expressionCache.stats();
+    }
+
+    /**
+     * Reports the compiler mode and the compile status of every cached expression.
+     */
+    public Map<String, Object> getCompileStats() {
+        Map<ParsedExpression.CompileStatus, Integer> counts = new EnumMap<>(ParsedExpression.CompileStatus.class);
+        List<Map<String, Object>> expressions = new ArrayList<>();
+        for (ParsedExpression parsed : expressionCache.values()) {
+            counts.merge(parsed.getCompileStatus(), 1, Integer::sum);
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("expression", parsed.getText());
+            entry.put("status", parsed.getCompileStatus());
+            entry.put("fastPath", parsed.hasFastPath());
+            expressions.add(entry);
+        }
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("compilerMode", compilerMode);
+        stats.put("statusCounts", counts);
+        stats.put("expressions", expressions);
+        return stats;
+    }
+
     public boolean evaluateBoolean(String expression, Map<String, Object> vars) {
-        Object result = evaluate(expression, vars);
+        return toBoolean(evaluate(expression, vars));
+    }
+
+    public Object evaluateParsed(ParsedExpression expression, Map<String, Object> vars) {
+        return getValue(expression, evaluationContextFor(vars));
+    }
+
+    private Object getValue(ParsedExpression expression, EvaluationContext context) {
+        try {
+            return expression.getValue(context);
+        } catch (Exception e) {
+            logger.error("Error evaluating expression: {}", expression.getText(), e);
+            throw new RuntimeException("Expression evaluation failed: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Runs the fast path of an expression, if it has one and it applies to the current
+     * values. Returns {@code false} when the expression still has to be evaluated.
+     */
+    public boolean tryFastPath(ParsedExpression expression, Map<String, Object> vars) {
+        FastPath fastPath = expression.getFastPath();
+        return fastPath != null && fastPath.apply(vars) != FastPath.FALLBACK;
+    }
+
+    public boolean evaluateParsedBoolean(ParsedExpression expression, Map<String, Object> vars) {
+        return toBoolean(evaluateParsed(expression, vars));
+    }
+
+    static boolean toBoolean(Object result) {
         if (result instanceof Boolean) {
             return (Boolean) result;
         }
@@ -55,28 +156,103 @@ public class SpelEvaluator {
         if (template == null) {
             return null;
         }
-        Matcher matcher = TEMPLATE_PATTERN.matcher(template);
-        StringBuffer result = new StringBuffer();
-        while (matcher.find()) {
-            String expr = matcher.group(1).trim();
-            Object evaluated = evaluate(expr, context);
-            String replacement = evaluated != null ? evaluated.toString() : "";
-            matcher.appendReplacement(result, Matcher.quoteReplacement(replacement));
+        return render(compileTemplate(template), context);
+    }
+
+    /**
+     * Returns the compiled form of a template, reusing a cached instance when the same
+     * template text has been compiled before. Placeholder expressions are parsed here.
+     */
+    public CompiledTemplate compileTemplate(String template) {
+        return templateCache.get(template, text -> {
+            try {
+                return CompiledTemplate.compile(text, TEMPLATE_PATTERN, this::parse);
+            } catch (Exception e) {
+                throw new RuntimeException("Invalid template expression: " + e.getMessage(), e);
+            }
+        });
+    }
+
+    public String render(CompiledTemplate template, Map<String, Object> vars) {
+        if (template.isConstant()) {
+            return template.getText();
+        }
+        EvaluationContext context = evaluationContextFor(vars);
+        StringBuilder out = RENDER_BUFFER.get();
+        out.setLength(0);
+        int count = template.getExpressionCount();
+        for (int i = 0; i < count; i++) {
+            out.append(template.getLiteral(i));
+            ParsedExpression expression = template.getExpression(i);
+            if (expression != null) {
+                Object value = getValue(expression, context);
+                if (value != null) {
+                    out.append(value);
+                }
+            }
+        }
+        out.append(template.getLiteral(count));
+        String rendered = out.toString();
+        if (out.capacity() > MAX_RETAINED_BUFFER) {
+            RENDER_BUFFER.remove();
         }
-        matcher.appendTail(result);
-        return result.toString();
+        return rendered;
     }
 
+    public Map<String, Object> getTemplateCacheStats() {
+        return templateCache.stats();
+    }
+
+    /**
+     * Creates the variables for one rule execution. The returned map is read-only and
+     * carries a ready-built evaluation context that every expression evaluated against it
+     * reuses, so callers should create it once per request and pass it along.
+     */
     public Map<String, Object> createContext(Object payload, Map<String, Object> ctx,
                                              Map<String, Object> defaults,
                                              Map<String, String> env) {
+        return createContext(payload, ctx, defaults, env, EvaluationMode.STANDARD);
+    }
+
+    public Map<String, Object> createContext(Object payload, Map<String, Object> ctx,
+                                             Map<String, Object> defaults,
+                                             Map<String, String> env,
+                                             EvaluationMode mode) {
+        return createContext(payload, ctx, defaults, env, mode, null);
+    }
+
+    /**
+     * @param memo the request's memo of common sub-expressions, or {@code null} if the
+     *             configuration has none
+     */
+    Map<String, Object> createContext(Object payload, Map<String, Object> ctx,
+                                      Map<String, Object> defaults,
+                                      Map<String, String> env,
+                                      EvaluationMode mode,
+                                      SubexpressionMemo memo) {
         Map<String, Object> context = new HashMap<>();
         context.put("payload", payload);
         context.put("ctx", ctx);
         context.put("defaults", defaults);
         context.put("env", env);
         context.put("now", java.time.LocalDateTime.now());
-        return context;
+        if (memo != null) {
+            context.put(CommonSubexpressions.VARIABLE, memo);
+        }
+        EvaluationContext evaluationContext = mode == EvaluationMode.RESTRICTED
+                ? createRestrictedEvaluationContext(context)
+                : createEvaluationContext(context);
+        if (memo != null) {
+            memo.bind(evaluationContext);
+        }
+        return new EvaluationScope(context, evaluationContext);
+    }
+
+    EvaluationContext evaluationContextFor(Map<String, Object> vars) {
+        if (vars instanceof EvaluationScope scope) {
+            return scope.getEvaluationContext();
+        }
+        return createEvaluationContext(vars);
     }
 
     private StandardEvaluationContext createEvaluationContext(Map<String, Object> vars) {
@@ -84,10 +260,56 @@ public class SpelEvaluator {
         for (Map.Entry<String, Object> e : vars.entrySet()) {
             context.setVariable(e.getKey(), e.getValue());
         }
-        context.addPropertyAccessor(new MapLikeAccessor());
+        context.setPropertyAccessors(PROPERTY_ACCESSORS);
+        context.setMethodResolvers(METHOD_RESOLVERS);
         return context;
     }
 
+    /**
+     * Restricted contexts have no type locator, so constructors and {@code T()} references
+     * fail, and methods resolve only on the simple value types below.
+     */
+    private SimpleEvaluationContext createRestrictedEvaluationContext(Map<String, Object> vars) {
+        SimpleEvaluationContext context = SimpleEvaluationContext
+                .forPropertyAccessors(RESTRICTED_PROPERTY_ACCESSORS)
+                .withMethodResolvers(RESTRICTED_METHOD_RESOLVER)
+                .build();
+        for (Map.Entry<String, Object> e : vars.entrySet()) {
+            context.setVariable(e.getKey(), e.getValue());
+        }
+        return context;
+    }
+
+    /**
+     * Resolves public methods on strings, numbers, booleans, characters, maps, collections
+     * and date/time values. {@code getClass()} and static calls are never resolved.
+     */
+    static class RestrictedMethodResolver implements MethodResolver {
+        private static final List<Class<?>> ALLOWED_TARGETS = List.of(
+                String.class, Number.class, Boolean.class, Character.class,
+                Map.class, Collection.class, TemporalAccessor.class);
+
+        private final ReflectiveMethodResolver delegate = new ReflectiveMethodResolver();
+
+        @Override
+        public MethodExecutor resolve(EvaluationContext context, Object target, String name,
+                                      List<TypeDescriptor> argumentTypes) throws AccessException {
+            if (target == null || target instanceof Class || "getClass".equals(name) || !isAllowed(target)) {
+                return null;
+            }
+            return delegate.resolve(context, target, name, argumentTypes);
+        }
+
+        private static boolean isAllowed(Object target) {
+            for (Class<?> type : ALLOWED_TARGETS) {
+                if (type.isInstance(target)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
     static class MapLikeAccessor implements PropertyAccessor {
         @Override
         public Class<?>[] getSpecificTargetClasses() { return new Class[] { Map.class }; }
@@ -0,0 +1,74 @@
+package com.example.service;
+
+import org.springframework.expression.EvaluationContext;
+
+import java.util.AbstractMap;
+import java.util.BitSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The {@code #__cse} variable of one request: {@code #__cse[n]} evaluates common
+ * sub-expression {@code n} of the configuration the first time it is read and returns
+ * the remembered value after that, until a rule step writes a key it reads. Failures are
+ * not remembered, so the sub-expression fails again wherever it is read. Access is
+ * synchronized because rules of the same request may run in parallel.
+ */
+final class SubexpressionMemo extends AbstractMap<Object, Object> {
+
+    private final CommonSubexpressions subexpressions;
+    private final Object[] values;
+    private final BitSet valid = new BitSet();
+    private EvaluationContext context;
+
+    SubexpressionMemo(CommonSubexpressions subexpressions) {
+        this.subexpressions = subexpressions;
+        this.values = new Object[subexpressions.getSlotCount()];
+    }
+
+    void bind(EvaluationContext context) {
+        this.context = context;
+    }
+
+    @Override
+    public synchronized Object get(Object key) {
+        int slot = ((Number) key).intValue();
+        if (!valid.get(slot)) {
+            values[slot] = subexpressions.getSlot(slot).getValue(context);
+            valid.set(slot);
+        }
+        return values[slot];
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return key instanceof Number number && number.intValue() >= 0 && number.intValue() < values.length;
+    }
+
+    /** Forgets the slots that {@code expression} may have changed the inputs of. */
+    synchronized void evaluated(ParsedExpression expression) {
+        BitSet invalidated = subexpressions.invalidatedBy(expression);
+        if (invalidated != null) {
+            valid.andNot(invalidated);
+        }
+    }
+
+    synchronized void ctxWritten(String key) {
+        BitSet invalidated = subexpressions.invalidatedByCtxWrite(key);
+        if (invalidated != null) {
+            valid.andNot(invalidated);
+        }
+    }
+
+    synchronized void payloadWritten(String key) {
+        BitSet invalidated = subexpressions.invalidatedByPayloadWrite(key);
+        if (invalidated != null) {
+            valid.andNot(invalidated);
+        }
+    }
+
+    @Override
+    public Set<Map.Entry<Object, Object>> entrySet() {
+        return Set.of();
+    }
+}
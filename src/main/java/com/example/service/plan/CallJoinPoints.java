@@ -0,0 +1,57 @@
+package com.example.service.plan;
+
+import com.example.model.rule.ExternalCall;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Where rules running one after another wait for the asynchronous external calls of
+ * earlier rules. A call is made when its rule runs, and its result is saved under its
+ * {@code saveAs} key just before the first later rule that reads or writes that key, or
+ * whose access cannot be worked out. Calls nothing waits for are finished after the last
+ * rule.
+ */
+public final class CallJoinPoints {
+
+    private final int[] joinBefore;
+
+    private CallJoinPoints(int[] joinBefore) {
+        this.joinBefore = joinBefore;
+    }
+
+    /** Returns {@code null} if no rule makes an asynchronous call. */
+    public static CallJoinPoints of(List<CompiledRule> rules, List<RuleAccess> accesses) {
+        int size = rules.size();
+        int[] joinBefore = new int[size];
+        Arrays.fill(joinBefore, -1);
+        boolean any = false;
+        for (int i = 0; i < size; i++) {
+            ExternalCall call = rules.get(i).getExternalCall();
+            if (call == null || !Boolean.TRUE.equals(call.getAsync())) {
+                continue;
+            }
+            any = true;
+            String key = call.getSaveAs();
+            int join = i + 1;
+            while (join < size && !touches(accesses.get(join), key)) {
+                join++;
+            }
+            joinBefore[i] = join;
+        }
+        return any ? new CallJoinPoints(joinBefore) : null;
+    }
+
+    private static boolean touches(RuleAccess access, String key) {
+        return access.isUnrestricted()
+            || (key != null && (access.getCtxReads().contains(key) || access.getCtxWrites().contains(key)));
+    }
+
+    /**
+     * The index of the rule the asynchronous call of rule {@code index} must be finished
+     * before, the rule count if nothing waits for it, or -1 if the rule makes no such call.
+     */
+    public int joinBefore(int index) {
+        return joinBefore[index];
+    }
+}
@@ -0,0 +1,97 @@
+package com.example.service.plan;
+
+import com.example.model.rule.ExternalCall;
+import com.example.service.ParsedExpression;
+
+import java.util.List;
+
+/**
+ * Load-time form of a {@link com.example.model.rule.Rule}: expressions are parsed,
+ * validations compiled and actions resolved, so execution does no string handling.
+ */
+public final class CompiledRule {
+
+    private final String id;
+    private final String description;
+    private final ParsedExpression when;
+    private final boolean neverApplies;
+    private final boolean stopOnValidationError;
+    private final List<CompiledValidation> validations;
+    private final ExternalCall externalCall;
+    private final boolean transformDeclared;
+    private final List<ParsedExpression> transforms;
+    private final RuleAction onSuccess;
+    private final RuleAction onFailure;
+
+    public CompiledRule(String id, String description, ParsedExpression when, boolean neverApplies,
+                        boolean stopOnValidationError,
+                        List<CompiledValidation> validations, ExternalCall externalCall,
+                        boolean transformDeclared, List<ParsedExpression> transforms,
+                        RuleAction onSuccess, RuleAction onFailure) {
+        this.id = id;
+        this.description = description;
+        this.when = when;
+        this.neverApplies = neverApplies;
+        this.stopOnValidationError = stopOnValidationError;
+        this.validations = List.copyOf(validations);
+        this.externalCall = externalCall;
+        this.transformDeclared = transformDeclared;
+        this.transforms = List.copyOf(transforms);
+        this.onSuccess = onSuccess;
+        this.onFailure = onFailure;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    /** The rule condition, or {@code null} when the rule always applies. */
+    public ParsedExpression getWhen() {
+        return when;
+    }
+
+    /**
+     * Whether the condition was found to be constantly false when the configuration was
+     * loaded. Such a rule is always skipped without evaluating anything.
+     */
+    public boolean isNeverApplies() {
+        return neverApplies;
+    }
+
+    public boolean isStopOnValidationError() {
+        return stopOnValidationError;
+    }
+
+    public List<CompiledValidation> getValidations() {
+        return validations;
+    }
+
+    /** The external call definition, or {@code null} when the rule makes none. */
+    public ExternalCall getExternalCall() {
+        return externalCall;
+    }
+
+    /**
+     * Whether the rule declares a transform block. This can be true while
+     * {@link #getTransforms()} is empty if none of its steps are SpEL steps.
+     */
+    public boolean isTransformDeclared() {
+        return transformDeclared;
+    }
+
+    public List<ParsedExpression> getTransforms() {
+        return transforms;
+    }
+
+    public RuleAction getOnSuccess() {
+        return onSuccess;
+    }
+
+    public RuleAction getOnFailure() {
+        return onFailure;
+    }
+}
@@ -0,0 +1,217 @@
+package com.example.service.plan;
+
+import com.example.model.rule.RuleConfig;
+import com.example.service.CommonSubexpressions;
+import com.example.service.InterpretedRuleProgram;
+import com.example.service.RuleProgram;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable execution plan compiled from a {@link RuleConfig} when it is loaded.
+ * The rule engine executes only this plan; a reload swaps in a new instance.
+ */
+public final class CompiledRuleSet {
+
+    private final RuleConfig config;
+    private final List<CompiledRule> rules;
+    private final List<RuleProgram> programs;
+    private final EvaluationMode evaluationMode;
+    private final DependencyGraph dependencyGraph;
+    private final RuleIndex ruleIndex;
+    private final CommonSubexpressions subexpressions;
+    private final StreamingValidator streamingValidator;
+    private final MapShape payloadShape;
+    private final MapShape ctxShape;
+    private final CallJoinPoints callJoinPoints;
+    private final PrefetchPlan prefetchPlan;
+
+    /** A plan that runs the rules one after another, each by walking its parts. */
+    public CompiledRuleSet(RuleConfig config, List<CompiledRule> rules) {
+        this(new Builder(config, rules));
+    }
+
+    private CompiledRuleSet(Builder builder) {
+        List<CompiledRule> rules = builder.rules;
+        List<RuleProgram> programs = builder.programs != null ? builder.programs
+            : rules.stream().<RuleProgram>map(InterpretedRuleProgram::new).toList();
+        if (programs.size() != rules.size()) {
+            throw new IllegalArgumentException("Expected " + rules.size() + " rule programs but got " + programs.size());
+        }
+        DependencyGraph dependencyGraph = builder.dependencyGraph;
+        if (dependencyGraph != null && dependencyGraph.size() != rules.size()) {
+            throw new IllegalArgumentException("Dependency graph covers " + dependencyGraph.size() + " of " + rules.size() + " rules");
+        }
+        this.config = builder.config;
+        this.rules = List.copyOf(rules);
+        this.programs = List.copyOf(programs);
+        this.evaluationMode = EvaluationMode.of(config.getEvaluationMode());
+        this.dependencyGraph = dependencyGraph;
+        this.ruleIndex = builder.ruleIndex;
+        this.subexpressions = builder.subexpressions;
+        this.streamingValidator = builder.streamingValidator;
+        this.payloadShape = builder.payloadShape;
+        this.ctxShape = builder.ctxShape;
+        this.callJoinPoints = builder.callJoinPoints;
+        this.prefetchPlan = builder.prefetchPlan;
+    }
+
+    public String getType() {
+        return config.getType();
+    }
+
+    /** The configuration this plan was compiled from. */
+    public RuleConfig getConfig() {
+        return config;
+    }
+
+    /** The configured defaults, or {@code null} when the configuration declares none. */
+    public Map<String, Object> getDefaults() {
+        return config.getDefaults();
+    }
+
+    public EvaluationMode getEvaluationMode() {
+        return evaluationMode;
+    }
+
+    public List<CompiledRule> getRules() {
+        return rules;
+    }
+
+    public List<RuleProgram> getPrograms() {
+        return programs;
+    }
+
+    /** The dependencies between rules for parallel execution, or {@code null} if it is off. */
+    public DependencyGraph getDependencyGraph() {
+        return dependencyGraph;
+    }
+
+    /** The index over rule conditions, or {@code null} when no condition could be indexed. */
+    public RuleIndex getRuleIndex() {
+        return ruleIndex;
+    }
+
+    /** The sub-expressions shared by the rules, or {@code null} if they share none. */
+    public CommonSubexpressions getSubexpressions() {
+        return subexpressions;
+    }
+
+    /**
+     * The checks to run before the payload is read into maps, or {@code null} if streaming
+     * validation is off or the first rule has no checks it can run.
+     */
+    public StreamingValidator getStreamingValidator() {
+        return streamingValidator;
+    }
+
+    /** The layout request payloads are read into, or {@code null} for hash maps. */
+    public MapShape getPayloadShape() {
+        return payloadShape;
+    }
+
+    /** The layout of the {@code #ctx} map of each request, or {@code null} for a hash map. */
+    public MapShape getCtxShape() {
+        return ctxShape;
+    }
+
+    /** Where rules wait for asynchronous external calls, or {@code null} if no rule makes one. */
+    public CallJoinPoints getCallJoinPoints() {
+        return callJoinPoints;
+    }
+
+    /** Where rules start the external calls of later rules, or {@code null} if none starts early. */
+    public PrefetchPlan getPrefetchPlan() {
+        return prefetchPlan;
+    }
+
+    /** Collects the parts of a plan; every part left unset is off. */
+    public static final class Builder {
+
+        private final RuleConfig config;
+        private final List<CompiledRule> rules;
+        private List<RuleProgram> programs;
+        private DependencyGraph dependencyGraph;
+        private RuleIndex ruleIndex;
+        private CommonSubexpressions subexpressions;
+        private StreamingValidator streamingValidator;
+        private MapShape payloadShape;
+        private MapShape ctxShape;
+        private CallJoinPoints callJoinPoints;
+        private PrefetchPlan prefetchPlan;
+
+        public Builder(RuleConfig config, List<CompiledRule> rules) {
+            this.config = config;
+            this.rules = rules;
+        }
+
+        /**
+         * The executable form of each rule, in the same order as the rules; by default each
+         * rule runs by walking its parts.
+         */
+        public Builder programs(List<RuleProgram> programs) {
+            this.programs = programs;
+            return this;
+        }
+
+        /** The order rules may run in concurrently, or {@code null} to run them one after another. */
+        public Builder dependencyGraph(DependencyGraph dependencyGraph) {
+            this.dependencyGraph = dependencyGraph;
+            return this;
+        }
+
+        /** The index over rule conditions, or {@code null} to evaluate every condition. */
+        public Builder ruleIndex(RuleIndex ruleIndex) {
+            this.ruleIndex = ruleIndex;
+            return this;
+        }
+
+        /** The sub-expressions the rules share, or {@code null} if none. */
+        public Builder subexpressions(CommonSubexpressions subexpressions) {
+            this.subexpressions = subexpressions;
+            return this;
+        }
+
+        /** The checks of the first rule to run on the payload's JSON tokens, or {@code null} to run none. */
+        public Builder streamingValidator(StreamingValidator streamingValidator) {
+            this.streamingValidator = streamingValidator;
+            return this;
+        }
+
+        /** The layout to read request payloads into, or {@code null} to read them into hash maps. */
+        public Builder payloadShape(MapShape payloadShape) {
+            this.payloadShape = payloadShape;
+            return this;
+        }
+
+        /** The layout of the {@code #ctx} map of each request, or {@code null} for a hash map. */
+        public Builder ctxShape(MapShape ctxShape) {
+            this.ctxShape = ctxShape;
+            return this;
+        }
+
+        /** Where rules wait for asynchronous external calls, or {@code null} if no rule makes one. */
+        public Builder callJoinPoints(CallJoinPoints callJoinPoints) {
+            this.callJoinPoints = callJoinPoints;
+            return this;
+        }
+
+        /**
+         * Where rules start the external calls of later rules, or {@code null} to make each
+         * call when its rule runs.
+         */
+        public Builder prefetchPlan(PrefetchPlan prefetchPlan) {
+            this.prefetchPlan = prefetchPlan;
+            return this;
+        }
+
+        /**
+         * @throws IllegalArgumentException if the programs or the dependency graph do not
+         *                                  cover the rules
+         */
+        public CompiledRuleSet build() {
+            return new CompiledRuleSet(this);
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package com.example.service.plan;
+
+import com.example.service.ParsedExpression;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Load-time form of a {@link com.example.model.rule.ValidationRule}.
+ */
+public final class CompiledValidation {
+
+    private final String path;
+    private final PathAccessor accessor;
+    private final boolean required;
+    private final ValueType type;
+    private final Pattern pattern;
+    private final ThreadLocal<Matcher> matchers;
+    private final com.google.re2j.Pattern linearPattern;
+    private final ParsedExpression spel;
+    private final String message;
+
+    public CompiledValidation(String path, PathAccessor accessor, boolean required, ValueType type,
+                              Pattern pattern, ParsedExpression spel, String message) {
+        this(path, accessor, required, type, pattern, null, spel, message);
+    }
+
+    /**
+     * @param linearPattern the same regex compiled for linear-time matching, or {@code null}
+     *                      to match with {@code pattern}
+     */
+    public CompiledValidation(String path, PathAccessor accessor, boolean required, ValueType type,
+                              Pattern pattern, com.google.re2j.Pattern linearPattern,
+                              ParsedExpression spel, String message) {
+        this.path = path;
+        this.accessor = accessor;
+        this.required = required;
+        this.type = type;
+        this.pattern = pattern;
+        this.matchers = pattern != null && linearPattern == null ? ThreadLocal.withInitial(() -> pattern.matcher("")) : null;
+        this.linearPattern = linearPattern;
+        this.spel = spel;
+        this.message = message;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public PathAccessor getAccessor() {
+        return accessor;
+    }
+
+    public boolean isRequired() {
+        return required;
+    }
+
+    /** The expected value type, or {@code null} when the validation has no type check. */
+    public ValueType getType() {
+        return type;
+    }
+
+    /** The compiled regex, or {@code null} when the validation has no regex check. */
+    public Pattern getPattern() {
+        return pattern;
+    }
+
+    /** The engine the regex is matched with. */
+    public RegexEngine getRegexEngine() {
+        return linearPattern != null ? RegexEngine.LINEAR : RegexEngine.BACKTRACKING;
+    }
+
+    /**
+     * Whether the whole value matches the regex. With the backtracking engine each thread
+     * reuses one matcher, which is cleared afterwards so it does not hold on to the value.
+     */
+    public boolean matches(CharSequence value) {
+        if (linearPattern != null) {
+            return linearPattern.matcher(value).matches();
+        }
+        Matcher matcher = matchers.get().reset(value);
+        try {
+            return matcher.matches();
+        } finally {
+            matcher.reset("");
+        }
+    }
+
+    /**
+     * The required, type and regex checks for one value the path selects. A {@code null}
+     * value that is not required passes and skips the other checks.
+     */
+    public boolean accepts(Object value) {
+        // Required check - check for null, empty string, or blank string
+        if (required && isBlank(value)) {
+            return false;
+        }
+
+        if (value == null) {
+            return true; // Skip other validations if value is null and not required
+        }
+
+        // Type check
+        if (type != null && !type.matches(value)) {
+            return false;
+        }
+
+        // Regex check
+        if (pattern != null) {
+            return value instanceof String && matches((String) value);
+        }
+        return true;
+    }
+
+    private static boolean isBlank(Object value) {
+        if (value == null) {
+            return true;
+        }
+        if (value instanceof String) {
+            return ((String) value).trim().isEmpty();
+        }
+        return false;
+    }
+
+    /** The SpEL check, or {@code null} when the validation has none. */
+    public ParsedExpression getSpel() {
+        return spel;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    /** A copy of this validation with a different SpEL check. */
+    public CompiledValidation withSpel(ParsedExpression spel) {
+        return new CompiledValidation(path, accessor, required, type, pattern, linearPattern, spel, message);
+    }
+}
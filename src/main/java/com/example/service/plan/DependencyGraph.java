@@ -0,0 +1,80 @@
+package com.example.service.plan;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Which earlier rules each rule has to wait for so that running independent rules
+ * concurrently gives the same result as running all of them in order.
+ * <p>
+ * A rule depends on every earlier rule it {@link RuleAccess#conflictsWith conflicts with}.
+ * Rules that may stop execution, and rules with unrestricted access, are barriers: they
+ * wait for all earlier rules and all later rules wait for them.
+ */
+public final class DependencyGraph {
+
+    private final int[][] dependencies;
+    private final boolean[] barriers;
+
+    private DependencyGraph(int[][] dependencies, boolean[] barriers) {
+        this.dependencies = dependencies;
+        this.barriers = barriers;
+    }
+
+    public static DependencyGraph build(List<CompiledRule> rules, List<RuleAccess> accesses) {
+        int size = rules.size();
+        boolean[] barriers = new boolean[size];
+        for (int i = 0; i < size; i++) {
+            barriers[i] = accesses.get(i).isUnrestricted() || mayStop(rules.get(i));
+        }
+
+        int[][] dependencies = new int[size][];
+        for (int j = 0; j < size; j++) {
+            List<Integer> dependsOn = new ArrayList<>();
+            // Rules before the nearest barrier are already covered by depending on it
+            for (int i = j - 1; i >= 0; i--) {
+                if (barriers[i]) {
+                    dependsOn.add(i);
+                    break;
+                }
+                if (barriers[j] || accesses.get(i).conflictsWith(accesses.get(j))) {
+                    dependsOn.add(i);
+                }
+            }
+            dependencies[j] = dependsOn.stream().mapToInt(Integer::intValue).sorted().toArray();
+        }
+        return new DependencyGraph(dependencies, barriers);
+    }
+
+    static boolean mayStop(CompiledRule rule) {
+        return rule.getOnSuccess() == RuleAction.STOP
+            || (rule.isStopOnValidationError() && !rule.getValidations().isEmpty());
+    }
+
+    /** Indexes of the earlier rules that must finish before rule {@code index} starts. */
+    public int[] dependenciesOf(int index) {
+        return dependencies[index].clone();
+    }
+
+    public boolean isBarrier(int index) {
+        return barriers[index];
+    }
+
+    public int size() {
+        return dependencies.length;
+    }
+
+    /** Number of rules on the longest chain of dependencies. */
+    public int criticalPathLength() {
+        int[] depth = new int[dependencies.length];
+        int longest = 0;
+        for (int j = 0; j < dependencies.length; j++) {
+            depth[j] = 1;
+            for (int i : dependencies[j]) {
+                depth[j] = Math.max(depth[j], depth[i] + 1);
+            }
+            longest = Math.max(longest, depth[j]);
+        }
+        return longest;
+    }
+}
@@ -0,0 +1,22 @@
+package com.example.service.plan;
+
+/**
+ * How expressions of a rule set are evaluated, selected by the configuration's
+ * {@code evaluationMode}. Unknown or missing names resolve to {@link #STANDARD}.
+ */
+public enum EvaluationMode {
+    /** Full SpEL: any method, constructors and {@code T()} type references. */
+    STANDARD,
+    /**
+     * Map and bean property access, operators and methods on simple value types only.
+     * Cheaper to resolve and safe for tenant-authored configurations.
+     */
+    RESTRICTED;
+
+    public static EvaluationMode of(String mode) {
+        if (mode != null && "restricted".equalsIgnoreCase(mode.trim())) {
+            return RESTRICTED;
+        }
+        return STANDARD;
+    }
+}
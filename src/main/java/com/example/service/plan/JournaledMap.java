@@ -0,0 +1,175 @@
+package com.example.service.plan;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * A view of a map that records every write to it in an undo log. A snapshot is a
+ * position in the log, so taking one costs nothing; the keys changed since a snapshot
+ * come from the entries after it, and rolling back to it undoes them in reverse.
+ * <p>
+ * Only the map's own keys are tracked. A write into a nested map or list goes to that
+ * object directly and is neither recorded nor undone.
+ */
+public final class JournaledMap extends AbstractMap<String, Object> {
+
+    private final Map<String, Object> target;
+    private final List<String> keys = new ArrayList<>();
+    /** The value each key had before the write, and whether it was present at all. */
+    private final List<Object> previousValues = new ArrayList<>();
+    private final List<Boolean> previouslyPresent = new ArrayList<>();
+
+    public JournaledMap(Map<String, Object> target) {
+        this.target = target;
+    }
+
+    /** The map the writes go to. */
+    public Map<String, Object> getTarget() {
+        return target;
+    }
+
+    /** A snapshot to pass to {@link #changedSince} or {@link #rollback}. */
+    public int mark() {
+        return keys.size();
+    }
+
+    /**
+     * The keys whose value differs from the one they had at the snapshot, in the order
+     * they were first written.
+     */
+    public List<String> changedSince(int mark) {
+        Map<String, Integer> firstWrites = firstWritesSince(mark);
+        List<String> changed = new ArrayList<>();
+        firstWrites.forEach((key, entry) -> {
+            boolean present = target.containsKey(key);
+            if (present != previouslyPresent.get(entry)
+                    || (present && !Objects.equals(target.get(key), previousValues.get(entry)))) {
+                changed.add(key);
+            }
+        });
+        return changed;
+    }
+
+    /**
+     * Restores every key written since the snapshot to the value it had then, and returns
+     * the keys that were restored.
+     */
+    public List<String> rollback(int mark) {
+        List<String> restored = new ArrayList<>(firstWritesSince(mark).keySet());
+        for (int entry = keys.size() - 1; entry >= mark; entry--) {
+            if (previouslyPresent.get(entry)) {
+                target.put(keys.get(entry), previousValues.get(entry));
+            } else {
+                target.remove(keys.get(entry));
+            }
+            keys.remove(entry);
+            previousValues.remove(entry);
+            previouslyPresent.remove(entry);
+        }
+        return restored;
+    }
+
+    private Map<String, Integer> firstWritesSince(int mark) {
+        Map<String, Integer> firstWrites = new LinkedHashMap<>();
+        for (int entry = mark; entry < keys.size(); entry++) {
+            firstWrites.putIfAbsent(keys.get(entry), entry);
+        }
+        return firstWrites;
+    }
+
+    @Override
+    public Object get(Object key) {
+        return target.get(key);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return target.containsKey(key);
+    }
+
+    @Override
+    public int size() {
+        return target.size();
+    }
+
+    @Override
+    public Object put(String key, Object value) {
+        boolean present = target.containsKey(key);
+        Object previous = target.put(key, value);
+        record(key, previous, present);
+        return previous;
+    }
+
+    @Override
+    public Object remove(Object key) {
+        if (!(key instanceof String name) || !target.containsKey(name)) {
+            return null;
+        }
+        Object previous = target.remove(name);
+        record(name, previous, true);
+        return previous;
+    }
+
+    private void record(String key, Object previous, boolean present) {
+        keys.add(key);
+        previousValues.add(previous);
+        previouslyPresent.add(present);
+    }
+
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<Entry<String, Object>> iterator() {
+                Iterator<Entry<String, Object>> entries = target.entrySet().iterator();
+                return new Iterator<>() {
+                    private Entry<String, Object> last;
+
+                    @Override
+                    public boolean hasNext() {
+                        return entries.hasNext();
+                    }
+
+                    @Override
+                    public Entry<String, Object> next() {
+                        Entry<String, Object> entry = entries.next();
+                        last = entry;
+                        return new SimpleEntry<>(entry) {
+                            @Override
+                            public Object setValue(Object value) {
+                                super.setValue(value);
+                                Object previous = entry.setValue(value);
+                                record(entry.getKey(), previous, true);
+                                return previous;
+                            }
+                        };
+                    }
+
+                    @Override
+                    public void remove() {
+                        if (last == null) {
+                            throw new IllegalStateException();
+                        }
+                        String key = last.getKey();
+                        Object value = last.getValue();
+                        entries.remove();
+                        record(key, value, true);
+                        last = null;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return target.size();
+            }
+        };
+    }
+}
@@ -0,0 +1,198 @@
+package com.example.service.plan;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * A JSONPath compiled into a chain of steps: member names ({@code $.address.city},
+ * {@code $['first name']}), array indexes ({@code $.items[0]}, {@code $.items[-1]} for the
+ * last element) and wildcards over array elements or object members ({@code $.items[*].sku},
+ * {@code $.prices.*}). Reading walks the chain over the payload's maps and lists as they are.
+ */
+final class JsonPath implements PathAccessor {
+
+    static final Object WILDCARD = new Object();
+
+    /** Each step is a member name, an {@link Integer} index or {@link #WILDCARD}. */
+    private final Object[] steps;
+    private final boolean wildcard;
+
+    private JsonPath(Object[] steps, boolean wildcard) {
+        this.steps = steps;
+        this.wildcard = wildcard;
+    }
+
+    /**
+     * Reads the value the path points at, or {@code null} if a step is missing. For a
+     * wildcard path the values are collected into a new list.
+     */
+    @Override
+    public Object read(Map<String, Object> payload) {
+        if (wildcard) {
+            List<Object> values = new ArrayList<>();
+            every(payload, values::add);
+            return values;
+        }
+        Object current = payload;
+        for (Object step : steps) {
+            current = get(current, step);
+            if (current == null) {
+                return null;
+            }
+        }
+        return current;
+    }
+
+    @Override
+    public boolean isWildcard() {
+        return wildcard;
+    }
+
+    @Override
+    public boolean every(Map<String, Object> payload, Predicate<Object> test) {
+        if (!wildcard) {
+            return test.test(read(payload));
+        }
+        return every(payload, 0, test);
+    }
+
+    private boolean every(Object current, int from, Predicate<Object> test) {
+        for (int i = from; i < steps.length; i++) {
+            if (steps[i] == WILDCARD) {
+                Iterable<?> children = current instanceof List<?> list ? list
+                    : current instanceof Map<?, ?> map ? map.values() : null;
+                if (children != null) {
+                    for (Object child : children) {
+                        if (!every(child, i + 1, test)) {
+                            return false;
+                        }
+                    }
+                }
+                return true;
+            }
+            current = get(current, steps[i]);
+            if (current == null) {
+                return true; // a missing branch selects nothing
+            }
+        }
+        return test.test(current);
+    }
+
+    private static Object get(Object current, Object step) {
+        if (step instanceof String name) {
+            return current instanceof Map<?, ?> map ? map.get(name) : null;
+        }
+        if (current instanceof List<?> list) {
+            int index = (Integer) step;
+            if (index < 0) {
+                index += list.size();
+            }
+            return index >= 0 && index < list.size() ? list.get(index) : null;
+        }
+        return null;
+    }
+
+    /** The member name of the first step, or {@code null} if it is an index or wildcard. */
+    String firstMember() {
+        return steps.length > 0 && steps[0] instanceof String name ? name : null;
+    }
+
+    int length() {
+        return steps.length;
+    }
+
+    /** A member name, an {@link Integer} index or {@link #WILDCARD}. */
+    Object step(int i) {
+        return steps[i];
+    }
+
+    /**
+     * Whether a path selects the whole payload: no path, {@code $}, or a path that does not
+     * start with {@code $}. Paths were not parsed before, and such a path read the whole
+     * payload, so it still does rather than failing the configuration.
+     */
+    static boolean selectsWholePayload(String path) {
+        if (path == null) {
+            return true;
+        }
+        String text = path.trim();
+        return text.isEmpty() || "$".equals(text) || !text.startsWith("$");
+    }
+
+    static JsonPath parse(String path) {
+        String text = path.trim();
+        if (!text.startsWith("$")) {
+            throw invalid(path, "must start with '$'");
+        }
+        List<Object> steps = new ArrayList<>();
+        boolean wildcard = false;
+        int i = 1;
+        while (i < text.length()) {
+            char c = text.charAt(i);
+            if (c == '.') {
+                if (text.startsWith("..", i)) {
+                    throw invalid(path, "recursive descent is not supported");
+                }
+                int end = i + 1;
+                while (end < text.length() && text.charAt(end) != '.' && text.charAt(end) != '[') {
+                    end++;
+                }
+                String name = text.substring(i + 1, end);
+                if (name.isEmpty()) {
+                    throw invalid(path, "empty member name at position " + i);
+                }
+                steps.add("*".equals(name) ? WILDCARD : name);
+                wildcard |= "*".equals(name);
+                i = end;
+            } else if (c == '[') {
+                int end = closingBracket(text, i, path);
+                String selector = text.substring(i + 1, end).trim();
+                Object step = selector(selector, path);
+                steps.add(step);
+                wildcard |= step == WILDCARD;
+                i = end + 1;
+            } else {
+                throw invalid(path, "unexpected '" + c + "' at position " + i);
+            }
+        }
+        return new JsonPath(steps.toArray(), wildcard);
+    }
+
+    private static int closingBracket(String text, int open, String path) {
+        char quote = 0;
+        for (int i = open + 1; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '\'' || c == '"') {
+                quote = c;
+            } else if (c == ']') {
+                return i;
+            }
+        }
+        throw invalid(path, "unclosed '[' at position " + open);
+    }
+
+    private static Object selector(String selector, String path) {
+        if ("*".equals(selector)) {
+            return WILDCARD;
+        }
+        if (selector.length() >= 2 && (selector.charAt(0) == '\'' || selector.charAt(0) == '"')
+                && selector.indexOf(selector.charAt(0), 1) == selector.length() - 1) {
+            return selector.substring(1, selector.length() - 1);
+        }
+        try {
+            return Integer.valueOf(selector);
+        } catch (NumberFormatException e) {
+            throw invalid(path, "unsupported selector [" + selector + "]; only names, indexes and * are supported");
+        }
+    }
+
+    private static IllegalArgumentException invalid(String path, String reason) {
+        return new IllegalArgumentException("Invalid path '" + path + "': " + reason);
+    }
+}
@@ -0,0 +1,130 @@
+package com.example.service.plan;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The keys a configuration is known to use in a map, such as the payload fields its
+ * validation paths name. A {@link ShapedMap} of this shape keeps those keys in a fixed
+ * slot array, and numbers for numeric keys unboxed.
+ */
+public final class MapShape {
+
+    private final String[] keys;
+    private final boolean[] numeric;
+    private final Map<String, Integer> slots = new HashMap<>();
+
+    /**
+     * @param keys        the distinct keys to give slots, in slot order
+     * @param numericKeys the keys whose values are usually numbers
+     */
+    public MapShape(Collection<String> keys, Set<String> numericKeys) {
+        this.keys = new String[keys.size()];
+        this.numeric = new boolean[keys.size()];
+        for (String key : keys) {
+            int slot = slots.size();
+            this.keys[slot] = key;
+            this.numeric[slot] = numericKeys.contains(key);
+            slots.put(key, slot);
+        }
+    }
+
+    /**
+     * The shape of the payloads of a configuration: the top-level fields its validations
+     * check and its rules read or write, numeric where a validation expects a number.
+     * Returns {@code null} if no field is known.
+     */
+    public static MapShape forPayload(List<CompiledRule> rules, List<RuleAccess> accesses) {
+        Set<String> keys = new LinkedHashSet<>();
+        Set<String> numericKeys = new HashSet<>();
+        for (CompiledRule rule : rules) {
+            for (CompiledValidation validation : rule.getValidations()) {
+                String key = PathAccessor.topLevelKey(validation.getPath());
+                if (key == null) {
+                    continue;
+                }
+                keys.add(key);
+                if (validation.getType() == ValueType.NUMBER && JsonPath.parse(validation.getPath()).length() == 1) {
+                    numericKeys.add(key);
+                }
+            }
+        }
+        for (RuleAccess access : accesses) {
+            keys.addAll(access.getPayloadReads());
+            keys.addAll(access.getPayloadWrites());
+        }
+        return keys.isEmpty() ? null : new MapShape(keys, numericKeys);
+    }
+
+    /**
+     * The shape of the {@code #ctx} maps of a configuration: every key its rules read or
+     * write, including external call results. No slot is numeric: context values are
+     * written by expressions, which hand them over already boxed. Returns {@code null} if
+     * no key is known.
+     */
+    public static MapShape forContext(List<RuleAccess> accesses) {
+        Set<String> keys = new LinkedHashSet<>();
+        for (RuleAccess access : accesses) {
+            keys.addAll(access.getCtxWrites());
+            keys.addAll(access.getCtxReads());
+        }
+        return keys.isEmpty() ? null : new MapShape(keys, Set.of());
+    }
+
+    public ShapedMap newMap() {
+        return new ShapedMap(this);
+    }
+
+    /**
+     * Reads a JSON object into a new map of this shape. Values other than numbers in numeric
+     * slots are read with the parser's codec, as maps, lists and scalars.
+     */
+    public ShapedMap read(JsonParser parser) throws IOException {
+        JsonToken token = parser.currentToken() != null ? parser.currentToken() : parser.nextToken();
+        if (token != JsonToken.START_OBJECT) {
+            throw new IOException("Expected a JSON object but got " + token);
+        }
+        ShapedMap map = new ShapedMap(this);
+        String key;
+        while ((key = parser.nextFieldName()) != null) {
+            token = parser.nextToken();
+            int slot = slotOf(key);
+            if (slot >= 0 && numeric[slot] && token == JsonToken.VALUE_NUMBER_INT
+                    && parser.getNumberType() != JsonParser.NumberType.BIG_INTEGER) {
+                if (parser.getNumberType() == JsonParser.NumberType.INT) {
+                    map.putInt(slot, parser.getIntValue());
+                } else {
+                    map.putLong(slot, parser.getLongValue());
+                }
+            } else if (slot >= 0 && numeric[slot] && token == JsonToken.VALUE_NUMBER_FLOAT) {
+                map.putDouble(slot, parser.getDoubleValue());
+            } else {
+                map.put(key, token == JsonToken.VALUE_NULL ? null : parser.readValueAs(Object.class));
+            }
+        }
+        return map;
+    }
+
+    int size() {
+        return keys.length;
+    }
+
+    String key(int slot) {
+        return keys[slot];
+    }
+
+    /** The slot of a key, or -1 if it has none. */
+    public int slotOf(Object key) {
+        Integer slot = slots.get(key);
+        return slot != null ? slot : -1;
+    }
+}
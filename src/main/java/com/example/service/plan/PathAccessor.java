@@ -0,0 +1,66 @@
+package com.example.service.plan;
+
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Reads the value a validation path points at. Paths are resolved once when a
+ * rule configuration is compiled rather than on every request.
+ */
+@FunctionalInterface
+public interface PathAccessor {
+
+    Object read(Map<String, Object> payload);
+
+    /** Whether the path can select several values, such as {@code $.items[*].sku}. */
+    default boolean isWildcard() {
+        return false;
+    }
+
+    /**
+     * Tests every value the path selects, in place and stopping at the first that fails.
+     * A path without wildcards selects exactly one value, which may be {@code null}; a
+     * wildcard path selects nothing where a step is missing.
+     */
+    default boolean every(Map<String, Object> payload, Predicate<Object> test) {
+        return test.test(read(payload));
+    }
+
+    /**
+     * Compiles a JSONPath with member names, array indexes and wildcards, such as
+     * {@code $.address.city}, {@code $.items[0].sku} or {@code $.items[*].sku}. A path
+     * that does not start with {@code $} reads the whole payload, with a warning.
+     *
+     * @throws IllegalArgumentException if the path uses syntax that is not supported
+     */
+    static PathAccessor compile(String path) {
+        if (JsonPath.selectsWholePayload(path)) {
+            if (path != null && !path.trim().isEmpty() && !path.trim().startsWith("$")) {
+                LoggerFactory.getLogger(PathAccessor.class).warn(
+                    "Validation path '{}' does not start with '$' and is applied to the whole payload", path);
+            }
+            return payload -> payload;
+        }
+
+        JsonPath jsonPath = JsonPath.parse(path);
+        // Most paths name a single top-level field
+        String field = jsonPath.firstMember();
+        if (jsonPath.length() == 1 && field != null) {
+            return payload -> payload.get(field);
+        }
+        return jsonPath;
+    }
+
+    /**
+     * The top-level payload key a path reads under, or {@code null} when it reads the whole
+     * payload or every top-level member.
+     */
+    static String topLevelKey(String path) {
+        if (JsonPath.selectsWholePayload(path)) {
+            return null;
+        }
+        return JsonPath.parse(path).firstMember();
+    }
+}
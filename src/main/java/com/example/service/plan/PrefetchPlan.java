@@ -0,0 +1,125 @@
+package com.example.service.plan;
+
+import com.example.model.rule.ExternalCall;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Where rules running one after another start the external calls of later rules early.
+ * A call can start as soon as nothing before its rule can change what its URL, header
+ * and body templates read: after the last earlier rule that writes one of those keys, or
+ * whose access cannot be worked out, and after the result of an earlier asynchronous
+ * call they read has been saved. Several calls that start at the same point run at the
+ * same time.
+ * <p>
+ * Only calls their rule is sure to make once it runs are started early: GET calls of
+ * rules without a {@code when} condition or validations. A call is not started before an
+ * earlier rule that may stop execution either, so it is dropped, and its future
+ * cancelled, only when a rule fails with an error or stops unexpectedly.
+ */
+public final class PrefetchPlan {
+
+    private final int[] launchBefore;
+    private final int[][] launchedBefore;
+
+    private PrefetchPlan(int[] launchBefore) {
+        this.launchBefore = launchBefore;
+        List<List<Integer>> launched = new ArrayList<>();
+        for (int k = 0; k < launchBefore.length; k++) {
+            launched.add(new ArrayList<>());
+        }
+        for (int i = 0; i < launchBefore.length; i++) {
+            if (launchBefore[i] >= 0) {
+                launched.get(launchBefore[i]).add(i);
+            }
+        }
+        this.launchedBefore = launched.stream()
+            .map(rules -> rules.stream().mapToInt(Integer::intValue).toArray())
+            .toArray(int[][]::new);
+    }
+
+    /**
+     * @param callAccesses the keys the templates of each rule's external call read and
+     *                     write, {@code null} for rules without one
+     * @param joinPoints where asynchronous calls are saved, or {@code null} if there are none
+     * @return {@code null} if no call can start before its rule
+     */
+    public static PrefetchPlan of(List<CompiledRule> rules, List<RuleAccess> accesses,
+                                  List<RuleAccess> callAccesses, CallJoinPoints joinPoints) {
+        int size = rules.size();
+        int[] launchBefore = new int[size];
+        Arrays.fill(launchBefore, -1);
+        boolean any = false;
+        for (int i = 0; i < size; i++) {
+            ExternalCall call = rules.get(i).getExternalCall();
+            RuleAccess callAccess = callAccesses.get(i);
+            if (call == null || !certainToCall(rules.get(i))
+                    || !"GET".equalsIgnoreCase(call.getMethod()) || callAccess.isUnrestricted()
+                    || !callAccess.getPayloadWrites().isEmpty() || !callAccess.getCtxWrites().isEmpty()
+                    || writesInput(accesses.get(i), callAccess, call.getSaveAs())) {
+                continue;
+            }
+            int launch = 0;
+            for (int w = 0; w < i; w++) {
+                if (accesses.get(w).isUnrestricted() || DependencyGraph.mayStop(rules.get(w))
+                        || writesInput(accesses.get(w), callAccess, null)) {
+                    launch = w + 1;
+                }
+                ExternalCall earlier = rules.get(w).getExternalCall();
+                if (joinPoints != null && joinPoints.joinBefore(w) >= 0
+                        && callAccess.getCtxReads().contains(earlier.getSaveAs())) {
+                    launch = Math.max(launch, joinPoints.joinBefore(w));
+                }
+            }
+            if (launch < i) {
+                launchBefore[i] = launch;
+                any = true;
+            }
+        }
+        return any ? new PrefetchPlan(launchBefore) : null;
+    }
+
+    /** Whether a rule makes its external call whenever it runs. */
+    private static boolean certainToCall(CompiledRule rule) {
+        return rule.getWhen() == null && !rule.isNeverApplies() && rule.getValidations().isEmpty();
+    }
+
+    /** Whether a rule writes a key the call reads, other than the call's own result. */
+    private static boolean writesInput(RuleAccess writer, RuleAccess callAccess, String saveAs) {
+        return overlaps(writer.getPayloadWrites(), callAccess.getPayloadReads(), null)
+            || overlaps(writer.getCtxWrites(), callAccess.getCtxReads(), saveAs);
+    }
+
+    private static boolean overlaps(Set<String> writes, Set<String> reads, String ignored) {
+        for (String key : writes) {
+            if (reads.contains(key) && !key.equals(ignored)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** The rules whose external calls start just before rule {@code index} runs. */
+    public int[] launchedBefore(int index) {
+        return launchedBefore[index].clone();
+    }
+
+    /** The index of the rule a rule's call starts before, or -1 if it is not started early. */
+    public int launchBefore(int index) {
+        return launchBefore[index];
+    }
+
+    /** How many calls start before their rule. */
+    public int size() {
+        int count = 0;
+        for (int launch : launchBefore) {
+            if (launch >= 0) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,22 @@
+package com.example.service.plan;
+
+/**
+ * How validation regexes are matched, selected by {@code regexEngine} on a validation or
+ * on the whole configuration. Unknown or missing names resolve to {@link #BACKTRACKING}.
+ */
+public enum RegexEngine {
+    /** {@code java.util.regex}: full syntax, but some patterns take exponential time on crafted input. */
+    BACKTRACKING,
+    /**
+     * RE2 automata: time linear in the input for every pattern. Patterns that need
+     * backreferences or lookaround are matched with {@link #BACKTRACKING} instead.
+     */
+    LINEAR;
+
+    public static RegexEngine of(String engine) {
+        if (engine != null && "linear".equalsIgnoreCase(engine.trim())) {
+            return LINEAR;
+        }
+        return BACKTRACKING;
+    }
+}
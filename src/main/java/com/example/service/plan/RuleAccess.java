@@ -0,0 +1,90 @@
+package com.example.service.plan;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * The top-level {@code #payload} and {@code #ctx} keys a rule reads and writes, found by
+ * analysing its expressions when the configuration is loaded. Access that cannot be pinned
+ * to keys makes the rule {@link #isUnrestricted() unrestricted}, and so does a write to a
+ * nested value, such as {@code #payload['a']['b'] = 1}, which changes a value in place.
+ */
+public final class RuleAccess {
+
+    private final Set<String> payloadReads = new HashSet<>();
+    private final Set<String> payloadWrites = new HashSet<>();
+    private final Set<String> ctxReads = new HashSet<>();
+    private final Set<String> ctxWrites = new HashSet<>();
+    private boolean unrestricted;
+
+    public void read(String variable, String key) {
+        if ("payload".equals(variable)) {
+            payloadReads.add(key);
+        } else if ("ctx".equals(variable)) {
+            ctxReads.add(key);
+        }
+    }
+
+    public void write(String variable, String key) {
+        if ("payload".equals(variable)) {
+            payloadWrites.add(key);
+        } else if ("ctx".equals(variable)) {
+            ctxWrites.add(key);
+        }
+    }
+
+    public void markUnrestricted() {
+        unrestricted = true;
+    }
+
+    public boolean isUnrestricted() {
+        return unrestricted;
+    }
+
+    public Set<String> getPayloadReads() {
+        return Collections.unmodifiableSet(payloadReads);
+    }
+
+    public Set<String> getPayloadWrites() {
+        return Collections.unmodifiableSet(payloadWrites);
+    }
+
+    public Set<String> getCtxReads() {
+        return Collections.unmodifiableSet(ctxReads);
+    }
+
+    public Set<String> getCtxWrites() {
+        return Collections.unmodifiableSet(ctxWrites);
+    }
+
+    /**
+     * Whether running {@code later} before or alongside this rule could change either
+     * result: one of them writes a key the other reads or writes.
+     */
+    public boolean conflictsWith(RuleAccess later) {
+        return unrestricted || later.unrestricted
+            || overlaps(payloadWrites, later.payloadReads) || overlaps(payloadWrites, later.payloadWrites)
+            || overlaps(payloadReads, later.payloadWrites)
+            || overlaps(ctxWrites, later.ctxReads) || overlaps(ctxWrites, later.ctxWrites)
+            || overlaps(ctxReads, later.ctxWrites);
+    }
+
+    private static boolean overlaps(Set<String> a, Set<String> b) {
+        for (String key : a) {
+            if (b.contains(key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        if (unrestricted) {
+            return "RuleAccess{unrestricted}";
+        }
+        return "RuleAccess{payloadReads=" + payloadReads + ", payloadWrites=" + payloadWrites
+            + ", ctxReads=" + ctxReads + ", ctxWrites=" + ctxWrites + '}';
+    }
+}
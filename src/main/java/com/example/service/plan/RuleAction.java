@@ -0,0 +1,13 @@
+package com.example.service.plan;
+
+/**
+ * Action taken after a rule completes. Anything other than {@code STOP} continues with the next rule.
+ */
+public enum RuleAction {
+    CONTINUE,
+    STOP;
+
+    public static RuleAction of(String action) {
+        return "STOP".equals(action) ? STOP : CONTINUE;
+    }
+}
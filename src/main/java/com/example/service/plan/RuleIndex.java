@@ -0,0 +1,121 @@
+package com.example.service.plan;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Index from payload fields to the rules whose {@code when} condition starts with a test
+ * on that field, such as {@code #payload['country'] == 'IN'} or
+ * {@code #payload['email'].endsWith('.corp')}. For a request it gives the rules whose
+ * condition can still be true after reading each indexed field once, so conditions that
+ * certainly fail are not evaluated one by one.
+ * <p>
+ * Only fields that no earlier rule can write are indexed, so the value read before the
+ * first rule runs is the value the condition would see.
+ */
+public final class RuleIndex {
+
+    private final int ruleCount;
+    private final int indexedRules;
+    private final Map<String, FieldIndex> fields;
+
+    private RuleIndex(int ruleCount, int indexedRules, Map<String, FieldIndex> fields) {
+        this.ruleCount = ruleCount;
+        this.indexedRules = indexedRules;
+        this.fields = fields;
+    }
+
+    /**
+     * Returns the indexes of the rules that may apply to this payload. Rules not in the
+     * result have a condition that is false for it.
+     */
+    public BitSet candidates(Map<String, Object> payload) {
+        BitSet candidates = new BitSet(ruleCount);
+        candidates.set(0, ruleCount);
+        for (Map.Entry<String, FieldIndex> entry : fields.entrySet()) {
+            entry.getValue().exclude(payload.get(entry.getKey()), candidates);
+        }
+        return candidates;
+    }
+
+    /** Number of rules whose condition is covered by the index. */
+    public int getIndexedRules() {
+        return indexedRules;
+    }
+
+    public int getIndexedFields() {
+        return fields.size();
+    }
+
+    private static final class FieldIndex {
+
+        /** All rules that test this field for equality, and those that match each value. */
+        private final BitSet equalityRules = new BitSet();
+        private final Map<Object, BitSet> rulesByValue = new HashMap<>();
+        /** String tests, each evaluated once for all rules that share it. */
+        private final Map<String, StringTest> tests = new LinkedHashMap<>();
+
+        void exclude(Object value, BitSet candidates) {
+            if (!equalityRules.isEmpty()) {
+                candidates.andNot(equalityRules);
+                BitSet matching = value instanceof String || value instanceof Boolean ? rulesByValue.get(value) : null;
+                if (matching != null) {
+                    candidates.or(matching);
+                }
+            }
+            // Any other value is left to the condition itself, which may fail differently
+            if (value instanceof String text) {
+                for (StringTest test : tests.values()) {
+                    if (!test.predicate.test(text)) {
+                        candidates.andNot(test.rules);
+                    }
+                }
+            }
+        }
+    }
+
+    private record StringTest(Predicate<String> predicate, BitSet rules) {
+    }
+
+    public static final class Builder {
+
+        private final int ruleCount;
+        private final Map<String, FieldIndex> fields = new LinkedHashMap<>();
+        private final BitSet indexed = new BitSet();
+
+        public Builder(int ruleCount) {
+            this.ruleCount = ruleCount;
+        }
+
+        /**
+         * Rule {@code rule} applies only if the field equals {@code value}, a string or
+         * boolean compared with {@link Object#equals}.
+         */
+        public Builder equalTo(int rule, String field, Object value) {
+            FieldIndex index = fields.computeIfAbsent(field, f -> new FieldIndex());
+            index.equalityRules.set(rule);
+            index.rulesByValue.computeIfAbsent(value, v -> new BitSet()).set(rule);
+            indexed.set(rule);
+            return this;
+        }
+
+        /**
+         * Rule {@code rule} applies only if the field is a string that passes the test,
+         * or is not a string at all. Tests with the same {@code key} are the same test.
+         */
+        public Builder test(int rule, String field, String key, Predicate<String> predicate) {
+            FieldIndex index = fields.computeIfAbsent(field, f -> new FieldIndex());
+            index.tests.computeIfAbsent(key, k -> new StringTest(predicate, new BitSet())).rules.set(rule);
+            indexed.set(rule);
+            return this;
+        }
+
+        /** Returns the index, or {@code null} if no rule could be indexed. */
+        public RuleIndex build() {
+            return indexed.isEmpty() ? null : new RuleIndex(ruleCount, indexed.cardinality(), fields);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.example.service.plan;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A synchronized view of a map that rules running concurrently write to. It records which
+ * rule added each new key, so that {@link #inRuleOrder} can list the keys in the order
+ * running the rules one after another adds them, rather than the order the rules finished.
+ */
+public final class RuleOrderedMap extends AbstractMap<String, Object> {
+
+    private final Map<String, Object> target;
+    /** The index of the rule that added each key the map did not start with. */
+    private final Map<String, Integer> addedBy = new HashMap<>();
+    private final ThreadLocal<Integer> currentRule = new ThreadLocal<>();
+
+    public RuleOrderedMap(Map<String, Object> target) {
+        this.target = target;
+    }
+
+    /** Runs rule {@code index}, crediting it with the keys added on this thread meanwhile. */
+    public void runAs(int index, Runnable rule) {
+        currentRule.set(index);
+        try {
+            rule.run();
+        } finally {
+            currentRule.remove();
+        }
+    }
+
+    /**
+     * The keys the map started with in their order, then the added keys by the rule that
+     * added them, in the order each rule added its own. Returns the map written to if no
+     * key was added.
+     */
+    public synchronized Map<String, Object> inRuleOrder() {
+        if (addedBy.isEmpty()) {
+            return target;
+        }
+        Map<String, Object> ordered = new LinkedHashMap<>(target.size() * 2);
+        List<Map.Entry<String, Object>> added = new ArrayList<>(addedBy.size());
+        for (Map.Entry<String, Object> entry : target.entrySet()) {
+            if (addedBy.containsKey(entry.getKey())) {
+                added.add(entry);
+            } else {
+                ordered.put(entry.getKey(), entry.getValue());
+            }
+        }
+        // A stable sort, so the keys of one rule keep the order it added them in
+        added.sort(Comparator.comparing(entry -> addedBy.get(entry.getKey())));
+        added.forEach(entry -> ordered.put(entry.getKey(), entry.getValue()));
+        return ordered;
+    }
+
+    @Override
+    public synchronized Object get(Object key) {
+        return target.get(key);
+    }
+
+    @Override
+    public synchronized boolean containsKey(Object key) {
+        return target.containsKey(key);
+    }
+
+    @Override
+    public synchronized Object put(String key, Object value) {
+        if (!target.containsKey(key)) {
+            Integer rule = currentRule.get();
+            addedBy.put(key, rule != null ? rule : Integer.MAX_VALUE);
+        }
+        return target.put(key, value);
+    }
+
+    @Override
+    public synchronized Object remove(Object key) {
+        addedBy.remove(key);
+        return target.remove(key);
+    }
+
+    @Override
+    public synchronized int size() {
+        return target.size();
+    }
+
+    /** Not synchronized: like the views of a synchronized map, iterate it while no rule writes. */
+    @Override
+    public Set<Map.Entry<String, Object>> entrySet() {
+        return target.entrySet();
+    }
+}
@@ -0,0 +1,257 @@
+package com.example.service.plan;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * A map whose known keys live in a fixed slot array laid out by its {@link MapShape}, so
+ * they need no entry objects. Numbers read from JSON into numeric slots are kept as
+ * {@code int}, {@code long} or {@code double} until first read, which boxes them once and
+ * keeps the box, so fields that are never read are never boxed and reads after the first
+ * do not allocate. Other keys go to an ordinary map created on first use.
+ * Iteration follows the order the keys were added in, as a {@link LinkedHashMap}'s does,
+ * so a payload read from JSON keeps the request's key order.
+ */
+public final class ShapedMap extends AbstractMap<String, Object> {
+
+    /** Marks a slot holding {@code null}; an empty slot is {@code null}. */
+    private static final Object NULL = new Object();
+    private static final Object INT = new Object();
+    private static final Object LONG = new Object();
+    private static final Object DOUBLE = new Object();
+
+    private final MapShape shape;
+    private final Object[] values;
+    /** Unboxed numbers, or the bits of a double, for slots marked {@link #INT}, {@link #LONG} or {@link #DOUBLE}. */
+    private long[] numbers;
+    private int slotCount;
+    private Map<String, Object> others;
+    /** The keys present, in the order they were added. */
+    private final List<String> order = new ArrayList<>();
+
+    ShapedMap(MapShape shape) {
+        this.shape = shape;
+        this.values = new Object[shape.size()];
+    }
+
+    public MapShape getShape() {
+        return shape;
+    }
+
+    /** The value in a slot of the shape, {@code null} if it is empty. */
+    public Object getSlot(int slot) {
+        return slotValue(slot);
+    }
+
+    /** Sets the value of a slot of the shape, as {@link #put} does for its key. */
+    public void setSlot(int slot, Object value) {
+        // A value that arrives boxed is kept as it is; unboxing it would only box it again on read
+        fill(slot, value != null ? value : NULL);
+    }
+
+    @Override
+    public Object get(Object key) {
+        int slot = shape.slotOf(key);
+        if (slot < 0) {
+            return others != null ? others.get(key) : null;
+        }
+        return slotValue(slot);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        int slot = shape.slotOf(key);
+        if (slot < 0) {
+            return others != null && others.containsKey(key);
+        }
+        return values[slot] != null;
+    }
+
+    @Override
+    public Object put(String key, Object value) {
+        int slot = shape.slotOf(key);
+        if (slot < 0) {
+            if (others == null) {
+                others = new HashMap<>();
+            }
+            if (!others.containsKey(key)) {
+                order.add(key);
+            }
+            return others.put(key, value);
+        }
+        Object previous = slotValue(slot);
+        setSlot(slot, value);
+        return previous;
+    }
+
+    @Override
+    public Object remove(Object key) {
+        int slot = shape.slotOf(key);
+        if (slot < 0) {
+            if (others == null || !others.containsKey(key)) {
+                return null;
+            }
+            order.remove(key);
+            return others.remove(key);
+        }
+        Object previous = slotValue(slot);
+        if (values[slot] != null) {
+            values[slot] = null;
+            slotCount--;
+            order.remove(key);
+        }
+        return previous;
+    }
+
+    @Override
+    public int size() {
+        return slotCount + (others != null ? others.size() : 0);
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(values, null);
+        slotCount = 0;
+        others = null;
+        order.clear();
+    }
+
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<Entry<String, Object>> iterator() {
+                return new EntryIterator();
+            }
+
+            @Override
+            public int size() {
+                return ShapedMap.this.size();
+            }
+        };
+    }
+
+    void putInt(int slot, int value) {
+        number(slot, INT, value);
+    }
+
+    void putLong(int slot, long value) {
+        number(slot, LONG, value);
+    }
+
+    void putDouble(int slot, double value) {
+        number(slot, DOUBLE, Double.doubleToRawLongBits(value));
+    }
+
+    private void number(int slot, Object kind, long bits) {
+        if (numbers == null) {
+            numbers = new long[values.length];
+        }
+        numbers[slot] = bits;
+        fill(slot, kind);
+    }
+
+    private void fill(int slot, Object value) {
+        if (values[slot] == null) {
+            slotCount++;
+            order.add(shape.key(slot));
+        }
+        values[slot] = value;
+    }
+
+    private Object slotValue(int slot) {
+        Object value = values[slot];
+        if (value == null || value == NULL) {
+            return null;
+        }
+        if (value == INT) {
+            value = (int) numbers[slot];
+        } else if (value == LONG) {
+            value = numbers[slot];
+        } else if (value == DOUBLE) {
+            value = Double.longBitsToDouble(numbers[slot]);
+        } else {
+            return value;
+        }
+        values[slot] = value; // boxed once
+        return value;
+    }
+
+    private final class EntryIterator implements Iterator<Entry<String, Object>> {
+
+        private int next;
+        private String last;
+
+        @Override
+        public boolean hasNext() {
+            return next < order.size();
+        }
+
+        @Override
+        public Entry<String, Object> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            last = order.get(next++);
+            return new KeyEntry(last, shape.slotOf(last));
+        }
+
+        @Override
+        public void remove() {
+            if (last == null) {
+                throw new IllegalStateException();
+            }
+            ShapedMap.this.remove(last);
+            last = null;
+            next--;
+        }
+    }
+
+    private final class KeyEntry implements Entry<String, Object> {
+
+        private final String key;
+        /** The key's slot, or -1 if it is one of the other keys. */
+        private final int slot;
+
+        KeyEntry(String key, int slot) {
+            this.key = key;
+            this.slot = slot;
+        }
+
+        @Override
+        public String getKey() {
+            return key;
+        }
+
+        @Override
+        public Object getValue() {
+            return slot >= 0 ? slotValue(slot) : others.get(key);
+        }
+
+        @Override
+        public Object setValue(Object value) {
+            return put(key, value);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Entry<?, ?> entry && key.equals(entry.getKey())
+                && Objects.equals(getValue(), entry.getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            return key.hashCode() ^ Objects.hashCode(getValue());
+        }
+    }
+}
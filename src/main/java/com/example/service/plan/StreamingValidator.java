@@ -0,0 +1,221 @@
+package com.example.service.plan;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The required, type and regex checks of a rule's validations, run over the JSON tokens
+ * of a payload before it is read into maps. Only the values the paths point at are read;
+ * every other subtree is skipped token by token.
+ * <p>
+ * SpEL checks need the payload as maps and are not run here, nor are validations whose
+ * path uses negative indexes, which need the length of the array first.
+ */
+public final class StreamingValidator {
+
+    private final List<CompiledValidation> validations;
+    private final PathNode root = new PathNode();
+
+    private StreamingValidator(List<CompiledValidation> validations) {
+        this.validations = validations;
+        for (int i = 0; i < validations.size(); i++) {
+            String path = validations.get(i).getPath();
+            PathNode node = root;
+            if (!JsonPath.selectsWholePayload(path)) {
+                JsonPath jsonPath = JsonPath.parse(path);
+                for (int step = 0; step < jsonPath.length(); step++) {
+                    node = node.child(jsonPath.step(step));
+                }
+            }
+            node.validations.add(i);
+        }
+    }
+
+    /**
+     * Returns a validator for the validations of {@code rule} that can be checked on the
+     * token stream, or {@code null} if there are none.
+     */
+    public static StreamingValidator of(CompiledRule rule) {
+        List<CompiledValidation> streamable = new ArrayList<>();
+        for (CompiledValidation validation : rule.getValidations()) {
+            if (isStreamable(validation)) {
+                streamable.add(validation);
+            }
+        }
+        return streamable.isEmpty() ? null : new StreamingValidator(streamable);
+    }
+
+    private static boolean isStreamable(CompiledValidation validation) {
+        if (!validation.isRequired() && validation.getType() == null && validation.getPattern() == null) {
+            return false;
+        }
+        String path = validation.getPath();
+        if (JsonPath.selectsWholePayload(path)) {
+            return true;
+        }
+        JsonPath jsonPath = JsonPath.parse(path);
+        for (int step = 0; step < jsonPath.length(); step++) {
+            if (jsonPath.step(step) instanceof Integer index && index < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public int size() {
+        return validations.size();
+    }
+
+    /**
+     * Reads one JSON value from the parser and returns the messages of the validations
+     * it fails, in validation order.
+     */
+    public List<String> validate(JsonParser parser) throws IOException {
+        State state = new State(validations.size());
+        JsonToken token = parser.currentToken() != null ? parser.currentToken() : parser.nextToken();
+        visit(parser, token, List.of(root), state);
+
+        List<String> messages = new ArrayList<>();
+        for (int i = 0; i < validations.size(); i++) {
+            CompiledValidation validation = validations.get(i);
+            // A path that selected nothing, or only nulls, has a missing value
+            if (state.failed[i] || (!state.selected[i] && validation.isRequired())) {
+                messages.add(validation.getMessage());
+            }
+        }
+        return messages;
+    }
+
+    private void visit(JsonParser parser, JsonToken token, List<PathNode> nodes, State state) throws IOException {
+        boolean checked = false;
+        for (PathNode node : nodes) {
+            checked |= !node.validations.isEmpty();
+        }
+        if (checked) {
+            Object value = valueOf(parser, token);
+            for (PathNode node : nodes) {
+                for (int i : node.validations) {
+                    if (value != null) {
+                        state.selected[i] = true;
+                    }
+                    if (!state.failed[i] && !validations.get(i).accepts(value)) {
+                        state.failed[i] = true;
+                    }
+                }
+            }
+        }
+
+        if (token == JsonToken.START_OBJECT) {
+            while ((token = parser.nextToken()) == JsonToken.FIELD_NAME) {
+                String name = parser.currentName();
+                List<PathNode> children = new ArrayList<>();
+                for (PathNode node : nodes) {
+                    node.membersNamed(name, children);
+                }
+                visitOrSkip(parser, parser.nextToken(), children, state);
+            }
+        } else if (token == JsonToken.START_ARRAY) {
+            int index = 0;
+            while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+                List<PathNode> children = new ArrayList<>();
+                for (PathNode node : nodes) {
+                    node.elementsAt(index, children);
+                }
+                visitOrSkip(parser, token, children, state);
+                index++;
+            }
+        }
+    }
+
+    private void visitOrSkip(JsonParser parser, JsonToken token, List<PathNode> nodes, State state) throws IOException {
+        if (nodes.isEmpty()) {
+            parser.skipChildren();
+        } else {
+            visit(parser, token, nodes, state);
+        }
+    }
+
+    /**
+     * The value a token stands for in the checks. Objects and arrays are stood for by an
+     * empty map or list, which has the same type and is never blank.
+     */
+    private static Object valueOf(JsonParser parser, JsonToken token) throws IOException {
+        switch (token) {
+            case START_OBJECT:
+                return Map.of();
+            case START_ARRAY:
+                return List.of();
+            case VALUE_STRING:
+                return parser.getText();
+            case VALUE_NUMBER_INT:
+            case VALUE_NUMBER_FLOAT:
+                return parser.getNumberValue();
+            case VALUE_TRUE:
+                return Boolean.TRUE;
+            case VALUE_FALSE:
+                return Boolean.FALSE;
+            default:
+                return null;
+        }
+    }
+
+    private static final class State {
+
+        final boolean[] failed;
+        /** Whether the path selected at least one non-null value. */
+        final boolean[] selected;
+
+        State(int size) {
+            failed = new boolean[size];
+            selected = new boolean[size];
+        }
+    }
+
+    /** One step of the paths being checked, shared by paths with the same prefix. */
+    private static final class PathNode {
+
+        final List<Integer> validations = new ArrayList<>();
+        final Map<String, PathNode> members = new HashMap<>();
+        final Map<Integer, PathNode> elements = new HashMap<>();
+        PathNode wildcard;
+
+        PathNode child(Object step) {
+            if (step == JsonPath.WILDCARD) {
+                if (wildcard == null) {
+                    wildcard = new PathNode();
+                }
+                return wildcard;
+            }
+            if (step instanceof Integer index) {
+                return elements.computeIfAbsent(index, i -> new PathNode());
+            }
+            return members.computeIfAbsent((String) step, name -> new PathNode());
+        }
+
+        void membersNamed(String name, List<PathNode> children) {
+            PathNode member = members.get(name);
+            if (member != null) {
+                children.add(member);
+            }
+            if (wildcard != null) {
+                children.add(wildcard);
+            }
+        }
+
+        void elementsAt(int index, List<PathNode> children) {
+            PathNode element = elements.get(index);
+            if (element != null) {
+                children.add(element);
+            }
+            if (wildcard != null) {
+                children.add(wildcard);
+            }
+        }
+    }
+}
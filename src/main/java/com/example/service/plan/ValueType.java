@@ -0,0 +1,58 @@
+package com.example.service.plan;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Value types supported by validation {@code type} checks.
+ * Unknown type names resolve to {@link #ANY}, which accepts every non-null value.
+ */
+public enum ValueType {
+    STRING,
+    NUMBER,
+    BOOLEAN,
+    OBJECT,
+    ARRAY,
+    ANY;
+
+    public static ValueType of(String type) {
+        switch (type.toLowerCase()) {
+            case "string":
+                return STRING;
+            case "number":
+                return NUMBER;
+            case "boolean":
+                return BOOLEAN;
+            case "object":
+                return OBJECT;
+            case "array":
+                return ARRAY;
+            default:
+                return ANY;
+        }
+    }
+
+    /**
+     * Checks if a value is of this type.
+     * Note: Empty strings are considered valid strings (use required validation for non-empty checks).
+     */
+    public boolean matches(Object value) {
+        if (value == null) {
+            return false; // null is not valid for any type
+        }
+        switch (this) {
+            case STRING:
+                return value instanceof String;
+            case NUMBER:
+                return value instanceof Number;
+            case BOOLEAN:
+                return value instanceof Boolean;
+            case OBJECT:
+                return value instanceof Map;
+            case ARRAY:
+                return value instanceof List;
+            default:
+                return true;
+        }
+    }
+}
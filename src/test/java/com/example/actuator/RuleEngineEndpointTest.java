@@ -0,0 +1,95 @@
+package com.example.actuator;
+
+import com.example.config.RestTemplateConfig;
+import com.example.model.rule.ExternalCall;
+import com.example.service.ExternalCallService;
+import com.example.service.RuleConfigService;
+import com.example.service.SpelEvaluator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
+import org.apache.hc.client5.http.impl.nio.PoolingAsyncClientConnectionManager;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+
+class RuleEngineEndpointTest {
+
+    private HttpServer server;
+    private CloseableHttpAsyncClient httpClient;
+    private PoolingAsyncClientConnectionManager connectionManager;
+    private ExternalCallService externalCallService;
+    private RuleEngineEndpoint endpoint;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/kyc", exchange -> {
+            byte[] body = "{\"status\": \"CLEAR\"}".getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+
+        RestTemplateConfig config = new RestTemplateConfig();
+        config.setMaxConnectionsTotal(7);
+        config.setMaxConnectionsPerRoute(3);
+        config.setConnectionTtl(Duration.ofMinutes(1));
+        connectionManager = config.externalCallConnectionManager();
+        httpClient = config.externalCallHttpClient(connectionManager);
+        SpelEvaluator spelEvaluator = new SpelEvaluator(new ObjectMapper());
+        externalCallService = new ExternalCallService(httpClient, spelEvaluator, new ObjectMapper());
+        endpoint = new RuleEngineEndpoint(spelEvaluator, connectionManager, externalCallService,
+                                          mock(RuleConfigService.class));
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        httpClient.close();
+        server.stop(0);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testSynchronousAndAsynchronousCallsShareThePool() throws Exception {
+        String url = "http://localhost:" + server.getAddress().getPort() + "/kyc";
+        ExternalCall sync = new ExternalCall("GET", url, null, null, "kyc");
+        ExternalCall async = new ExternalCall("GET", url, null, null, "kyc");
+        async.setAsync(true);
+
+        assertEquals(Map.of("status", "CLEAR"), externalCallService.invoke(sync, Map.of()));
+        // The connection goes back to the pool once the response has been read
+        while (connectionManager.getTotalStats().getLeased() > 0) {
+            Thread.sleep(1);
+        }
+        assertEquals(Map.of("status", "CLEAR"), externalCallService.invokeAsync(async, Map.of()).join());
+        while (connectionManager.getTotalStats().getLeased() > 0) {
+            Thread.sleep(1);
+        }
+
+        Map<String, Object> pool = (Map<String, Object>) endpoint.statistics().get("externalCallPool");
+        assertEquals(0, pool.get("leased"));
+        // Both calls were sent over one kept-alive connection
+        assertEquals(1, pool.get("idle"));
+        assertEquals(0, pool.get("pending"));
+        assertEquals(7, pool.get("max"));
+
+        Map<String, Object> routes = (Map<String, Object>) pool.get("routes");
+        Map<String, Object> route = (Map<String, Object>) routes.get("http://localhost:" + server.getAddress().getPort());
+        assertNotNull(route, routes.toString());
+        assertEquals(1, route.get("idle"));
+        assertEquals(3, route.get("max"));
+    }
+}
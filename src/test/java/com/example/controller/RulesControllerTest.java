@@ -5,6 +5,7 @@ import com.example.model.RuleResponse;
 import com.example.model.rule.RuleConfig;
 import com.example.service.RuleConfigService;
 import com.example.service.RuleEngine;
+import com.example.service.plan.CompiledRuleSet;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -15,6 +16,7 @@ import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
 
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import static org.mockito.ArgumentMatchers.any;
@@ -72,9 +74,10 @@ class RulesControllerTest {
         // Given
         RuleConfig config = new RuleConfig();
         config.setType("customer_onboard");
+        CompiledRuleSet ruleSet = new CompiledRuleSet(config, List.of());
 
-        when(ruleConfigService.loadConfig("customer_onboard")).thenReturn(config);
-        when(ruleEngine.execute(any(RuleRequest.class), eq(config))).thenReturn(validResponse);
+        when(ruleConfigService.loadRuleSet("customer_onboard")).thenReturn(ruleSet);
+        when(ruleEngine.execute(any(RuleRequest.class), eq(ruleSet))).thenReturn(validResponse);
 
         // When & Then
         mockMvc.perform(post("/rules/consume")
@@ -125,7 +128,7 @@ class RulesControllerTest {
     @Test
     void testConsumeRulesConfigNotFound() throws Exception {
         // Given
-        when(ruleConfigService.loadConfig("unknown_type")).thenThrow(new RuntimeException("Config not found"));
+        when(ruleConfigService.loadRuleSet("unknown_type")).thenThrow(new RuntimeException("Config not found"));
 
         RuleRequest request = new RuleRequest();
         request.setTypeOfRequest("unknown_type");
@@ -204,8 +207,10 @@ class RulesControllerTest {
         failedResponse.setTrace(new java.util.ArrayList<>());
         failedResponse.setExternalCalls(new java.util.ArrayList<>());
 
-        when(ruleConfigService.loadConfig("customer_onboard")).thenReturn(config);
-        when(ruleEngine.execute(any(RuleRequest.class), eq(config))).thenReturn(failedResponse);
+        CompiledRuleSet ruleSet = new CompiledRuleSet(config, List.of());
+
+        when(ruleConfigService.loadRuleSet("customer_onboard")).thenReturn(ruleSet);
+        when(ruleEngine.execute(any(RuleRequest.class), eq(ruleSet))).thenReturn(failedResponse);
 
         // When & Then
         mockMvc.perform(post("/rules/consume")
@@ -244,8 +249,10 @@ class RulesControllerTest {
         complexRequest.setTypeOfRequest("customer_onboard");
         complexRequest.setPayload(complexPayload);
 
-        when(ruleConfigService.loadConfig("customer_onboard")).thenReturn(config);
-        when(ruleEngine.execute(any(RuleRequest.class), eq(config))).thenReturn(validResponse);
+        CompiledRuleSet ruleSet = new CompiledRuleSet(config, List.of());
+
+        when(ruleConfigService.loadRuleSet("customer_onboard")).thenReturn(ruleSet);
+        when(ruleEngine.execute(any(RuleRequest.class), eq(ruleSet))).thenReturn(validResponse);
 
         // When & Then
         mockMvc.perform(post("/rules/consume")
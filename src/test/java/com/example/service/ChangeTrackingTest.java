@@ -0,0 +1,109 @@
+package com.example.service;
+
+import com.example.model.RuleRequest;
+import com.example.model.RuleResponse;
+import com.example.model.rule.*;
+import com.example.service.plan.JournaledMap;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@ExtendWith(MockitoExtension.class)
+class ChangeTrackingTest {
+
+    @Mock
+    private ExternalCallService externalCallService;
+
+    private RuleEngine ruleEngine;
+
+    @BeforeEach
+    void setUp() {
+        ObjectMapper objectMapper = new ObjectMapper();
+        SpelEvaluator spelEvaluator = new SpelEvaluator(objectMapper);
+        ruleEngine = new RuleEngine(spelEvaluator, new RuleSetCompiler(spelEvaluator), externalCallService, objectMapper);
+    }
+
+    private Rule rule(String id, String... transforms) {
+        Rule rule = new Rule();
+        rule.setId(id);
+        List<TransformStep> steps = new ArrayList<>();
+        for (String transform : transforms) {
+            steps.add(new TransformStep("SPEL", transform));
+        }
+        rule.setTransform(steps);
+        return rule;
+    }
+
+    private RuleResponse execute(RuleConfig config, Map<String, Object> payload) {
+        RuleRequest request = new RuleRequest();
+        request.setTypeOfRequest("test");
+        request.setPayload(new HashMap<>(payload));
+        return ruleEngine.execute(request, config);
+    }
+
+    private RuleConfig config(boolean rollbackOnError) {
+        RuleConfig config = new RuleConfig();
+        config.setType("test");
+        config.setTrackChanges(true);
+        config.setRollbackOnError(rollbackOnError);
+        config.setRules(List.of(
+            rule("normalise", "#payload['name'] = #payload['name'].trim()", "#payload['tier'] = 'gold'",
+                "#payload['country'] = 'IN'"),
+            rule("score", "#payload['score'] = 10", "#payload['name'] = 'partial'",
+                "#payload['ratio'] = #payload['score'] / #payload['zero']"),
+            rule("after", "#payload['seen'] = #payload['name']")
+        ));
+        return config;
+    }
+
+    @Test
+    void testTraceListsChangedKeys() {
+        RuleResponse response = execute(config(false), Map.of("name", " Ann ", "country", "IN", "zero", 0));
+        List<Map<String, Object>> trace = response.getTrace();
+
+        assertEquals(List.of("name", "tier"), trace.get(0).get("changedKeys"));
+        assertEquals("ERROR", trace.get(1).get("status"));
+        assertEquals(List.of("score", "name"), trace.get(1).get("changedKeys"));
+        assertNull(trace.get(1).get("rolledBackKeys"));
+        assertEquals("partial", ((Map<?, ?>) response.getTransformedPayload()).get("seen"));
+    }
+
+    @Test
+    void testRollsBackFailedRule() {
+        RuleResponse response = execute(config(true), Map.of("name", " Ann ", "zero", 0));
+        Map<?, ?> payload = (Map<?, ?>) response.getTransformedPayload();
+
+        assertEquals(List.of(), response.getTrace().get(1).get("changedKeys"));
+        assertEquals(List.of("score", "name"), response.getTrace().get(1).get("rolledBackKeys"));
+        assertFalse(payload.containsKey("score"));
+        assertEquals("Ann", payload.get("name"));
+        assertEquals("Ann", payload.get("seen"));
+        assertFalse(response.isValid());
+    }
+
+    @Test
+    void testJournaledMapRollback() {
+        Map<String, Object> target = new LinkedHashMap<>(Map.of("a", 1, "b", 2));
+        JournaledMap journal = new JournaledMap(target);
+        journal.put("a", 10);
+        int mark = journal.mark();
+        journal.put("a", 11);
+        journal.remove("b");
+        journal.put("c", 3);
+        journal.put("c", 4);
+        journal.entrySet().removeIf(entry -> entry.getKey().equals("a"));
+
+        assertEquals(List.of("a", "b", "c"), journal.changedSince(mark));
+        assertEquals(Map.of("c", 4), target);
+        assertEquals(List.of("a", "b", "c"), journal.rollback(mark));
+        assertEquals(Map.of("a", 10, "b", 2), target);
+        assertEquals(List.of("a"), journal.changedSince(0));
+    }
+}
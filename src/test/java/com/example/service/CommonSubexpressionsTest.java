@@ -0,0 +1,158 @@
+package com.example.service;
+
+import com.example.model.RuleRequest;
+import com.example.model.RuleResponse;
+import com.example.model.rule.*;
+import com.example.service.plan.CompiledRuleSet;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class CommonSubexpressionsTest {
+
+    @Mock
+    private ExternalCallService externalCallService;
+
+    private RuleSetCompiler ruleSetCompiler;
+    private RuleEngine ruleEngine;
+
+    @BeforeEach
+    void setUp() {
+        ObjectMapper objectMapper = new ObjectMapper();
+        SpelEvaluator spelEvaluator = new SpelEvaluator(objectMapper);
+        ruleSetCompiler = new RuleSetCompiler(spelEvaluator);
+        ruleEngine = new RuleEngine(spelEvaluator, ruleSetCompiler, externalCallService, objectMapper);
+    }
+
+    private Rule rule(String id, String when, String... transforms) {
+        Rule rule = new Rule();
+        rule.setId(id);
+        rule.setWhen(when);
+        List<TransformStep> steps = new ArrayList<>();
+        for (String transform : transforms) {
+            steps.add(new TransformStep("SPEL", transform));
+        }
+        rule.setTransform(steps);
+        return rule;
+    }
+
+    private CompiledRuleSet compile(Rule... rules) {
+        RuleConfig config = new RuleConfig();
+        config.setType("test");
+        config.setRules(Arrays.asList(rules));
+        return ruleSetCompiler.compile(config);
+    }
+
+    private RuleResponse execute(CompiledRuleSet ruleSet, Map<String, Object> payload) {
+        RuleRequest request = new RuleRequest();
+        request.setTypeOfRequest("test");
+        request.setPayload(new HashMap<>(payload));
+        return ruleEngine.execute(request, ruleSet);
+    }
+
+    @Test
+    void testRewritesRepeatedSubExpressions() {
+        String guard = "(#payload['email'] != null and (#payload['email']).endsWith('.corp'))";
+        CompiledRuleSet ruleSet = compile(
+            rule("a", guard + " or #payload['vip'] == true", "#ctx['a'] = 1"),
+            rule("b", guard, "#ctx['b'] = #payload['email'].toLowerCase()"),
+            rule("c", "#payload['age'] > 18", "#ctx['c'] = #payload['email'].toLowerCase()")
+        );
+
+        assertEquals(2, ruleSet.getSubexpressions().getSlotCount());
+        assertTrue(ruleSet.getRules().get(0).getWhen().getText().startsWith("(#__cse["));
+        assertTrue(ruleSet.getRules().get(1).getWhen().getText().startsWith("#__cse["));
+        assertEquals("#payload['age'] > 18", ruleSet.getRules().get(2).getWhen().getText());
+
+        RuleResponse response = execute(ruleSet, Map.of("email", "Ann@Acme.corp", "age", 30));
+        assertTrue(response.isValid(), () -> response.getErrors().toString());
+        assertEquals(List.of("TRANSFORMED", "TRANSFORMED", "TRANSFORMED"),
+            response.getTrace().stream().map(entry -> entry.get("status")).toList());
+    }
+
+    @Test
+    void testSharedGuardIsEvaluatedOncePerRequest() {
+        String guard = "#payload['email'] != null and (#payload['email']).endsWith('.corp')";
+        CompiledRuleSet ruleSet = compile(
+            rule("a", guard, "#ctx['a'] = 1"),
+            rule("b", guard, "#payload['b'] = true")
+        );
+        Map<String, Integer> reads = new HashMap<>();
+        Map<String, Object> payload = new HashMap<>(Map.of("email", "ann@acme.corp")) {
+            @Override
+            public Object get(Object key) {
+                reads.merge(String.valueOf(key), 1, Integer::sum);
+                return super.get(key);
+            }
+        };
+        RuleRequest request = new RuleRequest();
+        request.setTypeOfRequest("test");
+        request.bindPayload(payload);
+
+        RuleResponse response = ruleEngine.execute(request, ruleSet);
+
+        assertEquals(List.of("TRANSFORMED", "TRANSFORMED"),
+            response.getTrace().stream().map(entry -> entry.get("status")).toList());
+        // Both reads of the guard, once; the second rule uses the remembered value
+        assertEquals(2, reads.get("email"));
+    }
+
+    @Test
+    void testNoSlotsWithoutRepetition() {
+        CompiledRuleSet ruleSet = compile(
+            rule("a", "#payload['email'] != null", "#ctx['a'] = #payload['name'].trim()"),
+            rule("b", "#payload['age'] > 18")
+        );
+        assertNull(ruleSet.getSubexpressions());
+    }
+
+    @Test
+    void testWritesInvalidateRememberedValues() {
+        String longName = "#payload['name'].trim().length() > 3";
+        String highScore = "(#ctx['score'] ?: 0) + 1 > 10";
+        CompiledRuleSet ruleSet = compile(
+            rule("first", longName, "#payload['name'] = 'Al'"),
+            rule("second", longName, "#payload['second'] = true"),
+            rule("third", highScore, "#payload['third'] = true"),
+            rule("score", null, "#ctx['score'] = 100"),
+            rule("fourth", highScore, "#payload['fourth'] = true")
+        );
+        assertEquals(2, ruleSet.getSubexpressions().getSlotCount());
+
+        RuleResponse response = execute(ruleSet, Map.of("name", "  Alice  "));
+        Map<?, ?> payload = (Map<?, ?>) response.getTransformedPayload();
+        assertEquals("Al", payload.get("name"));
+        assertNull(payload.get("second"));
+        assertNull(payload.get("third"));
+        assertEquals(true, payload.get("fourth"));
+        assertEquals(List.of("TRANSFORMED", "SKIPPED", "SKIPPED", "TRANSFORMED", "TRANSFORMED"),
+            response.getTrace().stream().map(entry -> entry.get("status")).toList());
+    }
+
+    @Test
+    void testExternalCallResultInvalidatesRememberedValues() {
+        when(externalCallService.invoke(any(), any())).thenReturn(Map.of("score", 90));
+        Rule call = rule("call", null);
+        call.setExternalCall(new ExternalCall("GET", "http://localhost/check", null, null, "check"));
+        CompiledRuleSet ruleSet = compile(
+            rule("before", "#ctx['check']?.get('score') != null", "#payload['before'] = true"),
+            call,
+            rule("after", "#ctx['check']?.get('score') != null", "#payload['after'] = true")
+        );
+        assertNotNull(ruleSet.getSubexpressions());
+
+        Map<?, ?> payload = (Map<?, ?>) execute(ruleSet, Map.of()).getTransformedPayload();
+        assertNull(payload.get("before"));
+        assertEquals(true, payload.get("after"));
+    }
+}
@@ -0,0 +1,259 @@
+package com.example.service;
+
+import com.example.config.RuleRequestDeserializer;
+import com.example.model.RuleRequest;
+import com.example.model.RuleResponse;
+import com.example.model.rule.Rule;
+import com.example.model.rule.RuleConfig;
+import com.example.model.rule.TransformStep;
+import com.example.service.plan.CompiledRuleSet;
+import com.example.service.plan.MapShape;
+import com.example.service.plan.ShapedMap;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.beans.factory.ObjectProvider;
+
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class CompactPayloadTest {
+
+    @Mock
+    private ExternalCallService externalCallService;
+
+    private ObjectMapper objectMapper;
+    private RuleSetCompiler ruleSetCompiler;
+    private RuleEngine ruleEngine;
+
+    @BeforeEach
+    void setUp() {
+        objectMapper = new ObjectMapper();
+        SpelEvaluator spelEvaluator = new SpelEvaluator(objectMapper);
+        ruleSetCompiler = new RuleSetCompiler(spelEvaluator);
+        ruleEngine = new RuleEngine(spelEvaluator, ruleSetCompiler, externalCallService, objectMapper);
+    }
+
+    @Test
+    void testShapedMapBehavesAsMap() {
+        MapShape shape = new MapShape(List.of("name", "age", "score"), Set.of("age", "score"));
+        ShapedMap map = shape.newMap();
+        map.put("extra", "x");
+        map.put("age", 31);
+        map.put("score", 2.5);
+        map.put("name", null);
+
+        assertEquals(31, map.get("age"));
+        assertEquals(2.5, map.get("score"));
+        assertTrue(map.containsKey("name"));
+        assertNull(map.get("name"));
+        assertFalse(map.containsKey("missing"));
+        assertEquals(4, map.size());
+        assertEquals(List.of("extra", "age", "score", "name"), new ArrayList<>(map.keySet()));
+
+        Map<String, Object> expected = new HashMap<>();
+        expected.put("name", null);
+        expected.put("age", 31);
+        expected.put("score", 2.5);
+        expected.put("extra", "x");
+        assertEquals(expected, map);
+        assertEquals(map, expected);
+        assertEquals(expected.hashCode(), map.hashCode());
+
+        assertEquals(31, map.put("age", 9_000_000_000L));
+        assertEquals(9_000_000_000L, map.get("age"));
+        map.put("score", "high");
+        assertEquals("high", map.get("score"));
+        assertEquals(9_000_000_000L, map.remove("age"));
+        map.keySet().remove("extra");
+        assertEquals(2, map.size());
+        assertFalse(map.containsKey("age"));
+    }
+
+    @Test
+    void testReadsJsonIntoSlots() throws Exception {
+        MapShape shape = new MapShape(List.of("age", "tags"), Set.of("age"));
+        try (JsonParser parser = objectMapper.createParser("{\"age\": 31, \"tags\": [\"a\"], \"nested\": {\"b\": 1.5}}")) {
+            ShapedMap map = shape.read(parser);
+            assertEquals(Map.of("age", 31, "tags", List.of("a"), "nested", Map.of("b", 1.5)), map);
+        }
+    }
+
+    @Test
+    void testKeysKeepTheOrderTheyWereAddedIn() throws Exception {
+        MapShape shape = new MapShape(List.of("age", "email", "score"), Set.of("age", "score"));
+        try (JsonParser parser = objectMapper.createParser(
+                "{\"name\": \"Ann\", \"score\": 2.5, \"tags\": [], \"age\": 31, \"email\": null}")) {
+            ShapedMap map = shape.read(parser);
+            assertEquals(List.of("name", "score", "tags", "age", "email"), new ArrayList<>(map.keySet()));
+
+            // Overwriting keeps a key's place; removing it and adding it again moves it last
+            map.put("score", 3.0);
+            map.put("risk", "low");
+            map.remove("age");
+            map.remove("name");
+            map.put("age", 32);
+            assertEquals(List.of("score", "tags", "email", "risk", "age"), new ArrayList<>(map.keySet()));
+
+            Iterator<String> keys = map.keySet().iterator();
+            keys.next();
+            keys.next();
+            keys.remove();
+            assertEquals("email", keys.next());
+            assertEquals(List.of("score", "email", "risk", "age"), new ArrayList<>(map.keySet()));
+        }
+    }
+
+    @Test
+    void testCompactPayloadKeepsRequestKeyOrder() throws Exception {
+        RuleConfig config;
+        try (InputStream in = getClass().getResourceAsStream("/rules/customer_onboard_test.json")) {
+            config = objectMapper.readValue(in, RuleConfig.class);
+        }
+        CompiledRuleSet plain = ruleSetCompiler.compile(config);
+        config.setCompactPayload(true);
+        CompiledRuleSet compact = ruleSetCompiler.compile(config);
+
+        String payload = "{\"zip\": \"560001\", \"email\": \"jane@acme.corp\", \"lastName\": \" Doe \", "
+            + "\"age\": 31, \"firstName\": \" Jane \", \"country\": \"IN\"}";
+        RuleResponse expected = ruleEngine.execute(request(payload), plain);
+        RuleResponse actual = ruleEngine.execute(request(payload), compact);
+
+        assertInstanceOf(ShapedMap.class, actual.getTransformedPayload());
+        assertEquals(new ArrayList<>(((Map<?, ?>) expected.getTransformedPayload()).keySet()),
+            new ArrayList<>(((Map<?, ?>) actual.getTransformedPayload()).keySet()));
+        assertEquals(List.of("zip", "email", "lastName", "age", "firstName", "country"),
+            new ArrayList<>(((Map<?, ?>) actual.getTransformedPayload()).keySet()).subList(0, 6));
+    }
+
+    @Test
+    void testNumbersAreBoxedOnceWhenFirstRead() throws Exception {
+        MapShape shape = new MapShape(List.of("age", "score"), Set.of("age", "score"));
+        ShapedMap map;
+        try (JsonParser parser = objectMapper.createParser("{\"age\": 1000, \"score\": 2.5}")) {
+            map = shape.read(parser);
+        }
+
+        Object age = map.get("age");
+        assertEquals(1000, age);
+        assertSame(age, map.get("age"));
+        assertSame(age, map.getSlot(shape.slotOf("age")));
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long before = threads.getCurrentThreadAllocatedBytes();
+        for (int i = 0; i < 10_000; i++) {
+            map.get("age");
+            map.get("score");
+        }
+        // A box per read would be several hundred kilobytes
+        assertTrue(threads.getCurrentThreadAllocatedBytes() - before < 16 * 1024);
+
+        Integer written = 2000;
+        map.put("age", written);
+        assertSame(written, map.get("age"));
+    }
+
+    @Test
+    void testFastPathsUseContextSlotsWithoutKeyLookups() {
+        ObjectMapper mapper = new ObjectMapper();
+        SpelEvaluator spelEvaluator = new SpelEvaluator(mapper);
+        MapShape shape = new MapShape(List.of("baseRisk", "riskScore"), Set.of());
+        ShapedMap ctx = spy(shape.newMap());
+        ctx.setSlot(shape.slotOf("baseRisk"), 20);
+        ParsedExpression parsed = spelEvaluator.parse("#ctx['riskScore'] = #ctx['baseRisk']");
+
+        for (int i = 0; i < 3; i++) {
+            assertTrue(spelEvaluator.tryFastPath(parsed, spelEvaluator.createContext(new HashMap<>(), ctx, Map.of(), Map.of())));
+        }
+
+        assertEquals(20, ctx.getSlot(shape.slotOf("riskScore")));
+        // The slots are found once per shape, so no read or write hashes the key
+        verify(ctx, never()).get(any());
+        verify(ctx, never()).put(any(), any());
+    }
+
+    @Test
+    void testCompactPayloadMatchesHashMapPayload() throws Exception {
+        RuleConfig config;
+        try (InputStream in = getClass().getResourceAsStream("/rules/customer_onboard_test.json")) {
+            config = objectMapper.readValue(in, RuleConfig.class);
+        }
+        CompiledRuleSet plain = ruleSetCompiler.compile(config);
+        config.setCompactPayload(true);
+        CompiledRuleSet compact = ruleSetCompiler.compile(config);
+        assertNotNull(compact.getPayloadShape());
+
+        List<String> payloads = List.of(
+            "{\"firstName\": \" Jane \", \"lastName\": \" Doe \", \"email\": \"jane@acme.corp\", \"age\": 31, \"country\": \"IN\"}",
+            "{\"firstName\": \"Kid\", \"email\": \"not-an-email\", \"age\": 12.5}"
+        );
+        for (String payload : payloads) {
+            RuleResponse expected = ruleEngine.execute(request(payload), plain);
+            RuleResponse actual = ruleEngine.execute(request(payload), compact);
+
+            assertInstanceOf(ShapedMap.class, actual.getTransformedPayload());
+            assertEquals(expected.getErrors(), actual.getErrors());
+            Map<String, Object> expectedPayload = new HashMap<>((Map<String, Object>) expected.getTransformedPayload());
+            Map<String, Object> actualPayload = new HashMap<>((Map<String, Object>) actual.getTransformedPayload());
+            expectedPayload.remove("processedAt");
+            actualPayload.remove("processedAt");
+            assertEquals(expectedPayload, actualPayload);
+        }
+    }
+
+    @Test
+    void testContextKeysGetSlots() throws Exception {
+        Rule first = new Rule();
+        first.setId("first");
+        first.setTransform(List.of(
+            new TransformStep("SPEL", "#ctx['count'] = 40"),
+            new TransformStep("SPEL", "#ctx['count'] = #ctx['count'] + 2"),
+            new TransformStep("SPEL", "#ctx['name'] = #payload['name']?.trim()"),
+            new TransformStep("SPEL", "#ctx['ratio'] = #ctx.count / 8.0")));
+        Rule second = new Rule();
+        second.setId("second");
+        second.setWhen("#ctx['count'] > 41");
+        second.setTransform(List.of(new TransformStep("SPEL",
+            "#payload['summary'] = #ctx['name'] + ':' + #ctx['count'] + ':' + #ctx['ratio']")));
+        RuleConfig config = new RuleConfig();
+        config.setType("test");
+        config.setRules(List.of(first, second));
+        CompiledRuleSet ruleSet = ruleSetCompiler.compile(config);
+
+        MapShape ctxShape = ruleSet.getCtxShape();
+        assertNotNull(ctxShape);
+        for (String key : List.of("count", "name", "ratio")) {
+            assertTrue(ctxShape.slotOf(key) >= 0, key);
+        }
+        for (int round = 0; round < 2; round++) {
+            RuleResponse response = ruleEngine.execute(request("{\"name\": \" Ann \"}"), ruleSet);
+            assertTrue(response.isValid(), () -> response.getErrors().toString());
+            assertEquals("Ann:42:5.25", ((Map<?, ?>) response.getTransformedPayload()).get("summary"));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private RuleRequest request(String payload) throws Exception {
+        // Bound as the application does; no rule sets are loaded, so the engine reads the buffered payload
+        ObjectProvider<RuleConfigService> provider = mock(ObjectProvider.class);
+        when(provider.getObject()).thenReturn(mock(RuleConfigService.class));
+        ObjectMapper requestMapper = new ObjectMapper()
+            .registerModule(new SimpleModule().addDeserializer(RuleRequest.class, new RuleRequestDeserializer(provider)));
+        return requestMapper.readValue("{\"typeOfRequest\": \"test\", \"payload\": " + payload + "}", RuleRequest.class);
+    }
+}
@@ -0,0 +1,137 @@
+package com.example.service;
+
+import com.example.model.RuleRequest;
+import com.example.model.RuleResponse;
+import com.example.model.rule.*;
+import com.example.service.plan.CompiledRuleSet;
+import com.example.service.plan.RuleIndex;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@ExtendWith(MockitoExtension.class)
+class ConditionIndexerTest {
+
+    @Mock
+    private ExternalCallService externalCallService;
+
+    private RuleSetCompiler ruleSetCompiler;
+    private RuleEngine ruleEngine;
+
+    @BeforeEach
+    void setUp() {
+        ObjectMapper objectMapper = new ObjectMapper();
+        SpelEvaluator spelEvaluator = new SpelEvaluator(objectMapper);
+        ruleSetCompiler = new RuleSetCompiler(spelEvaluator);
+        ruleEngine = new RuleEngine(spelEvaluator, ruleSetCompiler, externalCallService, objectMapper);
+    }
+
+    private Rule rule(String id, String when, String transform) {
+        Rule rule = new Rule();
+        rule.setId(id);
+        rule.setWhen(when);
+        if (transform != null) {
+            rule.setTransform(List.of(new TransformStep("SPEL", transform)));
+        }
+        return rule;
+    }
+
+    private RuleConfig config(Rule... rules) {
+        RuleConfig config = new RuleConfig();
+        config.setType("test");
+        config.setRules(Arrays.asList(rules));
+        return config;
+    }
+
+    private BitSet candidates(CompiledRuleSet ruleSet, Map<String, Object> payload) {
+        return ruleSet.getRuleIndex().candidates(payload);
+    }
+
+    @Test
+    void testIndexesFirstTestOfCondition() {
+        CompiledRuleSet ruleSet = ruleSetCompiler.compile(config(
+            rule("in", "#payload['country'] == 'IN'", null),
+            rule("us", "'US' == #payload['country'] and #payload['age'] > 18", null),
+            rule("corp", "(#payload['email']).endsWith('.corp')", null),
+            rule("vip", "#payload['vip'] == true", null),
+            rule("age", "#payload['age'] > 18", null)
+        ));
+        RuleIndex index = ruleSet.getRuleIndex();
+        assertEquals(4, index.getIndexedRules());
+        assertEquals(3, index.getIndexedFields());
+
+        assertEquals(BitSet.valueOf(new long[] {0b10101}),
+            candidates(ruleSet, Map.of("country", "IN", "email", "a@b.corp", "vip", false)));
+        assertEquals(BitSet.valueOf(new long[] {0b11010}),
+            candidates(ruleSet, Map.of("country", "US", "email", "a@b.com", "vip", true)));
+        // A non-string value is left to the condition, which fails with an error
+        assertEquals(BitSet.valueOf(new long[] {0b10100}), candidates(ruleSet, Map.of("email", 42)));
+    }
+
+    @Test
+    void testFieldsWrittenByEarlierRulesAreNotIndexed() {
+        CompiledRuleSet ruleSet = ruleSetCompiler.compile(config(
+            rule("first", "#payload['country'] == 'IN'", "#payload['country'] = 'US'"),
+            rule("second", "#payload['country'] == 'US'", null),
+            rule("third", "#payload['tier'] == 'gold'", "#payload['messages']['a'] = 1"),
+            rule("fourth", "#payload['tier'] == 'gold'", null)
+        ));
+        assertEquals(2, ruleSet.getRuleIndex().getIndexedRules());
+        assertEquals(BitSet.valueOf(new long[] {0b1010}), candidates(ruleSet, Map.of("country", "US")));
+
+        assertNull(ruleSetCompiler.compile(config(rule("only", "#payload['age'] > 18", null))).getRuleIndex());
+    }
+
+    @Test
+    void testIndexedExecutionMatchesFullEvaluation() {
+        List<Rule> rules = new ArrayList<>();
+        String[] countries = {"IN", "US", "DE", "FR"};
+        for (int i = 0; i < 40; i++) {
+            String country = countries[i % countries.length];
+            rules.add(rule("r" + i, i % 3 == 0
+                    ? "#payload['email'].endsWith('." + country.toLowerCase() + "')"
+                    : "#payload['country'] == '" + country + "' and #payload['age'] >= " + (i % 30),
+                "#ctx['hits'] = (#ctx['hits'] ?: 0) + 1"));
+        }
+        rules.add(rule("total", null, "#payload['hits'] = #ctx['hits']"));
+        CompiledRuleSet indexed = ruleSetCompiler.compile(config(rules.toArray(new Rule[0])));
+        CompiledRuleSet unindexed = new CompiledRuleSet.Builder(indexed.getConfig(), indexed.getRules())
+            .programs(indexed.getPrograms())
+            .subexpressions(indexed.getSubexpressions())
+            .build();
+        assertNotNull(indexed.getRuleIndex());
+
+        List<Map<String, Object>> payloads = Arrays.asList(
+            Map.of("country", "IN", "age", 20, "email", "a@b.in"),
+            Map.of("country", "FR", "age", 5, "email", "a@b.fr"),
+            Map.of("age", 40),
+            Map.of("country", 7, "email", 7)
+        );
+        for (Map<String, Object> payload : payloads) {
+            RuleResponse expected = ruleEngine.execute(request(payload), unindexed);
+            RuleResponse actual = ruleEngine.execute(request(payload), indexed);
+
+            assertEquals(expected.getErrors(), actual.getErrors());
+            assertEquals(expected.getTransformedPayload(), actual.getTransformedPayload());
+            assertEquals(statuses(expected), statuses(actual));
+        }
+    }
+
+    private RuleRequest request(Map<String, Object> payload) {
+        RuleRequest request = new RuleRequest();
+        request.setTypeOfRequest("test");
+        request.setPayload(new HashMap<>(payload));
+        return request;
+    }
+
+    private List<Object> statuses(RuleResponse response) {
+        return response.getTrace().stream().map(entry -> entry.get("status")).toList();
+    }
+}
@@ -0,0 +1,81 @@
+package com.example.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConstantFolderTest {
+
+    private SpelEvaluator spelEvaluator;
+    private Map<String, Object> defaults;
+    private Map<String, String> env;
+
+    @BeforeEach
+    void setUp() {
+        spelEvaluator = new SpelEvaluator(new ObjectMapper());
+        defaults = new HashMap<>();
+        defaults.put("country", "IN");
+        defaults.put("riskThreshold", 70);
+        defaults.put("owner", "O'Brien");
+        env = new HashMap<>();
+        env.put("REGION", "eu");
+    }
+
+    private String fold(String expression) {
+        ConstantFolder folder = ConstantFolder.create(spelEvaluator, defaults, env, List.of(spelEvaluator.parse(expression)));
+        assertNotNull(folder);
+        return folder.fold(spelEvaluator.parse(expression)).getText();
+    }
+
+    @Test
+    void testFoldsConstantSubExpressions() {
+        assertEquals("#ctx['country']=((#payload['country'] != null) ? #payload['country'] : 'IN')",
+            fold("#ctx['country'] = ((#payload['country'] != null) ? #payload['country'] : #defaults['country'])"));
+        assertEquals("(#payload['risk'] > 35)", fold("#payload['risk'] > #defaults['riskThreshold'] / 2"));
+        assertEquals("#payload['owner'].equals('O''Brien')", fold("#payload['owner'].equals(#defaults.owner)"));
+        assertEquals("(#payload['region'] == 'eu')", fold("#payload['region'] == #env['REGION']"));
+    }
+
+    @Test
+    void testFoldsWholeConditionToLiteral() {
+        ParsedExpression when = spelEvaluator.parse("#defaults['country'] == 'IN' and #env['MISSING'] == null");
+        ParsedExpression folded = ConstantFolder.create(spelEvaluator, defaults, env, List.of(when)).fold(when);
+
+        assertTrue(ConstantFolder.isLiteral(folded));
+        assertEquals(true, ConstantFolder.literalValue(folded));
+    }
+
+    @Test
+    void testLeavesNonConstantExpressionsAlone() {
+        ParsedExpression missing = spelEvaluator.parse("#defaults.missing");
+        ParsedExpression method = spelEvaluator.parse("#defaults['country'].toLowerCase()");
+        ParsedExpression now = spelEvaluator.parse("#now.getYear() > #payload['year']");
+        ConstantFolder folder = ConstantFolder.create(spelEvaluator, defaults, env, List.of(missing, method, now));
+
+        assertSame(missing, folder.fold(missing));
+        assertSame(method, folder.fold(method));
+        assertSame(now, folder.fold(now));
+    }
+
+    @Test
+    void testNoFoldingWhenConstantsMayBeModified() {
+        defaults.put("limits", new HashMap<>(Map.of("max", 5)));
+
+        assertNull(ConstantFolder.create(spelEvaluator, defaults, env,
+            List.of(spelEvaluator.parse("#defaults['country'] = 'US'"))));
+        assertNull(ConstantFolder.create(spelEvaluator, defaults, env,
+            List.of(spelEvaluator.parse("#defaults.put('country', 'US')"))));
+        assertNull(ConstantFolder.create(spelEvaluator, defaults, env,
+            List.of(spelEvaluator.parse("#ctx['limits'] = #defaults['limits']"))));
+        assertNull(ConstantFolder.create(spelEvaluator, defaults, env,
+            List.of(spelEvaluator.parse("#defaults['limits'].put('max', 10)"))));
+        assertNotNull(ConstantFolder.create(spelEvaluator, defaults, env,
+            List.of(spelEvaluator.parse("#ctx['max'] = #defaults['limits']['max']"))));
+    }
+}
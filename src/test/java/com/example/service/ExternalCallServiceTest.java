@@ -1,17 +1,31 @@
 package com.example.service;
 
 import com.example.model.rule.ExternalCall;
+import com.example.model.rule.ExternalCallCache;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.hc.client5.http.async.methods.SimpleHttpRequest;
+import org.apache.hc.client5.http.async.methods.SimpleHttpResponse;
+import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
+import org.apache.hc.core5.concurrent.FutureCallback;
+import org.apache.hc.core5.http.ContentType;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
-import org.springframework.http.*;
-import org.springframework.web.client.RestTemplate;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.*;
@@ -21,23 +35,37 @@ import static org.mockito.Mockito.*;
 class ExternalCallServiceTest {
 
     @Mock
-    private RestTemplate restTemplate;
+    private CloseableHttpAsyncClient httpClient;
 
     @Mock
     private SpelEvaluator spelEvaluator;
 
-    @Mock
-    private ObjectMapper objectMapper;
-
     private ExternalCallService externalCallService;
 
     @BeforeEach
     void setUp() {
-        externalCallService = new ExternalCallService(restTemplate, spelEvaluator, objectMapper);
+        externalCallService = new ExternalCallService(httpClient, spelEvaluator, new ObjectMapper());
+    }
+
+    /** Answers every request with the given status and body. */
+    private void respond(int status, String body) {
+        when(httpClient.execute(any(SimpleHttpRequest.class), any())).thenAnswer(invocation -> {
+            FutureCallback<SimpleHttpResponse> callback = invocation.getArgument(1);
+            callback.completed(body != null
+                ? SimpleHttpResponse.create(status, body, ContentType.APPLICATION_JSON)
+                : SimpleHttpResponse.create(status));
+            return null;
+        });
+    }
+
+    private SimpleHttpRequest sentRequest() {
+        ArgumentCaptor<SimpleHttpRequest> request = ArgumentCaptor.forClass(SimpleHttpRequest.class);
+        verify(httpClient).execute(request.capture(), any());
+        return request.getValue();
     }
 
     @Test
-    void testInvokeGetCall() {
+    void testInvokeGetCall() throws Exception {
         // Given
         ExternalCall call = new ExternalCall();
         call.setMethod("GET");
@@ -46,16 +74,12 @@ class ExternalCallServiceTest {
         Map<String, Object> context = new HashMap<>();
         context.put("name", "John");
 
-        ResponseEntity<Map<String, Object>> responseEntity = mock(ResponseEntity.class);
         Map<String, Object> responseBody = new HashMap<>();
         responseBody.put("status", "success");
         responseBody.put("data", "test data");
 
         when(spelEvaluator.processTemplate("https://api.example.com/test", context)).thenReturn("https://api.example.com/test");
-        when(restTemplate.exchange(eq("https://api.example.com/test"), eq(HttpMethod.GET), any(), any(Class.class)))
-                .thenReturn(responseEntity);
-        when(responseEntity.getBody()).thenReturn(responseBody);
-        when(responseEntity.getStatusCode()).thenReturn(HttpStatus.OK);
+        respond(200, "{\"status\": \"success\", \"data\": \"test data\"}");
 
         // When
         Object result = externalCallService.invoke(call, context);
@@ -64,11 +88,14 @@ class ExternalCallServiceTest {
         assertNotNull(result);
         assertEquals(responseBody, result);
         verify(spelEvaluator).processTemplate("https://api.example.com/test", context);
-        verify(restTemplate).exchange(eq("https://api.example.com/test"), eq(HttpMethod.GET), any(), any(Class.class));
+        SimpleHttpRequest request = sentRequest();
+        assertEquals("GET", request.getMethod());
+        assertEquals("https://api.example.com/test", request.getUri().toString());
+        assertNull(request.getBody());
     }
 
     @Test
-    void testInvokePostCall() {
+    void testInvokePostCall() throws Exception {
         // Given
         ExternalCall call = new ExternalCall();
         call.setMethod("POST");
@@ -78,16 +105,12 @@ class ExternalCallServiceTest {
         Map<String, Object> context = new HashMap<>();
         context.put("name", "John");
 
-        ResponseEntity<Map<String, Object>> responseEntity = mock(ResponseEntity.class);
         Map<String, Object> responseBody = new HashMap<>();
         responseBody.put("status", "success");
 
         when(spelEvaluator.processTemplate("https://api.example.com/test", context)).thenReturn("https://api.example.com/test");
         when(spelEvaluator.processTemplate("{ \"name\": \"{{spel: #name}}\" }", context)).thenReturn("{ \"name\": \"John\" }");
-        when(restTemplate.exchange(eq("https://api.example.com/test"), eq(HttpMethod.POST), any(), any(Class.class)))
-                .thenReturn(responseEntity);
-        when(responseEntity.getBody()).thenReturn(responseBody);
-        when(responseEntity.getStatusCode()).thenReturn(HttpStatus.OK);
+        respond(200, "{\"status\": \"success\"}");
 
         // When
         Object result = externalCallService.invoke(call, context);
@@ -97,11 +120,14 @@ class ExternalCallServiceTest {
         assertEquals(responseBody, result);
         verify(spelEvaluator).processTemplate("https://api.example.com/test", context);
         verify(spelEvaluator).processTemplate("{ \"name\": \"{{spel: #name}}\" }", context);
-        verify(restTemplate).exchange(eq("https://api.example.com/test"), eq(HttpMethod.POST), any(), any(Class.class));
+        SimpleHttpRequest request = sentRequest();
+        assertEquals("POST", request.getMethod());
+        assertEquals("{ \"name\": \"John\" }", request.getBodyText());
+        assertEquals("application/json", request.getContentType().getMimeType());
     }
 
     @Test
-    void testInvokePostCallWithHeaders() {
+    void testInvokePostCallWithHeaders() throws Exception {
         // Given
         ExternalCall call = new ExternalCall();
         call.setMethod("POST");
@@ -117,7 +143,6 @@ class ExternalCallServiceTest {
         context.put("name", "John");
         context.put("token", "abc123");
 
-        ResponseEntity<Map<String, Object>> responseEntity = mock(ResponseEntity.class);
         Map<String, Object> responseBody = new HashMap<>();
         responseBody.put("status", "success");
 
@@ -125,10 +150,7 @@ class ExternalCallServiceTest {
         when(spelEvaluator.processTemplate("{ \"name\": \"{{spel: #name}}\" }", context)).thenReturn("{ \"name\": \"John\" }");
         when(spelEvaluator.processTemplate("Bearer {{spel: #token}}", context)).thenReturn("Bearer abc123");
         when(spelEvaluator.processTemplate("application/json", context)).thenReturn("application/json");
-        when(restTemplate.exchange(eq("https://api.example.com/test"), eq(HttpMethod.POST), any(), any(Class.class)))
-                .thenReturn(responseEntity);
-        when(responseEntity.getBody()).thenReturn(responseBody);
-        when(responseEntity.getStatusCode()).thenReturn(HttpStatus.OK);
+        respond(200, "{\"status\": \"success\"}");
 
         // When
         Object result = externalCallService.invoke(call, context);
@@ -138,6 +160,9 @@ class ExternalCallServiceTest {
         assertEquals(responseBody, result);
         verify(spelEvaluator).processTemplate("Bearer {{spel: #token}}", context);
         verify(spelEvaluator).processTemplate("application/json", context);
+        SimpleHttpRequest request = sentRequest();
+        assertEquals("Bearer abc123", request.getFirstHeader("Authorization").getValue());
+        assertEquals("application/json", request.getContentType().getMimeType());
     }
 
     @Test
@@ -154,6 +179,7 @@ class ExternalCallServiceTest {
 
         // Then
         assertNull(result);
+        verifyNoInteractions(httpClient);
     }
 
     @Test
@@ -181,13 +207,8 @@ class ExternalCallServiceTest {
 
         Map<String, Object> context = new HashMap<>();
 
-        ResponseEntity<Map<String, Object>> responseEntity = mock(ResponseEntity.class);
-
         when(spelEvaluator.processTemplate("https://api.example.com/test", context)).thenReturn("https://api.example.com/test");
-        when(restTemplate.exchange(eq("https://api.example.com/test"), eq(HttpMethod.GET), any(), any(Class.class)))
-                .thenReturn(responseEntity);
-        when(responseEntity.getBody()).thenReturn(null);
-        when(responseEntity.getStatusCode()).thenReturn(HttpStatus.NO_CONTENT);
+        respond(204, null);
 
         // When
         Object result = externalCallService.invoke(call, context);
@@ -206,15 +227,11 @@ class ExternalCallServiceTest {
 
         Map<String, Object> context = new HashMap<>();
 
-        ResponseEntity<Map<String, Object>> responseEntity = mock(ResponseEntity.class);
         Map<String, Object> responseBody = new HashMap<>();
         responseBody.put("status", "success");
 
         when(spelEvaluator.processTemplate("https://api.example.com/test", context)).thenReturn("https://api.example.com/test");
-        when(restTemplate.exchange(eq("https://api.example.com/test"), eq(HttpMethod.POST), any(), any(Class.class)))
-                .thenReturn(responseEntity);
-        when(responseEntity.getBody()).thenReturn(responseBody);
-        when(responseEntity.getStatusCode()).thenReturn(HttpStatus.OK);
+        respond(200, "{\"status\": \"success\"}");
 
         // When
         Object result = externalCallService.invoke(call, context);
@@ -223,5 +240,179 @@ class ExternalCallServiceTest {
         assertNotNull(result);
         assertEquals(responseBody, result);
         verify(spelEvaluator, never()).processTemplate(isNull(), any());
+        assertNull(sentRequest().getBody());
+    }
+
+    @Test
+    void testInvokeAsyncPostCall() throws Exception {
+        ExternalCall call = new ExternalCall();
+        call.setMethod("POST");
+        call.setUrl("https://api.example.com/test");
+        call.setBodyTemplate("{\"name\": \"${#payload['name']}\"}");
+        call.setHeaders(Map.of("X-Tenant", "acme"));
+        call.setAsync(true);
+
+        Map<String, Object> context = new HashMap<>();
+        when(spelEvaluator.processTemplate(anyString(), eq(context))).thenAnswer(invocation -> invocation.getArgument(0));
+        respond(200, "{\"status\": \"success\"}");
+
+        assertEquals(Map.of("status", "success"), externalCallService.invokeAsync(call, context).join());
+
+        SimpleHttpRequest request = sentRequest();
+        assertEquals("POST", request.getMethod());
+        assertEquals("acme", request.getFirstHeader("X-Tenant").getValue());
+        assertEquals("application/json", request.getContentType().getMimeType());
+
+        respond(503, "");
+        CompletionException failure = assertThrows(CompletionException.class,
+                () -> externalCallService.invokeAsync(call, context).join());
+        assertEquals("External call failed: 503 Service Unavailable", failure.getCause().getMessage());
+        assertInstanceOf(HttpServerErrorException.class, failure.getCause().getCause());
+    }
+
+    @Test
+    void testSynchronousAndAsynchronousCallsFailAlike() {
+        ExternalCall call = new ExternalCall("GET", "https://api.example.com/missing", null, null, "kyc");
+        call.setCoalesce(false);
+        when(spelEvaluator.processTemplate(anyString(), anyMap())).thenAnswer(invocation -> invocation.getArgument(0));
+        respond(404, "{\"error\": \"not found\"}");
+
+        RuntimeException sync = assertThrows(RuntimeException.class, () -> externalCallService.invoke(call, Map.of()));
+        CompletionException async = assertThrows(CompletionException.class,
+                () -> externalCallService.invokeAsync(call, Map.of()).join());
+
+        assertEquals("External call failed: 404 Not Found", sync.getMessage());
+        assertEquals(sync.getMessage(), async.getCause().getMessage());
+        assertInstanceOf(HttpClientErrorException.class, sync.getCause());
+        assertInstanceOf(HttpClientErrorException.class, async.getCause().getCause());
+    }
+
+    @Test
+    void testInvokeCachedCall() throws Exception {
+        ExternalCall call = new ExternalCall();
+        call.setMethod("GET");
+        call.setUrl("https://api.example.com/lang?code={{spel: #code}}");
+        call.setHeaders(Map.of("Accept-Language", "{{spel: #code}}", "X-Request-Id", "{{spel: #id}}"));
+        ExternalCallCache cache = new ExternalCallCache();
+        cache.setTtl("10m");
+        cache.setKeyHeaders(List.of("Accept-Language"));
+        call.setCache(cache);
+
+        Map<String, Object> responseBody = Map.of("hello", "Hello");
+        when(spelEvaluator.processTemplate(anyString(), anyMap())).thenAnswer(invocation ->
+                ((String) invocation.getArgument(0)).replace("{{spel: #code}}", String.valueOf(
+                        ((Map<?, ?>) invocation.getArgument(1)).get("code")))
+                    .replace("{{spel: #id}}", String.valueOf(((Map<?, ?>) invocation.getArgument(1)).get("id"))));
+        respond(200, "{\"hello\": \"Hello\"}");
+
+        assertEquals(responseBody, externalCallService.invoke(call, Map.of("code", "en", "id", "1")));
+        // A header outside the key does not make a new entry
+        assertEquals(responseBody, externalCallService.invoke(call, Map.of("code", "en", "id", "2")));
+        assertEquals(responseBody, externalCallService.invoke(call, Map.of("code", "fr", "id", "3")));
+
+        ArgumentCaptor<SimpleHttpRequest> requests = ArgumentCaptor.forClass(SimpleHttpRequest.class);
+        verify(httpClient, times(2)).execute(requests.capture(), any());
+        assertEquals("https://api.example.com/lang?code=en", requests.getAllValues().get(0).getUri().toString());
+        assertEquals("https://api.example.com/lang?code=fr", requests.getAllValues().get(1).getUri().toString());
+        Map<String, Object> stats = externalCallService.getCacheStats(call);
+        assertEquals(1L, stats.get("hits"));
+        assertEquals(2L, stats.get("misses"));
+    }
+
+    @Test
+    void testStaleResponseOfSynchronousCallIsRefreshedBySendingOnAnotherThread() throws Exception {
+        ExternalCall call = new ExternalCall("GET", "https://api.example.com/rates", null, null, "rates");
+        ExternalCallCache cache = new ExternalCallCache();
+        cache.setTtl("1ms");
+        cache.setStaleWhileRevalidate("1h");
+        call.setCache(cache);
+
+        List<String> sendingThreads = new CopyOnWriteArrayList<>();
+        when(spelEvaluator.processTemplate(anyString(), anyMap())).thenAnswer(invocation -> invocation.getArgument(0));
+        when(httpClient.execute(any(SimpleHttpRequest.class), any())).thenAnswer(invocation -> {
+            sendingThreads.add(Thread.currentThread().getName());
+            FutureCallback<SimpleHttpResponse> callback = invocation.getArgument(1);
+            callback.completed(SimpleHttpResponse.create(200, "{\"rate\": " + sendingThreads.size() + "}",
+                    ContentType.APPLICATION_JSON));
+            return null;
+        });
+
+        assertEquals(Map.of("rate", 1), externalCallService.invoke(call, Map.of()));
+        Thread.sleep(5);
+        // The stale response is returned at once while the refresh is sent in the background
+        assertEquals(Map.of("rate", 1), externalCallService.invoke(call, Map.of()));
+        verify(httpClient, timeout(5000).times(2)).execute(any(SimpleHttpRequest.class), any());
+
+        assertEquals(List.of(Thread.currentThread().getName(), "external-call-refresh"), sendingThreads);
+        assertEquals(1L, externalCallService.getCacheStats(call).get("refreshes"));
+    }
+
+    @Test
+    void testConcurrentIdenticalCallsShareOneRequest() throws Exception {
+        ExternalCall call = new ExternalCall();
+        call.setMethod("GET");
+        call.setUrl("https://api.example.com/kyc");
+
+        CountDownLatch release = new CountDownLatch(1);
+        when(spelEvaluator.processTemplate(anyString(), anyMap())).thenAnswer(invocation -> invocation.getArgument(0));
+        when(httpClient.execute(any(SimpleHttpRequest.class), any())).thenAnswer(invocation -> {
+            FutureCallback<SimpleHttpResponse> callback = invocation.getArgument(1);
+            CompletableFuture.runAsync(() -> {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                callback.completed(SimpleHttpResponse.create(200, "{\"status\": \"CLEAR\"}", ContentType.APPLICATION_JSON));
+            });
+            return null;
+        });
+
+        CompletableFuture<Object> first = CompletableFuture.supplyAsync(() -> externalCallService.invoke(call, Map.of()));
+        while (externalCallService.getCoalescingStats().get("inFlight").equals(0)) {
+            Thread.sleep(1);
+        }
+        CompletableFuture<Object> second = CompletableFuture.supplyAsync(() -> externalCallService.invoke(call, Map.of()));
+        while (externalCallService.getCoalescingStats().get("coalesced").equals(0L)) {
+            Thread.sleep(1);
+        }
+        release.countDown();
+
+        assertEquals(Map.of("status", "CLEAR"), first.get(5, TimeUnit.SECONDS));
+        assertEquals(Map.of("status", "CLEAR"), second.get(5, TimeUnit.SECONDS));
+        assertNotSame(first.get(), second.get());
+        verify(httpClient, times(1)).execute(any(SimpleHttpRequest.class), any());
+        assertEquals(0, externalCallService.getCoalescingStats().get("inFlight"));
+
+        // Once the request has finished, the next call sends its own
+        externalCallService.invoke(call, Map.of());
+        verify(httpClient, times(2)).execute(any(SimpleHttpRequest.class), any());
+    }
+
+    @Test
+    void testAsyncCoalescingFollowsMethodDefault() throws Exception {
+        List<FutureCallback<SimpleHttpResponse>> pending = new ArrayList<>();
+        when(spelEvaluator.processTemplate(anyString(), anyMap())).thenAnswer(invocation -> invocation.getArgument(0));
+        when(httpClient.execute(any(SimpleHttpRequest.class), any())).thenAnswer(invocation -> {
+            pending.add(invocation.getArgument(1));
+            return null;
+        });
+
+        ExternalCall get = new ExternalCall("GET", "https://api.example.com/kyc", null, null, "kyc");
+        ExternalCall post = new ExternalCall("POST", "https://api.example.com/kyc", null, "{}", "kyc");
+        // The caller that sends the request giving up does not fail the others sharing it
+        CompletableFuture<Object> dropped = externalCallService.invokeAsync(get, Map.of());
+        CompletableFuture<Object> first = externalCallService.invokeAsync(get, Map.of());
+        CompletableFuture<Object> second = externalCallService.invokeAsync(get, Map.of());
+        dropped.cancel(false);
+        externalCallService.invokeAsync(post, Map.of());
+        externalCallService.invokeAsync(post, Map.of());
+        pending.forEach(callback ->
+                callback.completed(SimpleHttpResponse.create(200, "{\"status\": \"CLEAR\"}", ContentType.APPLICATION_JSON)));
+
+        assertEquals(first.join(), second.join());
+        assertNotSame(first.join(), second.join());
+        assertEquals(3, pending.size());
+        assertEquals(2L, externalCallService.getCoalescingStats().get("coalesced"));
     }
 }
@@ -0,0 +1,112 @@
+package com.example.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FastPathsTest {
+
+    private SpelEvaluator spelEvaluator;
+
+    @BeforeEach
+    void setUp() {
+        spelEvaluator = new SpelEvaluator(new ObjectMapper());
+    }
+
+    private Map<String, Object> payload(Object... keyValues) {
+        Map<String, Object> payload = new HashMap<>();
+        for (int i = 0; i < keyValues.length; i += 2) {
+            payload.put((String) keyValues[i], keyValues[i + 1]);
+        }
+        return payload;
+    }
+
+    /**
+     * Runs an expression through its fast path and through SpEL on copies of the same
+     * payload and ctx, and checks both leave the same state behind.
+     */
+    private void assertSameAsSpel(String expression, Map<String, Object> payload, Map<String, Object> ctx) {
+        ParsedExpression parsed = spelEvaluator.parse(expression);
+        assertTrue(parsed.hasFastPath(), expression);
+
+        Map<String, Object> fastPayload = new HashMap<>(payload);
+        Map<String, Object> fastCtx = new HashMap<>(ctx);
+        Map<String, Object> slowPayload = new HashMap<>(payload);
+        Map<String, Object> slowCtx = new HashMap<>(ctx);
+        Map<String, Object> defaults = Map.of("country", "IN");
+
+        boolean fast = spelEvaluator.tryFastPath(parsed,
+            spelEvaluator.createContext(fastPayload, fastCtx, defaults, Map.of()));
+        if (!fast) {
+            assertEquals(payload, fastPayload, "fallback must not change anything");
+            assertEquals(ctx, fastCtx, "fallback must not change anything");
+            return;
+        }
+        spelEvaluator.evaluate(expression, spelEvaluator.createContext(slowPayload, slowCtx, defaults, Map.of()));
+        assertEquals(slowPayload, fastPayload, expression);
+        assertEquals(slowCtx, fastCtx, expression);
+    }
+
+    @Test
+    void testFastPathsMatchSpel() {
+        List<String> expressions = Arrays.asList(
+            "#payload['firstName'] = #payload['firstName']?.trim()",
+            "#ctx['fullName'] = #payload['firstName']",
+            "#payload['a'] = (#ctx['b'] != null ? #ctx['b'] : 'default')",
+            "#ctx['country'] = ((#payload['country'] != null) ? #payload['country'] : #defaults['country'])",
+            "#ctx['baseRisk'] = ((#ctx['baseRisk']?:0) - 5)",
+            "#ctx['baseRisk'] = (#ctx['baseRisk'] ?: 10) + 1L",
+            "#payload['flag'] = true",
+            "#payload['gone'] = null"
+        );
+        List<Map<String, Object>> payloads = Arrays.asList(
+            payload(),
+            payload("firstName", "  Ann ", "country", "US"),
+            payload("firstName", "", "country", ""),
+            payload("firstName", 42, "country", null)
+        );
+        List<Map<String, Object>> ctxs = Arrays.asList(
+            payload(),
+            payload("b", "x", "baseRisk", 20),
+            payload("b", "", "baseRisk", Integer.MIN_VALUE),
+            payload("baseRisk", 7L),
+            payload("baseRisk", 1.5)
+        );
+        for (String expression : expressions) {
+            for (Map<String, Object> payload : payloads) {
+                for (Map<String, Object> ctx : ctxs) {
+                    assertSameAsSpel(expression, payload, ctx);
+                }
+            }
+        }
+    }
+
+    @Test
+    void testFallsBackForValuesItDoesNotHandle() {
+        Map<String, Object> payload = payload("name", 42);
+        Map<String, Object> ctx = payload("risk", 1.5);
+        Map<String, Object> context = spelEvaluator.createContext(payload, ctx, Map.of(), Map.of());
+
+        assertFalse(spelEvaluator.tryFastPath(spelEvaluator.parse("#payload['name'] = #payload['name']?.trim()"), context));
+        assertFalse(spelEvaluator.tryFastPath(spelEvaluator.parse("#payload['name'] = #payload['missing'].trim()"), context));
+        assertFalse(spelEvaluator.tryFastPath(spelEvaluator.parse("#ctx['risk'] = #ctx['risk'] - 1"), context));
+        assertEquals(42, payload.get("name"));
+        assertEquals(1.5, ctx.get("risk"));
+    }
+
+    @Test
+    void testOtherShapesHaveNoFastPath() {
+        assertFalse(spelEvaluator.parse("#payload['age'] >= 18").hasFastPath());
+        assertFalse(spelEvaluator.parse("#payload['name'] = #payload['name'].toUpperCase()").hasFastPath());
+        assertFalse(spelEvaluator.parse("#ctx['fullName'] = #payload['first'] + ' ' + #payload['last']").hasFastPath());
+        assertFalse(spelEvaluator.parse("#payload['messages'] = new java.util.HashMap()").hasFastPath());
+        assertFalse(spelEvaluator.parse("#payload['processedAt'] = #now.toString()").hasFastPath());
+    }
+}
@@ -0,0 +1,242 @@
+package com.example.service;
+
+import com.example.config.RuleExecutionConfig;
+import com.example.model.RuleRequest;
+import com.example.model.RuleResponse;
+import com.example.model.rule.*;
+import com.example.service.plan.CompiledRule;
+import com.example.service.plan.CompiledRuleSet;
+import com.example.service.plan.DependencyGraph;
+import com.example.service.plan.RuleAccess;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.io.InputStream;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class ParallelExecutionTest {
+
+    @Mock
+    private ExternalCallService externalCallService;
+
+    private ObjectMapper objectMapper;
+    private SpelEvaluator spelEvaluator;
+    private RuleSetCompiler ruleSetCompiler;
+    private RuleEngine ruleEngine;
+
+    @BeforeEach
+    void setUp() {
+        objectMapper = new ObjectMapper();
+        spelEvaluator = new SpelEvaluator(objectMapper);
+        ruleSetCompiler = new RuleSetCompiler(spelEvaluator);
+        RuleExecutionConfig executionConfig = new RuleExecutionConfig();
+        executionConfig.setParallelism(4);
+        ruleEngine = new RuleEngine(spelEvaluator, ruleSetCompiler, externalCallService, objectMapper, executionConfig);
+    }
+
+    private Rule transformRule(String id, String... spels) {
+        Rule rule = new Rule();
+        rule.setId(id);
+        List<TransformStep> steps = new ArrayList<>();
+        for (String spel : spels) {
+            steps.add(new TransformStep("SPEL", spel));
+        }
+        rule.setTransform(steps);
+        return rule;
+    }
+
+    private RuleAccess access(Rule rule) {
+        RuleConfig config = new RuleConfig();
+        config.setType("test");
+        config.setRules(List.of(rule));
+        CompiledRule compiled = ruleSetCompiler.compile(config).getRules().get(0);
+        List<ParsedExpression> expressions = new ArrayList<>(compiled.getTransforms());
+        if (compiled.getWhen() != null) {
+            expressions.add(compiled.getWhen());
+        }
+        return AccessAnalyzer.analyze(compiled, expressions);
+    }
+
+    @Test
+    void testAnalyzesReadsAndWrites() {
+        Rule rule = transformRule("r",
+            "#ctx['fullName'] = #payload['first'].trim() + ' ' + (#payload.last ?: '')",
+            "#ctx['count']++");
+        rule.setWhen("(#payload['email']).endsWith('.corp')");
+        rule.setValidate(List.of(new ValidationRule("$.age", true, "number", null, null, "age")));
+        RuleAccess access = access(rule);
+
+        assertFalse(access.isUnrestricted());
+        assertEquals(Set.of("first", "last", "email", "age"), access.getPayloadReads());
+        assertEquals(Set.of(), access.getPayloadWrites());
+        assertEquals(Set.of("count"), access.getCtxReads());
+        assertEquals(Set.of("fullName", "count"), access.getCtxWrites());
+    }
+
+    @Test
+    void testUnrestrictedAccess() {
+        assertTrue(access(transformRule("r", "#payload[#ctx['key']] = 1")).isUnrestricted());
+        assertTrue(access(transformRule("r", "#payload['messages']['a'] = 'x'")).isUnrestricted());
+        assertTrue(access(transformRule("r", "#payload['items'].add(1)")).isUnrestricted());
+        assertTrue(access(transformRule("r", "#ctx['n'] = #payload['counter'].getAndIncrement()")).isUnrestricted());
+        assertTrue(access(transformRule("r", "#ctx['all'] = #payload")).isUnrestricted());
+        assertTrue(access(transformRule("r", "#ctx['n'] = T(java.lang.Math).max(1, 2)")).isUnrestricted());
+        assertFalse(access(transformRule("r", "#payload['messages'] = new java.util.HashMap()")).isUnrestricted());
+    }
+
+    @Test
+    void testDependencyGraph() {
+        Rule a = transformRule("a", "#ctx['x'] = #payload['in']");
+        Rule b = transformRule("b", "#ctx['y'] = #payload['in']");
+        Rule c = transformRule("c", "#payload['out'] = #ctx['x'] + #ctx['y']");
+        Rule stop = transformRule("stop", "#ctx['z'] = 1");
+        stop.setOnSuccess(new Action("STOP"));
+        Rule d = transformRule("d", "#ctx['w'] = 1");
+
+        RuleConfig config = new RuleConfig();
+        config.setType("test");
+        config.setParallel(true);
+        config.setRules(List.of(a, b, c, stop, d));
+        DependencyGraph graph = ruleSetCompiler.compile(config).getDependencyGraph();
+
+        assertArrayEquals(new int[0], graph.dependenciesOf(0));
+        assertArrayEquals(new int[0], graph.dependenciesOf(1));
+        assertArrayEquals(new int[] {0, 1}, graph.dependenciesOf(2));
+        assertArrayEquals(new int[] {0, 1, 2}, graph.dependenciesOf(3));
+        assertArrayEquals(new int[] {3}, graph.dependenciesOf(4));
+        assertTrue(graph.isBarrier(3));
+        assertEquals(4, graph.criticalPathLength());
+
+        config.setParallel(false);
+        assertNull(ruleSetCompiler.compile(config).getDependencyGraph());
+    }
+
+    @Test
+    void testParallelExecutionMatchesSequential() throws Exception {
+        RuleConfig config;
+        try (InputStream in = getClass().getResourceAsStream("/rules/customer_onboard_test.json")) {
+            config = objectMapper.readValue(in, RuleConfig.class);
+        }
+        CompiledRuleSet sequential = ruleSetCompiler.compile(config);
+        config.setParallel(true);
+        CompiledRuleSet parallel = ruleSetCompiler.compile(config);
+
+        List<Map<String, Object>> payloads = Arrays.asList(
+            Map.of("firstName", " Jane ", "lastName", " Doe ", "email", "jane@acme.corp", "age", 31, "country", "IN"),
+            Map.of("firstName", "Bob", "lastName", "Smith", "email", "bob@example.com", "age", 19),
+            Map.of("firstName", "Kid", "email", "not-an-email", "age", 12)
+        );
+        for (Map<String, Object> payload : payloads) {
+            for (int round = 0; round < 20; round++) {
+                RuleResponse expected = ruleEngine.execute(request(payload), sequential);
+                RuleResponse actual = ruleEngine.execute(request(payload), parallel);
+
+                assertEquals(expected.isValid(), actual.isValid());
+                assertEquals(expected.getErrors(), actual.getErrors());
+                Map<String, Object> expectedPayload = new HashMap<>((Map<String, Object>) expected.getTransformedPayload());
+                Map<String, Object> actualPayload = new HashMap<>((Map<String, Object>) actual.getTransformedPayload());
+                expectedPayload.remove("processedAt");
+                actualPayload.remove("processedAt");
+                assertEquals(expectedPayload, actualPayload);
+                assertEquals(statuses(expected), statuses(actual));
+            }
+        }
+    }
+
+    @Test
+    void testIndependentRulesRunConcurrently() {
+        CountDownLatch bothStarted = new CountDownLatch(2);
+        when(externalCallService.invoke(any(), any())).thenAnswer(invocation -> {
+            bothStarted.countDown();
+            // Only returns a result if the other call is in flight at the same time
+            return bothStarted.await(5, TimeUnit.SECONDS) ? Map.of("status", "OK") : null;
+        });
+
+        Rule first = new Rule();
+        first.setId("first");
+        first.setExternalCall(new ExternalCall("GET", "http://localhost/a", null, null, "a"));
+        Rule second = new Rule();
+        second.setId("second");
+        second.setExternalCall(new ExternalCall("GET", "http://localhost/b", null, null, "b"));
+        Rule combine = transformRule("combine", "#payload['a'] = #ctx['a']['status']", "#payload['b'] = #ctx['b']['status']");
+
+        RuleConfig config = new RuleConfig();
+        config.setType("test");
+        config.setParallel(true);
+        config.setRules(List.of(first, second, combine));
+        RuleResponse response = ruleEngine.execute(request(Map.of()), ruleSetCompiler.compile(config));
+
+        assertTrue(response.isValid(), () -> response.getErrors().toString());
+        assertEquals(List.of("EXTERNAL_CALL", "EXTERNAL_CALL", "TRANSFORMED"), statuses(response));
+        assertEquals("OK", ((Map<?, ?>) response.getTransformedPayload()).get("a"));
+        assertEquals("OK", ((Map<?, ?>) response.getTransformedPayload()).get("b"));
+        assertEquals(List.of("first", "second"),
+            response.getExternalCalls().stream().map(call -> call.get("ruleId")).toList());
+    }
+
+    @Test
+    void testNewPayloadKeysFollowRuleOrder() {
+        // The first rule only finishes once the rules after it have added their keys
+        AtomicBoolean waitForLaterRules = new AtomicBoolean();
+        when(externalCallService.invoke(any(), any())).thenAnswer(invocation -> {
+            Map<?, ?> payload = (Map<?, ?>) ((Map<?, ?>) invocation.getArgument(1)).get("payload");
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (waitForLaterRules.get() && !payload.containsKey("third") && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+            return Map.of("status", "OK");
+        });
+
+        Rule first = transformRule("first", "#payload['first'] = #ctx['kyc']['status']", "#payload['firstChecked'] = true");
+        first.setExternalCall(new ExternalCall("GET", "http://localhost/kyc", null, null, "kyc"));
+        Rule second = transformRule("second", "#payload['second'] = #payload['name'] + '!'");
+        Rule third = transformRule("third", "#payload['third'] = 3", "#payload['name'] = 'renamed'");
+
+        RuleConfig config = new RuleConfig();
+        config.setType("test");
+        config.setRules(List.of(first, second, third));
+        RuleResponse expected = ruleEngine.execute(orderedRequest(), ruleSetCompiler.compile(config));
+        config.setParallel(true);
+        waitForLaterRules.set(true);
+        RuleResponse actual = ruleEngine.execute(orderedRequest(), ruleSetCompiler.compile(config));
+
+        assertTrue(actual.isValid(), () -> actual.getErrors().toString());
+        List<String> expectedKeys = new ArrayList<>(((Map<String, Object>) expected.getTransformedPayload()).keySet());
+        assertEquals(List.of("zone", "name", "first", "firstChecked", "second", "third"), expectedKeys);
+        assertEquals(expectedKeys, new ArrayList<>(((Map<String, Object>) actual.getTransformedPayload()).keySet()));
+        assertEquals(expected.getTransformedPayload(), actual.getTransformedPayload());
+    }
+
+    private RuleRequest orderedRequest() {
+        Map<String, Object> payload = new LinkedHashMap<>();
+        payload.put("zone", "EU");
+        payload.put("name", "Jane");
+        RuleRequest request = new RuleRequest();
+        request.setTypeOfRequest("test");
+        request.setPayload(payload);
+        return request;
+    }
+
+    private RuleRequest request(Map<String, Object> payload) {
+        RuleRequest request = new RuleRequest();
+        request.setTypeOfRequest("test");
+        request.setPayload(new HashMap<>(payload));
+        return request;
+    }
+
+    private List<Object> statuses(RuleResponse response) {
+        return response.getTrace().stream().map(entry -> entry.get("status")).toList();
+    }
+}
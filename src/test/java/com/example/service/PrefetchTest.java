@@ -0,0 +1,143 @@
+package com.example.service;
+
+import com.example.model.RuleRequest;
+import com.example.model.RuleResponse;
+import com.example.model.rule.*;
+import com.example.service.plan.CompiledRuleSet;
+import com.example.service.plan.PrefetchPlan;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class PrefetchTest {
+
+    @Mock
+    private ExternalCallService externalCallService;
+
+    private RuleSetCompiler ruleSetCompiler;
+    private RuleEngine ruleEngine;
+
+    @BeforeEach
+    void setUp() {
+        ObjectMapper objectMapper = new ObjectMapper();
+        SpelEvaluator spelEvaluator = new SpelEvaluator(objectMapper);
+        ruleSetCompiler = new RuleSetCompiler(spelEvaluator);
+        ruleEngine = new RuleEngine(spelEvaluator, ruleSetCompiler, externalCallService, objectMapper);
+    }
+
+    private Rule call(String id, String method, String url, String saveAs) {
+        Rule rule = new Rule();
+        rule.setId(id);
+        rule.setExternalCall(new ExternalCall(method, url, null, null, saveAs));
+        return rule;
+    }
+
+    private Rule transform(String id, String spel) {
+        Rule rule = new Rule();
+        rule.setId(id);
+        rule.setTransform(List.of(new TransformStep("SPEL", spel)));
+        return rule;
+    }
+
+    private RuleConfig config(Rule... rules) {
+        RuleConfig config = new RuleConfig();
+        config.setType("test");
+        config.setPrefetchExternalCalls(true);
+        config.setRules(List.of(rules));
+        return config;
+    }
+
+    @Test
+    void testCallsStartAfterTheirInputsAreWritten() {
+        RuleConfig config = config(
+            call("customer", "GET", "https://api.example.com/customers/{{spel: #payload['id']}}", "customer"),
+            transform("region", "#payload['region'] = (#payload['country'] == 'IN' ? 'apac' : 'emea')"),
+            call("kyc", "GET", "https://api.example.com/kyc/{{spel: #payload['id']}}", "kyc"),
+            call("pricing", "GET", "https://{{spel: #payload['region']}}.example.com/price", "price"),
+            call("audit", "POST", "https://api.example.com/audit/{{spel: #payload['id']}}", "audit"),
+            call("summary", "GET", "https://api.example.com/summary/{{spel: #ctx['kyc']['level']}}", "summary"));
+        PrefetchPlan plan = ruleSetCompiler.compile(config).getPrefetchPlan();
+
+        assertNotNull(plan);
+        assertEquals(-1, plan.launchBefore(0));
+        assertArrayEquals(new int[] {2}, plan.launchedBefore(0));
+        assertArrayEquals(new int[] {3}, plan.launchedBefore(2));
+        assertArrayEquals(new int[] {5}, plan.launchedBefore(3));
+        assertEquals(-1, plan.launchBefore(4), "POST calls are not guessed");
+        assertEquals(3, plan.launchBefore(5), "once the kyc rule has run");
+
+        // An asynchronous kyc call is only saved just before the rule that reads it
+        config.getRules().get(2).getExternalCall().setAsync(true);
+        assertEquals(-1, ruleSetCompiler.compile(config).getPrefetchPlan().launchBefore(5));
+
+        config.setPrefetchExternalCalls(null);
+        assertNull(ruleSetCompiler.compile(config).getPrefetchPlan());
+    }
+
+    @Test
+    void testPrefetchedResponsesAreSavedWhenTheirRuleRuns() {
+        RuleConfig config = config(
+            call("customer", "GET", "https://api.example.com/customers/{{spel: #payload['id']}}", "customer"),
+            call("kyc", "GET", "https://api.example.com/kyc/{{spel: #payload['id']}}", "kyc"),
+            transform("merge", "#payload['summary'] = #ctx['customer']['name'] + ':' + #ctx['kyc']['level']"));
+        CompiledRuleSet ruleSet = ruleSetCompiler.compile(config);
+        ExternalCall customer = ruleSet.getRules().get(0).getExternalCall();
+        ExternalCall kyc = ruleSet.getRules().get(1).getExternalCall();
+        when(externalCallService.invokeAsync(same(kyc), anyMap()))
+            .thenReturn(CompletableFuture.completedFuture(Map.of("level", "FULL")));
+        when(externalCallService.invoke(same(customer), anyMap())).thenReturn(Map.of("name", "Ann"));
+
+        RuleResponse response = ruleEngine.execute(request(), ruleSet);
+
+        assertTrue(response.isValid(), () -> response.getErrors().toString());
+        assertEquals("Ann:FULL", ((Map<?, ?>) response.getTransformedPayload()).get("summary"));
+        assertEquals(2, response.getExternalCalls().size());
+        assertEquals(true, response.getExternalCalls().get(1).get("prefetched"));
+        assertEquals("EXTERNAL_CALL", response.getTrace().get(1).get("status"));
+        InOrder order = inOrder(externalCallService);
+        order.verify(externalCallService).invokeAsync(same(kyc), anyMap());
+        order.verify(externalCallService).invoke(same(customer), anyMap());
+        verify(externalCallService, never()).invoke(same(kyc), anyMap());
+    }
+
+    @Test
+    void testOnlyCallsTheRulesAreSureToMakeStartEarly() {
+        Rule kyc = call("kyc", "GET", "https://api.example.com/kyc/{{spel: #payload['id']}}", "kyc");
+        kyc.setWhen("#payload['country'] == 'US'");
+        Rule checked = call("checked", "GET", "https://api.example.com/checked/{{spel: #payload['id']}}", "checked");
+        checked.setValidate(List.of(new ValidationRule("$.id", true, "string", null, null, "id required")));
+        Rule stop = transform("stop", "#payload['seen'] = true");
+        stop.setOnSuccess(new Action("STOP"));
+        RuleConfig config = config(transform("first", "#payload['seen'] = true"), kyc, checked, stop,
+            transform("middle", "#payload['middle'] = true"),
+            call("score", "GET", "https://api.example.com/score/{{spel: #payload['id']}}", "score"),
+            call("lookup", "GET", "https://api.example.com/lookup/{{spel: #missing}}", "lookup"));
+        PrefetchPlan plan = ruleSetCompiler.compile(config).getPrefetchPlan();
+
+        assertNotNull(plan);
+        assertEquals(-1, plan.launchBefore(1), "a when condition may skip the call");
+        assertEquals(-1, plan.launchBefore(2), "a failed validation skips the call");
+        assertEquals(4, plan.launchBefore(5), "not before a rule that may stop");
+        assertEquals(-1, plan.launchBefore(6), "a variable the analysis does not follow");
+        assertEquals(1, plan.size());
+    }
+
+    private RuleRequest request() {
+        RuleRequest request = new RuleRequest();
+        request.setTypeOfRequest("test");
+        request.setPayload(new HashMap<>(Map.of("id", "c-1", "country", "IN")));
+        return request;
+    }
+}
@@ -0,0 +1,98 @@
+package com.example.service;
+
+import com.example.model.rule.ExternalCallCache;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ResponseCacheTest {
+
+    private final AtomicLong now = new AtomicLong();
+
+    private ResponseCache cache(int maxEntries) {
+        return new ResponseCache(Duration.ofSeconds(10), Duration.ofSeconds(20), maxEntries, now::get);
+    }
+
+    @Test
+    void testFreshStaleAndExpired() {
+        ResponseCache cache = cache(10);
+        AtomicInteger refreshes = new AtomicInteger();
+        CompletableFuture<Object> refreshed = new CompletableFuture<>();
+
+        assertNull(cache.get("a", () -> fail("no refresh on a miss")));
+        cache.put("a", "v1");
+        now.set(Duration.ofSeconds(9).toNanos());
+        assertEquals("v1", cache.get("a", () -> fail("no refresh while fresh")));
+
+        // Stale: served at once, refreshed by a single request
+        now.set(Duration.ofSeconds(15).toNanos());
+        assertEquals("v1", cache.get("a", () -> {
+            refreshes.incrementAndGet();
+            return refreshed;
+        }));
+        assertEquals("v1", cache.get("a", () -> fail("refresh already running")));
+        refreshed.complete("v2");
+        assertEquals("v2", cache.get("a", () -> fail("refreshed entry is fresh")));
+        assertEquals(1, refreshes.get());
+
+        // Past the stale period: a miss
+        now.set(Duration.ofSeconds(50).toNanos());
+        assertNull(cache.get("a", () -> fail("expired entries are not refreshed")));
+
+        assertEquals(2L, cache.stats().get("hits"));
+        assertEquals(2L, cache.stats().get("staleHits"));
+        assertEquals(2L, cache.stats().get("misses"));
+        assertEquals(1L, cache.stats().get("refreshes"));
+    }
+
+    @Test
+    void testFailedRefreshIsRetried() {
+        ResponseCache cache = cache(10);
+        cache.put("a", "v1");
+        now.set(Duration.ofSeconds(15).toNanos());
+        AtomicInteger refreshes = new AtomicInteger();
+
+        cache.get("a", () -> {
+            refreshes.incrementAndGet();
+            return CompletableFuture.failedFuture(new RuntimeException("down"));
+        });
+        assertEquals("v1", cache.get("a", () -> {
+            refreshes.incrementAndGet();
+            return CompletableFuture.completedFuture("v2");
+        }));
+        assertEquals(2, refreshes.get());
+        assertEquals("v2", cache.get("a", () -> fail("refreshed entry is fresh")));
+    }
+
+    @Test
+    void testEvictsLeastRecentlyUsed() {
+        ResponseCache cache = cache(2);
+        cache.put("a", 1);
+        cache.put("b", 2);
+        assertEquals(1, cache.get("a", () -> null));
+        cache.put("c", 3);
+
+        assertNull(cache.get("b", () -> null));
+        assertEquals(1, cache.get("a", () -> null));
+        assertEquals(3, cache.get("c", () -> null));
+        assertEquals(1L, cache.stats().get("evictions"));
+        assertEquals(2, cache.stats().get("size"));
+    }
+
+    @Test
+    void testSettingsFromConfiguration() {
+        ExternalCallCache settings = new ExternalCallCache();
+        assertThrows(IllegalArgumentException.class, () -> ResponseCache.of(settings));
+        settings.setTtl("5m");
+        settings.setMaxEntries(0);
+        assertThrows(IllegalArgumentException.class, () -> ResponseCache.of(settings));
+        settings.setMaxEntries(3);
+        settings.setStaleWhileRevalidate("PT1H");
+        assertEquals(3, ResponseCache.of(settings).stats().get("maxEntries"));
+    }
+}
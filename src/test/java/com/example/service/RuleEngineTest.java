@@ -11,6 +11,8 @@ import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.*;
@@ -19,20 +21,18 @@ import static org.mockito.Mockito.*;
 @ExtendWith(MockitoExtension.class)
 class RuleEngineTest {
 
-    @Mock
-    private SpelEvaluator spelEvaluator;
-
     @Mock
     private ExternalCallService externalCallService;
 
-    @Mock
-    private ObjectMapper objectMapper;
+    private SpelEvaluator spelEvaluator;
 
     private RuleEngine ruleEngine;
 
     @BeforeEach
     void setUp() {
-        ruleEngine = new RuleEngine(spelEvaluator, externalCallService, objectMapper);
+        ObjectMapper objectMapper = new ObjectMapper();
+        spelEvaluator = spy(new SpelEvaluator(objectMapper));
+        ruleEngine = new RuleEngine(spelEvaluator, new RuleSetCompiler(spelEvaluator), externalCallService, objectMapper);
     }
 
     @Test
@@ -62,10 +62,6 @@ class RuleEngineTest {
 
         config.setRules(Arrays.asList(rule));
 
-        when(objectMapper.convertValue(any(), eq(Map.class))).thenReturn(payload);
-        when(spelEvaluator.createContext(any(), any(), any(), any())).thenReturn(new HashMap<>());
-        when(spelEvaluator.evaluateBoolean(anyString(), any())).thenReturn(true);
-
         // When
         RuleResponse response = ruleEngine.execute(request, config);
 
@@ -105,9 +101,6 @@ class RuleEngineTest {
 
         config.setRules(Arrays.asList(rule));
 
-        when(objectMapper.convertValue(any(), eq(Map.class))).thenReturn(payload);
-        when(spelEvaluator.createContext(any(), any(), any(), any())).thenReturn(new HashMap<>());
-
         // When
         RuleResponse response = ruleEngine.execute(request, config);
 
@@ -144,10 +137,6 @@ class RuleEngineTest {
 
         config.setRules(Arrays.asList(rule));
 
-        when(objectMapper.convertValue(any(), eq(Map.class))).thenReturn(payload);
-        when(spelEvaluator.createContext(any(), any(), any(), any())).thenReturn(new HashMap<>());
-        when(spelEvaluator.evaluate(anyString(), any())).thenReturn("John Doe");
-
         // When
         RuleResponse response = ruleEngine.execute(request, config);
 
@@ -155,7 +144,9 @@ class RuleEngineTest {
         assertNotNull(response);
         assertTrue(response.isValid());
         assertEquals("TRANSFORMED", response.getTrace().get(0).get("status"));
-        verify(spelEvaluator).evaluate("#ctx['fullName'] = #payload['firstName'] + ' ' + #payload['lastName']", any());
+        verify(spelEvaluator).evaluateParsed(
+            argThat((ParsedExpression step) -> step.getText().equals("#ctx['fullName'] = #payload['firstName'] + ' ' + #payload['lastName']")),
+            anyMap());
     }
 
     @Test
@@ -178,10 +169,6 @@ class RuleEngineTest {
 
         config.setRules(Arrays.asList(rule));
 
-        when(objectMapper.convertValue(any(), eq(Map.class))).thenReturn(payload);
-        when(spelEvaluator.createContext(any(), any(), any(), any())).thenReturn(new HashMap<>());
-        when(spelEvaluator.evaluateBoolean("#payload['age'] >= 18", any())).thenReturn(true);
-
         // When
         RuleResponse response = ruleEngine.execute(request, config);
 
@@ -211,10 +198,6 @@ class RuleEngineTest {
 
         config.setRules(Arrays.asList(rule));
 
-        when(objectMapper.convertValue(any(), eq(Map.class))).thenReturn(payload);
-        when(spelEvaluator.createContext(any(), any(), any(), any())).thenReturn(new HashMap<>());
-        when(spelEvaluator.evaluateBoolean("#payload['age'] >= 18", any())).thenReturn(false);
-
         // When
         RuleResponse response = ruleEngine.execute(request, config);
 
@@ -225,6 +208,45 @@ class RuleEngineTest {
         assertEquals("when condition not met", response.getTrace().get(0).get("reason"));
     }
 
+    @Test
+    void testExecuteWithConstantWhenCondition() {
+        // Given
+        RuleRequest request = new RuleRequest();
+        request.setTypeOfRequest("test");
+        request.setPayload(new HashMap<>());
+
+        RuleConfig config = new RuleConfig();
+        config.setType("test");
+        Map<String, Object> defaults = new HashMap<>();
+        defaults.put("country", "IN");
+        config.setDefaults(defaults);
+
+        Rule usOnly = new Rule();
+        usOnly.setId("us-only");
+        usOnly.setWhen("#defaults['country'] == 'US'");
+        usOnly.setTransform(Arrays.asList(new TransformStep("SPEL", "#payload['us'] = true")));
+
+        Rule inOnly = new Rule();
+        inOnly.setId("in-only");
+        inOnly.setWhen("#defaults['country'] == 'IN'");
+        inOnly.setTransform(Arrays.asList(new TransformStep("SPEL", "#payload['country'] = #defaults['country']")));
+
+        config.setRules(Arrays.asList(usOnly, inOnly));
+
+        // When
+        RuleResponse response = ruleEngine.execute(request, config);
+
+        // Then
+        assertEquals("SKIPPED", response.getTrace().get(0).get("status"));
+        assertEquals("TRANSFORMED", response.getTrace().get(1).get("status"));
+        assertEquals(1, response.getTrace().get(1).get("fastPathSteps"));
+        Map<?, ?> transformed = (Map<?, ?>) response.getTransformedPayload();
+        assertEquals("IN", transformed.get("country"));
+        assertFalse(transformed.containsKey("us"));
+        verify(spelEvaluator, never()).evaluateParsedBoolean(any(), anyMap());
+        verify(spelEvaluator).tryFastPath(argThat(step -> step.getText().equals("#payload['country']='IN'")), anyMap());
+    }
+
     @Test
     void testExecuteWithExternalCall() {
         // Given
@@ -253,8 +275,6 @@ class RuleEngineTest {
         Map<String, Object> apiResult = new HashMap<>();
         apiResult.put("status", "success");
 
-        when(objectMapper.convertValue(any(), eq(Map.class))).thenReturn(payload);
-        when(spelEvaluator.createContext(any(), any(), any(), any())).thenReturn(new HashMap<>());
         when(externalCallService.invoke(any(), any())).thenReturn(apiResult);
 
         // When
@@ -269,6 +289,84 @@ class RuleEngineTest {
         assertEquals("GET", response.getExternalCalls().get(0).get("method"));
     }
 
+    @Test
+    void testExecuteWithAsyncExternalCall() {
+        ExternalCall externalCall = new ExternalCall();
+        externalCall.setMethod("GET");
+        externalCall.setUrl("https://api.example.com/kyc");
+        externalCall.setSaveAs("kyc");
+        externalCall.setAsync(true);
+
+        Rule call = new Rule();
+        call.setId("call");
+        call.setExternalCall(externalCall);
+        Rule independent = new Rule();
+        independent.setId("independent");
+        independent.setTransform(List.of(new TransformStep("SPEL", "#payload['pendingMeanwhile'] = !#payload['probe'].done")));
+        Rule reader = new Rule();
+        reader.setId("reader");
+        reader.setTransform(List.of(new TransformStep("SPEL", "#payload['kycStatus'] = #ctx['kyc']['status']")));
+
+        RuleConfig config = new RuleConfig();
+        config.setType("test");
+        config.setRules(List.of(call, independent, reader));
+
+        // Completes only when the engine waits for it
+        CompletableFuture<Object> response = new CompletableFuture<>() {
+            @Override
+            public Object join() {
+                complete(Map.of("status", "CLEAR"));
+                return super.join();
+            }
+        };
+        when(externalCallService.invokeAsync(any(), any())).thenReturn(response);
+
+        RuleRequest request = new RuleRequest();
+        request.setTypeOfRequest("test");
+        request.setPayload(new HashMap<>(Map.of("probe", response)));
+        RuleResponse result = ruleEngine.execute(request, config);
+
+        Map<?, ?> payload = (Map<?, ?>) result.getTransformedPayload();
+        assertTrue(result.isValid(), () -> result.getErrors().toString());
+        assertEquals(true, payload.get("pendingMeanwhile"));
+        assertEquals("CLEAR", payload.get("kycStatus"));
+        assertEquals("EXTERNAL_CALL", result.getTrace().get(0).get("status"));
+        assertEquals("SUCCESS", result.getExternalCalls().get(0).get("status"));
+        verify(externalCallService, never()).invoke(any(), any());
+    }
+
+    @Test
+    void testParallelRulesWaitForAsyncExternalCall() {
+        ExternalCall externalCall = new ExternalCall();
+        externalCall.setMethod("GET");
+        externalCall.setUrl("https://api.example.com/kyc");
+        externalCall.setSaveAs("kyc");
+        externalCall.setAsync(true);
+
+        Rule call = new Rule();
+        call.setId("call");
+        call.setExternalCall(externalCall);
+        Rule reader = new Rule();
+        reader.setId("reader");
+        reader.setTransform(List.of(new TransformStep("SPEL", "#payload['kycStatus'] = #ctx['kyc']?.get('status')")));
+
+        RuleConfig config = new RuleConfig();
+        config.setType("test");
+        config.setParallel(true);
+        config.setRules(List.of(call, reader));
+
+        when(externalCallService.invokeAsync(any(), any())).thenReturn(CompletableFuture.supplyAsync(
+            () -> Map.of("status", "CLEAR"), CompletableFuture.delayedExecutor(50, TimeUnit.MILLISECONDS)));
+
+        RuleRequest request = new RuleRequest();
+        request.setTypeOfRequest("test");
+        request.setPayload(new HashMap<>());
+        RuleResponse result = ruleEngine.execute(request, config);
+
+        assertEquals("CLEAR", ((Map<?, ?>) result.getTransformedPayload()).get("kycStatus"));
+        assertEquals(1, result.getExternalCalls().size());
+    }
+
     @Test
     void testExecuteWithStopAction() {
         // Given
@@ -295,9 +393,6 @@ class RuleEngineTest {
 
         config.setRules(Arrays.asList(rule1, rule2));
 
-        when(objectMapper.convertValue(any(), eq(Map.class))).thenReturn(payload);
-        when(spelEvaluator.createContext(any(), any(), any(), any())).thenReturn(new HashMap<>());
-
         // When
         RuleResponse response = ruleEngine.execute(request, config);
 
@@ -323,12 +418,10 @@ class RuleEngineTest {
         Rule rule = new Rule();
         rule.setId("e1");
         rule.setDescription("Error rule");
+        rule.setTransform(Arrays.asList(new TransformStep("SPEL", "#payload['missing'].length()")));
 
         config.setRules(Arrays.asList(rule));
 
-        when(objectMapper.convertValue(any(), eq(Map.class))).thenReturn(payload);
-        when(spelEvaluator.createContext(any(), any(), any(), any())).thenThrow(new RuntimeException("Test error"));
-
         // When
         RuleResponse response = ruleEngine.execute(request, config);
 
@@ -352,6 +445,53 @@ class RuleEngineTest {
         assertEquals(25, ruleEngine.getValueByPath(payload, "$.age"));
         assertEquals(payload, ruleEngine.getValueByPath(payload, null));
         assertEquals(payload, ruleEngine.getValueByPath(payload, ""));
+        // Read the whole payload before paths were parsed, and still do
+        assertEquals(payload, ruleEngine.getValueByPath(payload, "name"));
+        assertEquals(payload, ruleEngine.getValueByPath(payload, " "));
+    }
+
+    @Test
+    void testGetValueByJsonPath() {
+        Map<String, Object> payload = new HashMap<>();
+        payload.put("address", Map.of("city", "Pune", "zip code", "411001"));
+        payload.put("items", List.of(Map.of("sku", "A1"), Map.of("sku", "B2")));
+
+        assertEquals("Pune", ruleEngine.getValueByPath(payload, "$.address.city"));
+        assertEquals("411001", ruleEngine.getValueByPath(payload, "$.address['zip code']"));
+        assertEquals("A1", ruleEngine.getValueByPath(payload, "$.items[0].sku"));
+        assertEquals("B2", ruleEngine.getValueByPath(payload, "$['items'][-1]['sku']"));
+        assertEquals(List.of("A1", "B2"), ruleEngine.getValueByPath(payload, "$.items[*].sku"));
+        assertNull(ruleEngine.getValueByPath(payload, "$.items[5].sku"));
+        assertNull(ruleEngine.getValueByPath(payload, "$.address.city.name"));
+        assertThrows(IllegalArgumentException.class, () -> ruleEngine.getValueByPath(payload, "$..sku"));
+        assertThrows(IllegalArgumentException.class, () -> ruleEngine.getValueByPath(payload, "$.items[?(@.sku)]"));
+    }
+
+    @Test
+    void testExecuteWithWildcardValidation() {
+        Rule rule = new Rule();
+        rule.setId("items");
+        rule.setValidate(Arrays.asList(
+            new ValidationRule("$.items[*].sku", true, "string", "[A-Z][0-9]+", null, "sku invalid"),
+            new ValidationRule("$.items[*].qty", false, "number", null, null, "qty invalid"),
+            new ValidationRule("$.missing[*].sku", true, null, null, null, "missing")
+        ));
+        RuleConfig config = new RuleConfig();
+        config.setType("test");
+        config.setRules(Arrays.asList(rule));
+
+        List<Map<String, Object>> items = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            items.add(new HashMap<>(Map.of("sku", "A" + i, "qty", i)));
+        }
+        RuleRequest request = new RuleRequest();
+        request.setTypeOfRequest("test");
+        request.setPayload(new HashMap<>(Map.of("items", items)));
+        assertEquals(List.of("missing"), ruleEngine.execute(request, config).getErrors());
+
+        items.get(700).put("sku", "bad");
+        items.get(900).put("qty", "many");
+        assertEquals(List.of("sku invalid", "qty invalid", "missing"), ruleEngine.execute(request, config).getErrors());
     }
 
     @Test
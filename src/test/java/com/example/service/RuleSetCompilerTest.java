@@ -0,0 +1,256 @@
+package com.example.service;
+
+import com.example.model.rule.*;
+import com.example.service.plan.*;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RuleSetCompilerTest {
+
+    private SpelEvaluator spelEvaluator;
+    private RuleSetCompiler ruleSetCompiler;
+
+    @BeforeEach
+    void setUp() {
+        spelEvaluator = new SpelEvaluator(new ObjectMapper());
+        ruleSetCompiler = new RuleSetCompiler(spelEvaluator);
+    }
+
+    @Test
+    void testCompileRule() {
+        // Given
+        Rule rule = new Rule();
+        rule.setId("r1");
+        rule.setWhen("#payload['age'] >= 18");
+        rule.setStopOnValidationError(true);
+        rule.setValidate(Arrays.asList(
+            new ValidationRule("$.email", true, "STRING", "^[^@]+@[^@]+$", null, "email invalid")
+        ));
+        rule.setTransform(Arrays.asList(
+            new TransformStep("spel", "#ctx['x'] = 1"),
+            new TransformStep("OTHER", "ignored")
+        ));
+        rule.setOnSuccess(new Action("STOP"));
+
+        RuleConfig config = new RuleConfig();
+        config.setType("test");
+        config.setRules(Arrays.asList(rule));
+
+        // When
+        CompiledRuleSet ruleSet = ruleSetCompiler.compile(config);
+
+        // Then
+        assertEquals("test", ruleSet.getType());
+        assertEquals(1, ruleSet.getRules().size());
+        CompiledRule compiled = ruleSet.getRules().get(0);
+        assertSame(spelEvaluator.parse("#payload['age'] >= 18"), compiled.getWhen());
+        assertTrue(compiled.isStopOnValidationError());
+        assertEquals(RuleAction.STOP, compiled.getOnSuccess());
+        assertEquals(RuleAction.CONTINUE, compiled.getOnFailure());
+        assertTrue(compiled.isTransformDeclared());
+        assertEquals(1, compiled.getTransforms().size());
+
+        CompiledValidation validation = compiled.getValidations().get(0);
+        assertEquals(ValueType.STRING, validation.getType());
+        assertTrue(validation.getPattern().matcher("a@b").matches());
+
+        Map<String, Object> payload = new HashMap<>();
+        payload.put("email", "a@b");
+        assertEquals("a@b", validation.getAccessor().read(payload));
+    }
+
+    @Test
+    void testCompileRuleWithoutOptionalParts() {
+        Rule rule = new Rule();
+        rule.setId("r1");
+        rule.setWhen("  ");
+
+        RuleConfig config = new RuleConfig();
+        config.setRules(Arrays.asList(rule));
+
+        CompiledRule compiled = ruleSetCompiler.compile(config).getRules().get(0);
+        assertNull(compiled.getWhen());
+        assertTrue(compiled.getValidations().isEmpty());
+        assertFalse(compiled.isTransformDeclared());
+        assertEquals(RuleAction.CONTINUE, compiled.getOnSuccess());
+    }
+
+    @Test
+    void testCompileFailsOnInvalidExpression() {
+        Rule rule = new Rule();
+        rule.setId("bad");
+        rule.setWhen("#payload[");
+
+        RuleConfig config = new RuleConfig();
+        config.setRules(Arrays.asList(rule));
+
+        RuntimeException e = assertThrows(RuntimeException.class, () -> ruleSetCompiler.compile(config));
+        assertTrue(e.getMessage().contains("rule bad"));
+    }
+
+    @Test
+    void testCompileFailsOnVariableAssignment() {
+        // The second rule would otherwise see #tmp, as one evaluation context serves the request
+        Rule first = new Rule();
+        first.setId("assigns");
+        first.setTransform(Arrays.asList(new TransformStep("spel", "#tmp = #payload['amount'] * 2")));
+        Rule second = new Rule();
+        second.setId("reads");
+        second.setTransform(Arrays.asList(new TransformStep("spel", "#ctx['doubled'] = #tmp")));
+
+        RuleConfig config = new RuleConfig();
+        config.setRules(Arrays.asList(first, second));
+
+        RuntimeException e = assertThrows(RuntimeException.class, () -> ruleSetCompiler.compile(config));
+        assertTrue(e.getMessage().contains("rule assigns"), e.getMessage());
+        assertTrue(e.getMessage().contains("assigns a variable"), e.getMessage());
+    }
+
+    @Test
+    void testCompileFailsOnInvalidRegex() {
+        Rule rule = new Rule();
+        rule.setId("bad");
+        rule.setValidate(Arrays.asList(new ValidationRule("$.name", false, null, "([a-z", null, "invalid")));
+
+        RuleConfig config = new RuleConfig();
+        config.setRules(Arrays.asList(rule));
+
+        RuntimeException e = assertThrows(RuntimeException.class, () -> ruleSetCompiler.compile(config));
+        assertTrue(e.getMessage().contains("$.name"));
+    }
+
+    @Test
+    void testCompileReportsAllInvalidRegexes() {
+        Rule first = new Rule();
+        first.setId("first");
+        first.setValidate(Arrays.asList(new ValidationRule("$.name", false, null, "([a-z", null, "invalid")));
+        Rule second = new Rule();
+        second.setId("second");
+        second.setValidate(Arrays.asList(
+            new ValidationRule("$.email", false, null, "^[^@]+@[^@]+$", null, "email invalid"),
+            new ValidationRule("$.code", false, null, "*x", null, "code invalid")));
+
+        RuleConfig config = new RuleConfig();
+        config.setType("broken");
+        config.setRules(Arrays.asList(first, second));
+
+        RuntimeException e = assertThrows(RuntimeException.class, () -> ruleSetCompiler.compile(config));
+        assertTrue(e.getMessage().startsWith("2 invalid regexes for type broken"), e.getMessage());
+        assertTrue(e.getMessage().contains("$.name in rule first"));
+        assertTrue(e.getMessage().contains("$.code in rule second"));
+    }
+
+    @Test
+    void testCompiledRegexMatchesWholeValue() {
+        Rule rule = new Rule();
+        rule.setId("email");
+        rule.setValidate(Arrays.asList(new ValidationRule("$.email", false, null, "[^@]+@[^@]+", null, "email invalid")));
+        RuleConfig config = new RuleConfig();
+        config.setRules(Arrays.asList(rule));
+
+        CompiledValidation validation = ruleSetCompiler.compile(config).getRules().get(0).getValidations().get(0);
+        assertTrue(validation.matches("a@b"));
+        assertFalse(validation.matches("a@b@c"));
+        assertTrue(validation.matches("c@d"));
+        assertFalse(validation.matches(""));
+    }
+
+    @Test
+    void testLinearRegexEngine() {
+        ValidationRule nested = new ValidationRule("$.code", false, null, "(a+)+$", null, "code invalid");
+        ValidationRule backreference = new ValidationRule("$.pair", false, null, "(a)\\1", null, "pair invalid");
+        ValidationRule backtracking = new ValidationRule("$.name", false, null, "[a-z]+", null, "name invalid");
+        backtracking.setRegexEngine("backtracking");
+        Rule rule = new Rule();
+        rule.setId("codes");
+        rule.setValidate(Arrays.asList(nested, backreference, backtracking));
+        RuleConfig config = new RuleConfig();
+        config.setRegexEngine("linear");
+        config.setRules(Arrays.asList(rule));
+
+        List<CompiledValidation> validations = ruleSetCompiler.compile(config).getRules().get(0).getValidations();
+        assertEquals(RegexEngine.LINEAR, validations.get(0).getRegexEngine());
+        assertEquals(RegexEngine.BACKTRACKING, validations.get(1).getRegexEngine());
+        assertEquals(RegexEngine.BACKTRACKING, validations.get(2).getRegexEngine());
+
+        // Takes exponential time with a backtracking engine
+        String input = "a".repeat(5000) + "b";
+        assertTimeoutPreemptively(Duration.ofSeconds(5), () -> assertFalse(validations.get(0).matches(input)));
+        assertTrue(validations.get(0).matches("aaaa"));
+        assertTrue(validations.get(1).matches("aa"));
+        assertFalse(validations.get(1).matches("ab"));
+    }
+
+    @Test
+    void testRestrictedModeRejectsTypeReferences() {
+        Rule rule = new Rule();
+        rule.setId("tenant");
+        rule.setTransform(Arrays.asList(new TransformStep("SPEL", "#ctx['x'] = new java.util.HashMap()")));
+
+        RuleConfig config = new RuleConfig();
+        config.setEvaluationMode("restricted");
+        config.setRules(Arrays.asList(rule));
+
+        RuntimeException e = assertThrows(RuntimeException.class, () -> ruleSetCompiler.compile(config));
+        assertTrue(e.getMessage().contains("rule tenant"));
+
+        config.setEvaluationMode(null);
+        assertEquals(EvaluationMode.STANDARD, ruleSetCompiler.compile(config).getEvaluationMode());
+    }
+
+    @Test
+    void testCompileWarmsExternalCallTemplates() {
+        Rule rule = new Rule();
+        rule.setId("kyc");
+        Map<String, String> headers = new HashMap<>();
+        headers.put("X-Customer", "{{spel: #payload['id']}}");
+        rule.setExternalCall(new ExternalCall("POST", "http://localhost/kyc", headers, "{\"id\": \"{{spel: #payload['id']}}\"}", "kyc"));
+
+        RuleConfig config = new RuleConfig();
+        config.setRules(Arrays.asList(rule));
+        ruleSetCompiler.compile(config);
+
+        assertEquals(3, spelEvaluator.getTemplateCacheStats().get("size"));
+
+        headers.put("X-Broken", "{{spel: #payload[}}");
+        RuntimeException e = assertThrows(RuntimeException.class, () -> ruleSetCompiler.compile(config));
+        assertTrue(e.getMessage().contains("rule kyc"));
+    }
+
+    @Test
+    void testCompileFoldsConstantConditions() {
+        Rule never = new Rule();
+        never.setId("never");
+        never.setWhen("#defaults['riskThreshold'] > 100");
+        Rule always = new Rule();
+        always.setId("always");
+        always.setWhen("#defaults['riskThreshold'] > 50");
+
+        RuleConfig config = new RuleConfig();
+        Map<String, Object> defaults = new HashMap<>();
+        defaults.put("riskThreshold", 70);
+        config.setDefaults(defaults);
+        config.setRules(Arrays.asList(never, always));
+
+        CompiledRuleSet ruleSet = ruleSetCompiler.compile(config);
+        assertTrue(ruleSet.getRules().get(0).isNeverApplies());
+        assertNull(ruleSet.getRules().get(0).getWhen());
+        assertFalse(ruleSet.getRules().get(1).isNeverApplies());
+        assertNull(ruleSet.getRules().get(1).getWhen());
+
+        // a transform writing #defaults turns folding off for the whole configuration
+        always.setTransform(Arrays.asList(new TransformStep("SPEL", "#defaults['riskThreshold'] = 10")));
+        ruleSet = ruleSetCompiler.compile(config);
+        assertFalse(ruleSet.getRules().get(0).isNeverApplies());
+        assertEquals("#defaults['riskThreshold'] > 100", ruleSet.getRules().get(0).getWhen().getText());
+    }
+}
@@ -1,11 +1,14 @@
 package com.example.service;
 
+import com.example.config.SpelConfig;
+import com.example.service.plan.EvaluationMode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.expression.spel.SpelCompilerMode;
 
 import java.time.LocalDateTime;
 import java.util.HashMap;
@@ -97,6 +100,27 @@ class SpelEvaluatorTest {
         assertEquals("Hello World", result);
     }
 
+    @Test
+    void testCompiledTemplate() {
+        Map<String, Object> context = new HashMap<>();
+        context.put("name", "John");
+
+        CompiledTemplate template = spelEvaluator.compileTemplate("{{spel: #name}}-{{spel: #missing}}-{{spel: }}$1\\");
+        assertSame(template, spelEvaluator.compileTemplate("{{spel: #name}}-{{spel: #missing}}-{{spel: }}$1\\"));
+        assertFalse(template.isConstant());
+        assertEquals(2, template.getExpressions().size());
+        assertEquals("John--$1\\", spelEvaluator.render(template, context));
+
+        String constant = "https://api.example.com/v1/verify";
+        assertTrue(spelEvaluator.compileTemplate(constant).isConstant());
+        assertSame(constant, spelEvaluator.processTemplate(constant, context));
+    }
+
+    @Test
+    void testCompileTemplateWithInvalidExpression() {
+        assertThrows(RuntimeException.class, () -> spelEvaluator.compileTemplate("{{spel: #payload[}}"));
+    }
+
     @Test
     void testCreateContext() {
         Map<String, Object> payload = new HashMap<>();
@@ -121,6 +145,44 @@ class SpelEvaluatorTest {
         assertTrue(context.get("now") instanceof LocalDateTime);
     }
 
+    @Test
+    void testCreateContextIsSharedAcrossEvaluations() {
+        Map<String, Object> payload = new HashMap<>();
+        payload.put("name", "  John ");
+        Map<String, Object> ctx = new HashMap<>();
+
+        Map<String, Object> context = spelEvaluator.createContext(payload, ctx, new HashMap<>(), new HashMap<>());
+
+        spelEvaluator.evaluate("#payload['name'] = #payload['name'].trim()", context);
+        spelEvaluator.evaluate("#ctx['greeting'] = 'Hello ' + #payload['name']", context);
+
+        assertEquals("Hello John", spelEvaluator.evaluate("#ctx['greeting']", context));
+        assertThrows(UnsupportedOperationException.class, () -> context.put("payload", new HashMap<>()));
+    }
+
+    @Test
+    void testRestrictedContext() {
+        Map<String, Object> payload = new HashMap<>();
+        payload.put("email", "  John@Example.com ");
+        payload.put("age", 20);
+        Map<String, Object> ctx = new HashMap<>();
+        Map<String, Object> defaults = new HashMap<>();
+        defaults.put("bonus", 5);
+
+        Map<String, Object> context = spelEvaluator.createContext(payload, ctx, defaults, new HashMap<>(),
+                EvaluationMode.RESTRICTED);
+
+        spelEvaluator.evaluate("#payload['email'] = #payload['email'].trim().toLowerCase()", context);
+        assertEquals("john@example.com", payload.get("email"));
+        assertEquals(25, spelEvaluator.evaluate("#payload.age + (#defaults['bonus'] ?: 0)", context));
+        assertNull(spelEvaluator.evaluate("#ctx['missing']?.length()", context));
+        assertTrue(spelEvaluator.evaluateBoolean("#payload['email'].endsWith('.com')", context));
+
+        assertThrows(RuntimeException.class, () -> spelEvaluator.evaluate("T(java.lang.System).exit(0)", context));
+        assertThrows(RuntimeException.class, () -> spelEvaluator.evaluate("#payload.getClass().getName()", context));
+        assertThrows(RuntimeException.class, () -> spelEvaluator.evaluate("new java.util.HashMap()", context));
+    }
+
     @Test
     void testMapAccessWithBrackets() {
         Map<String, Object> payload = new HashMap<>();
@@ -296,4 +358,84 @@ class SpelEvaluatorTest {
         // Then
         assertFalse((Boolean) result);
     }
+
+    @Test
+    void testParsedExpressionsAreCached() {
+        Map<String, Object> context = new HashMap<>();
+        context.put("x", 2);
+
+        spelEvaluator.evaluate("#x * 2", context);
+        spelEvaluator.evaluate("#x * 2", context);
+        spelEvaluator.evaluate("#x * 3", context);
+
+        Map<String, Object> stats = spelEvaluator.getExpressionCacheStats();
+        assertEquals(2, stats.get("size"));
+        assertEquals(1L, stats.get("hits"));
+        assertEquals(2L, stats.get("misses"));
+        assertSame(spelEvaluator.parse("#x * 2"), spelEvaluator.parse("#x * 2"));
+    }
+
+    @Test
+    void testExpressionCacheIsBounded() {
+        SpelConfig config = new SpelConfig();
+        config.setExpressionCacheSize(2);
+        SpelEvaluator boundedEvaluator = new SpelEvaluator(objectMapper, config);
+
+        Map<String, Object> context = new HashMap<>();
+        for (int i = 0; i < 5; i++) {
+            assertEquals(i, boundedEvaluator.evaluate(String.valueOf(i), context));
+        }
+
+        Map<String, Object> stats = boundedEvaluator.getExpressionCacheStats();
+        assertEquals(2, stats.get("size"));
+        assertEquals(3L, stats.get("evictions"));
+    }
+
+    @Test
+    void testCompilerModeCompilesExpressions() {
+        SpelConfig config = new SpelConfig();
+        config.setCompilerMode(SpelCompilerMode.IMMEDIATE);
+        SpelEvaluator compilingEvaluator = new SpelEvaluator(objectMapper, config);
+
+        Map<String, Object> ctx = new HashMap<>();
+        Map<String, Object> context = new HashMap<>();
+        context.put("x", 10);
+        context.put("ctx", ctx);
+
+        assertEquals(ParsedExpression.CompileStatus.PENDING, compilingEvaluator.parse("#x > 5").getCompileStatus());
+        for (int i = 0; i < 3; i++) {
+            assertTrue(compilingEvaluator.evaluateBoolean("#x > 5", context));
+            compilingEvaluator.evaluate("#ctx['y'] = #x", context);
+        }
+
+        assertEquals(ParsedExpression.CompileStatus.COMPILED, compilingEvaluator.parse("#x > 5").getCompileStatus());
+        assertEquals(ParsedExpression.CompileStatus.NOT_COMPILABLE, compilingEvaluator.parse("#ctx['y'] = #x").getCompileStatus());
+        assertEquals(10, ctx.get("y"));
+    }
+
+    @Test
+    void testCompiledExpressionFallsBackToInterpreter() {
+        SpelConfig config = new SpelConfig();
+        config.setCompilerMode(SpelCompilerMode.IMMEDIATE);
+        SpelEvaluator compilingEvaluator = new SpelEvaluator(objectMapper, config);
+
+        Map<String, Object> context = new HashMap<>();
+        context.put("x", 10);
+        compilingEvaluator.evaluate("#x > 5", context);
+        compilingEvaluator.evaluate("#x > 5", context);
+
+        context.put("x", 10L);
+        assertTrue(compilingEvaluator.evaluateBoolean("#x > 5", context));
+        assertEquals(ParsedExpression.CompileStatus.FALLBACK, compilingEvaluator.parse("#x > 5").getCompileStatus());
+    }
+
+    @Test
+    void testCompilerModeOffInterpretsExpressions() {
+        Map<String, Object> context = new HashMap<>();
+        context.put("x", 10);
+        spelEvaluator.evaluate("#x > 5", context);
+
+        assertEquals(ParsedExpression.CompileStatus.INTERPRETED, spelEvaluator.parse("#x > 5").getCompileStatus());
+        assertEquals(SpelCompilerMode.OFF, spelEvaluator.getCompileStats().get("compilerMode"));
+    }
 }
@@ -0,0 +1,171 @@
+package com.example.service;
+
+import com.example.config.RuleRequestDeserializer;
+import com.example.model.RuleRequest;
+import com.example.model.RuleResponse;
+import com.example.model.rule.*;
+import com.example.service.plan.CompiledRuleSet;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.beans.factory.ObjectProvider;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class StreamingValidationTest {
+
+    @Mock
+    private ExternalCallService externalCallService;
+
+    private ObjectMapper objectMapper;
+    private RuleSetCompiler ruleSetCompiler;
+    private RuleEngine ruleEngine;
+
+    @BeforeEach
+    void setUp() {
+        objectMapper = new ObjectMapper();
+        SpelEvaluator spelEvaluator = new SpelEvaluator(objectMapper);
+        ruleSetCompiler = new RuleSetCompiler(spelEvaluator);
+        ruleEngine = new RuleEngine(spelEvaluator, ruleSetCompiler, externalCallService, objectMapper);
+    }
+
+    private CompiledRuleSet compile(boolean streaming) {
+        Rule check = new Rule();
+        check.setId("check");
+        check.setStopOnValidationError(true);
+        check.setValidate(Arrays.asList(
+            new ValidationRule("$.email", true, "string", "[^@]+@[^@]+", null, "email invalid"),
+            new ValidationRule("$.address.city", true, "string", null, null, "city required"),
+            new ValidationRule("$.items[*].sku", true, "string", null, null, "sku required"),
+            new ValidationRule("$.items[0]", false, "object", null, null, "first item invalid"),
+            new ValidationRule("$.age", false, "number", null, "#payload['age'] >= 18", "must be 18+")
+        ));
+        Rule mark = new Rule();
+        mark.setId("mark");
+        mark.setTransform(List.of(new TransformStep("SPEL", "#payload['checked'] = true")));
+
+        RuleConfig config = new RuleConfig();
+        config.setType("test");
+        config.setStreamingValidation(streaming);
+        config.setRules(Arrays.asList(check, mark));
+        return ruleSetCompiler.compile(config);
+    }
+
+    @SuppressWarnings("unchecked")
+    private ObjectMapper requestMapper(RuleConfigService ruleConfigService) {
+        ObjectProvider<RuleConfigService> provider = mock(ObjectProvider.class);
+        when(provider.getObject()).thenReturn(ruleConfigService);
+        return new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)
+            .registerModule(new SimpleModule().addDeserializer(RuleRequest.class, new RuleRequestDeserializer(provider)));
+    }
+
+    private RuleResponse execute(CompiledRuleSet ruleSet, String payload) throws Exception {
+        // No rule sets are loaded, so the payload is buffered
+        RuleRequest request = requestMapper(mock(RuleConfigService.class)).readValue(
+            "{\"typeOfRequest\": \"test\", \"payload\": " + payload + "}", RuleRequest.class);
+        assertInstanceOf(TokenBuffer.class, request.getPayload());
+        return ruleEngine.execute(request, ruleSet);
+    }
+
+    @Test
+    void testRejectsBeforeReadingPayload() throws Exception {
+        CompiledRuleSet ruleSet = compile(true);
+        assertEquals(5, ruleSet.getStreamingValidator().size());
+
+        String invalid = "{\"email\": \"nobody\", \"address\": {\"city\": \" \"}, \"notes\": [1, {\"a\": [2]}],"
+            + " \"items\": [\"x\", {\"sku\": \"A1\"}, {\"sku\": null}], \"age\": 12}";
+        RuleResponse response = execute(ruleSet, invalid);
+        assertFalse(response.isValid());
+        assertEquals(List.of("email invalid", "city required", "sku required", "first item invalid"), response.getErrors());
+        assertNull(response.getTransformedPayload());
+        assertEquals("FAILED", response.getTrace().get(0).get("status"));
+        assertEquals(1, response.getTrace().size());
+
+        assertEquals(List.of("email invalid", "city required", "sku required"),
+            execute(ruleSet, "{\"email\": 42, \"items\": []}").getErrors());
+    }
+
+    @Test
+    void testValidPayloadRunsAllRules() throws Exception {
+        String payload = "{\"email\": \"a@b\", \"address\": {\"city\": \"Pune\"}, \"items\": [{\"sku\": \"A1\"}], \"age\": 12}";
+        RuleResponse streamed = execute(compile(true), payload);
+        RuleResponse full = execute(compile(false), payload);
+
+        // The SpEL check is left to the rule itself
+        assertEquals(List.of("must be 18+"), streamed.getErrors());
+        assertEquals(full.getErrors(), streamed.getErrors());
+        assertEquals(full.getTransformedPayload(), streamed.getTransformedPayload());
+    }
+
+    @Test
+    void testNeedsUnconditionalStoppingFirstRule() {
+        Rule rule = new Rule();
+        rule.setId("check");
+        rule.setValidate(List.of(new ValidationRule("$.email", true, null, null, null, "email required")));
+        RuleConfig config = new RuleConfig();
+        config.setType("test");
+        config.setStreamingValidation(true);
+        config.setRules(List.of(rule));
+        assertNull(ruleSetCompiler.compile(config).getStreamingValidator());
+
+        rule.setStopOnValidationError(true);
+        assertNotNull(ruleSetCompiler.compile(config).getStreamingValidator());
+        rule.setWhen("#payload['email'] != null");
+        assertNull(ruleSetCompiler.compile(config).getStreamingValidator());
+    }
+
+    @Test
+    void testRequestBodyBindsPayloadDirectlyUnlessStreaming() throws Exception {
+        RuleConfigService ruleConfigService = mock(RuleConfigService.class);
+        when(ruleConfigService.getLoadedRuleSets()).thenReturn(Map.of("plain", compile(false), "streamed", compile(true)));
+        ObjectMapper mapper = requestMapper(ruleConfigService);
+
+        RuleRequest plain = mapper.readValue(
+            "{\"typeOfRequest\": \"plain\", \"payload\": {\"a\": {\"b\": [1]}}, \"extra\": 1}", RuleRequest.class);
+        assertEquals("plain", plain.getTypeOfRequest());
+        assertEquals(Map.of("a", Map.of("b", List.of(1))), plain.getPayload());
+        assertSame(plain.getPayload(), plain.getBoundPayload());
+
+        RuleRequest streamed = mapper.readValue(
+            "{\"typeOfRequest\": \"streamed\", \"payload\": {\"email\": \"x\"}}", RuleRequest.class);
+        assertInstanceOf(TokenBuffer.class, streamed.getPayload());
+        // The type is not known yet when the payload comes first
+        RuleRequest payloadFirst = mapper.readValue(
+            "{\"payload\": {\"email\": \"x\"}, \"typeOfRequest\": \"plain\"}", RuleRequest.class);
+        assertInstanceOf(TokenBuffer.class, payloadFirst.getPayload());
+        assertEquals("plain", payloadFirst.getTypeOfRequest());
+        assertNull(payloadFirst.getBoundPayload());
+        // Rules that are not loaded yet are never loaded while the body is read
+        RuleRequest unknown = mapper.readValue(
+            "{\"typeOfRequest\": \"unknown\", \"payload\": {\"email\": \"x\"}}", RuleRequest.class);
+        assertInstanceOf(TokenBuffer.class, unknown.getPayload());
+        verify(ruleConfigService, never()).loadRuleSet(any());
+    }
+
+    @Test
+    void testCallerPayloadIsNotChanged() {
+        Map<String, Object> payload = new LinkedHashMap<>(Map.of("email", "a@b",
+            "address", Map.of("city", "Pune"), "items", List.of(Map.of("sku", "A1")), "age", 30));
+        Map<String, Object> original = new LinkedHashMap<>(payload);
+
+        RuleResponse response = ruleEngine.execute(new RuleRequest("test", payload), compile(false));
+        assertTrue(response.isValid(), () -> response.getErrors().toString());
+        assertEquals(true, ((Map<?, ?>) response.getTransformedPayload()).get("checked"));
+        assertEquals(original, payload);
+    }
+}